@@ -67,6 +67,28 @@ class AlpakkaKafkaConsumerNokafka extends BenchmarksBase() {
   }
 }
 
+class CommitAggregationNokafka extends BenchmarksBase() {
+  it should "bench aggregating commits in a list" in {
+    val cmd = RunTestCommand("commit-aggregation-list-nokafka", bootstrapServers, topic_1000_5000_100)
+    runPerfTest(cmd, CommitAggregationFixtures.noKafka(cmd), CommitAggregationBenchmarks.aggregateInList)
+  }
+
+  it should "bench aggregating commits in a table" in {
+    val cmd = RunTestCommand("commit-aggregation-table-nokafka", bootstrapServers, topic_1000_5000_100)
+    runPerfTest(cmd, CommitAggregationFixtures.noKafka(cmd), CommitAggregationBenchmarks.aggregateInTable)
+  }
+
+  it should "bench batching offsets in immutable batches" in {
+    val cmd = RunTestCommand("commit-batching-immutable-nokafka", bootstrapServers, topic_1000_5000_100)
+    runPerfTest(cmd, CommitAggregationFixtures.noKafka(cmd), CommitAggregationBenchmarks.batchImmutable)
+  }
+
+  it should "bench batching offsets in a builder" in {
+    val cmd = RunTestCommand("commit-batching-builder-nokafka", bootstrapServers, topic_1000_5000_100)
+    runPerfTest(cmd, CommitAggregationFixtures.noKafka(cmd), CommitAggregationBenchmarks.batchInBuilder)
+  }
+}
+
 class ApacheKafkaPlainConsumer extends BenchmarksBase() {
   it should "bench" in {
     val cmd = RunTestCommand("apache-kafka-plain-consumer", bootstrapServers, topic_2000_100)
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.benchmarks
+
+import akka.kafka.ConsumerMessage.{CommittableOffsetBatch, GroupTopicPartition, PartitionOffset}
+import akka.kafka.benchmarks.app.RunTestCommand
+import akka.kafka.internal.{CommittableOffsetBatchBuilder, CommittableOffsetImpl, PendingCommitOffsets}
+import com.codahale.metrics.Meter
+import com.typesafe.scalalogging.LazyLogging
+import org.apache.kafka.clients.consumer.OffsetAndMetadata
+import org.apache.kafka.common.TopicPartition
+
+case class CommitAggregationFixture(msgCount: Int, partitions: Array[TopicPartition], commitsPerPoll: Int)
+
+object CommitAggregationFixtures {
+  def noKafka(c: RunTestCommand, commitsPerPoll: Int = 1000) = FixtureGen[CommitAggregationFixture](
+    c,
+    msgCount => {
+      val partitions = Array.tabulate(c.numberOfPartitions)(p => new TopicPartition(c.filledTopic.topic, p))
+      CommitAggregationFixture(msgCount, partitions, commitsPerPoll)
+    }
+  )
+}
+
+/**
+ * Aggregation of the offsets to commit as done by the consumer actor for every `Commit` message it receives,
+ * without Kafka.
+ */
+object CommitAggregationBenchmarks extends LazyLogging {
+
+  /**
+   * Prepend every offset to a list and fold it into an immutable map for each poll (the previous implementation).
+   */
+  def aggregateInList(fixture: CommitAggregationFixture, meter: Meter): Unit = {
+    var commitMaps = List.empty[(TopicPartition, OffsetAndMetadata)]
+    var committed = 0L
+    var i = 0
+    while (i < fixture.msgCount) {
+      val tp = fixture.partitions(i % fixture.partitions.length)
+      commitMaps = tp -> new OffsetAndMetadata(i.toLong) :: commitMaps
+      i += 1
+      meter.mark()
+      if (i % fixture.commitsPerPoll == 0) {
+        val aggregated = commitMaps.foldLeft(Map.empty[TopicPartition, OffsetAndMetadata]) { (aggregate, add) =>
+          val (tp, toBeAdded) = add
+          if (aggregate.get(tp).exists(_.offset > toBeAdded.offset)) aggregate
+          else aggregate + add
+        }
+        committed += aggregated.size
+        commitMaps = List.empty
+      }
+    }
+    logger.info(s"Committed $committed partition offsets")
+  }
+
+  /**
+   * Keep the highest offset per partition in a mutable table, drained for each poll.
+   */
+  def aggregateInTable(fixture: CommitAggregationFixture, meter: Meter): Unit = {
+    val pending = new PendingCommitOffsets
+    var committed = 0L
+    var i = 0
+    while (i < fixture.msgCount) {
+      val tp = fixture.partitions(i % fixture.partitions.length)
+      pending.add(tp, new OffsetAndMetadata(i.toLong))
+      i += 1
+      meter.mark()
+      if (i % fixture.commitsPerPoll == 0) {
+        committed += pending.drain().size
+      }
+    }
+    logger.info(s"Committed $committed partition offsets")
+  }
+
+  private def groupTopicPartitions(fixture: CommitAggregationFixture): Array[GroupTopicPartition] =
+    fixture.partitions.map(tp => GroupTopicPartition("group", tp.topic, tp.partition))
+
+  /**
+   * Batch the offsets as the committer stages did, by updating an immutable batch for every offset and emitting
+   * it after `commitsPerPoll` offsets.
+   */
+  def batchImmutable(fixture: CommitAggregationFixture, meter: Meter): Unit = {
+    val partitions = groupTopicPartitions(fixture)
+    var batch = CommittableOffsetBatch.empty
+    var committed = 0L
+    var i = 0
+    while (i < fixture.msgCount) {
+      val gtp = partitions(i % partitions.length)
+      batch = batch.updated(CommittableOffsetImpl(PartitionOffset(gtp, i.toLong), "")(null))
+      i += 1
+      meter.mark()
+      if (i % fixture.commitsPerPoll == 0) {
+        committed += batch.offsets.size
+        batch = CommittableOffsetBatch.empty
+      }
+    }
+    logger.info(s"Committed $committed partition offsets")
+  }
+
+  /**
+   * Batch the offsets in a mutable builder, creating the immutable batch only after `commitsPerPoll` offsets.
+   */
+  def batchInBuilder(fixture: CommitAggregationFixture, meter: Meter): Unit = {
+    val partitions = groupTopicPartitions(fixture)
+    val builder = new CommittableOffsetBatchBuilder
+    var committed = 0L
+    var i = 0
+    while (i < fixture.msgCount) {
+      val gtp = partitions(i % partitions.length)
+      builder.add(CommittableOffsetImpl(PartitionOffset(gtp, i.toLong), "")(null))
+      i += 1
+      meter.mark()
+      if (i % fixture.commitsPerPoll == 0) {
+        committed += builder.take().offsets.size
+      }
+    }
+    logger.info(s"Committed $committed partition offsets")
+  }
+}
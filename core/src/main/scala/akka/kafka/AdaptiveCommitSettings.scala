@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka
+
+import java.time.{Duration => JDuration}
+
+import akka.annotation.{ApiMayChange, InternalApi}
+import akka.util.JavaDurationConverters._
+import com.typesafe.config.Config
+
+import scala.concurrent.duration._
+
+/**
+ * API MAY CHANGE
+ *
+ * Settings for adapting the committer's batch size and interval to the observed commit round trip time and inflow
+ * of offsets.
+ *
+ * When enabled, the committer's `maxBatch` and `maxInterval` become upper bounds. The effective interval is the
+ * longest which keeps the committed offsets within `targetLag` of the stream, given the commit round trip time,
+ * but at least `minInterval` and long enough for at most `maxCommitsInFlight` commits to be in flight. The
+ * effective batch size is the number of offsets expected within the effective interval, at least `minBatch`.
+ * With `CommitDelivery.WaitForAck`, at most `maxCommitsInFlight` commits are in flight.
+ */
+@ApiMayChange
+class AdaptiveCommitSettings @InternalApi private[kafka] (val enable: Boolean,
+                                                          val minBatch: Long,
+                                                          val minInterval: FiniteDuration,
+                                                          val maxCommitsInFlight: Int,
+                                                          val targetLag: FiniteDuration) {
+  require(minBatch >= 1, "The min batch for adaptive commits must be at least 1")
+  require(maxCommitsInFlight >= 1, "The max commits in flight for adaptive commits must be at least 1")
+  require(targetLag > Duration.Zero, "The target lag for adaptive commits must be greater than 0")
+
+  private def copy(enable: Boolean = enable,
+                   minBatch: Long = minBatch,
+                   minInterval: FiniteDuration = minInterval,
+                   maxCommitsInFlight: Int = maxCommitsInFlight,
+                   targetLag: FiniteDuration = targetLag): AdaptiveCommitSettings =
+    new AdaptiveCommitSettings(enable, minBatch, minInterval, maxCommitsInFlight, targetLag)
+
+  /**
+   * Whether the batch size and interval should adapt to the commit round trip time and inflow.
+   */
+  def withEnable(enable: Boolean): AdaptiveCommitSettings = copy(enable = enable)
+
+  /**
+   * The smallest effective batch size.
+   */
+  def withMinBatch(minBatch: Long): AdaptiveCommitSettings = copy(minBatch = minBatch)
+
+  /**
+   * Scala API: The shortest effective interval between commits.
+   */
+  def withMinInterval(minInterval: FiniteDuration): AdaptiveCommitSettings = copy(minInterval = minInterval)
+
+  /**
+   * Java API: The shortest effective interval between commits.
+   */
+  def withMinInterval(minInterval: JDuration): AdaptiveCommitSettings = copy(minInterval = minInterval.asScala)
+
+  /**
+   * The number of commits which may be in flight at once.
+   */
+  def withMaxCommitsInFlight(maxCommitsInFlight: Int): AdaptiveCommitSettings =
+    copy(maxCommitsInFlight = maxCommitsInFlight)
+
+  /**
+   * Scala API: How long offsets may wait to be committed.
+   */
+  def withTargetLag(targetLag: FiniteDuration): AdaptiveCommitSettings = copy(targetLag = targetLag)
+
+  /**
+   * Java API: How long offsets may wait to be committed.
+   */
+  def withTargetLag(targetLag: JDuration): AdaptiveCommitSettings = copy(targetLag = targetLag.asScala)
+
+  override def toString: String =
+    s"akka.kafka.AdaptiveCommitSettings(" +
+    s"enable=$enable," +
+    s"minBatch=$minBatch," +
+    s"minInterval=${minInterval.toCoarsest}," +
+    s"maxCommitsInFlight=$maxCommitsInFlight," +
+    s"targetLag=${targetLag.toCoarsest}" +
+    ")"
+}
+
+@ApiMayChange
+object AdaptiveCommitSettings {
+
+  val configPath: String = "adaptive"
+
+  /**
+   * Enable adaptive commits with the given bounds.
+   */
+  def apply(minBatch: Long,
+            minInterval: FiniteDuration,
+            maxCommitsInFlight: Int,
+            targetLag: FiniteDuration): AdaptiveCommitSettings =
+    new AdaptiveCommitSettings(true, minBatch, minInterval, maxCommitsInFlight, targetLag)
+
+  /**
+   * Java API: Enable adaptive commits with the given bounds.
+   */
+  def create(minBatch: Long,
+             minInterval: JDuration,
+             maxCommitsInFlight: Int,
+             targetLag: JDuration): AdaptiveCommitSettings =
+    apply(minBatch, minInterval.asScala, maxCommitsInFlight, targetLag.asScala)
+
+  /**
+   * Create settings from a configuration with layout `adaptive`.
+   */
+  def apply(config: Config): AdaptiveCommitSettings = {
+    val enable = config.getBoolean("enable")
+    if (enable) {
+      val minBatch = config.getLong("min-batch")
+      val minInterval = config.getDuration("min-interval").asScala
+      val maxCommitsInFlight = config.getInt("max-commits-in-flight")
+      val targetLag = config.getDuration("target-lag").asScala
+      apply(minBatch, minInterval, maxCommitsInFlight, targetLag)
+    } else Disabled
+  }
+
+  /**
+   * Java API: Create settings from a configuration with layout `adaptive`.
+   */
+  def create(config: Config): AdaptiveCommitSettings = apply(config)
+
+  val Disabled: AdaptiveCommitSettings = new AdaptiveCommitSettings(false, 1L, Duration.Zero, 1, 1.second)
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka
+
+import java.time.{Duration => JDuration}
+
+import akka.annotation.InternalApi
+import akka.util.JavaDurationConverters._
+import com.typesafe.config.Config
+
+import scala.concurrent.duration._
+
+/**
+ * Settings for adapting the interval of scheduled polls to the traffic the consumer sees.
+ *
+ * When enabled, the consumer polls again right away while polls return full batches (`max.poll.records`)
+ * and messages are requested, and backs off from `poll-interval` by `backoffFactor` up to `maxInterval`
+ * while polls return no records.
+ */
+class AdaptivePollSettings @InternalApi private[kafka] (val enable: Boolean,
+                                                        val maxInterval: FiniteDuration,
+                                                        val backoffFactor: Double) {
+  require(maxInterval > Duration.Zero, "The max interval for adaptive polling must be greater than 0")
+  require(backoffFactor >= 1.0d, "The backoff factor for adaptive polling must be at least 1.0")
+
+  private def copy(enable: Boolean = enable,
+                   maxInterval: FiniteDuration = maxInterval,
+                   backoffFactor: Double = backoffFactor): AdaptivePollSettings =
+    new AdaptivePollSettings(enable, maxInterval, backoffFactor)
+
+  /**
+   * Whether the poll interval should adapt to the traffic.
+   */
+  def withEnable(enable: Boolean): AdaptivePollSettings = copy(enable = enable)
+
+  /**
+   * Scala API: The longest interval between scheduled polls while partitions are idle.
+   */
+  def withMaxInterval(maxInterval: FiniteDuration): AdaptivePollSettings = copy(maxInterval = maxInterval)
+
+  /**
+   * Java API: The longest interval between scheduled polls while partitions are idle.
+   */
+  def withMaxInterval(maxInterval: JDuration): AdaptivePollSettings = copy(maxInterval = maxInterval.asScala)
+
+  /**
+   * Factor the poll interval is multiplied with after each poll that returned no records.
+   */
+  def withBackoffFactor(backoffFactor: Double): AdaptivePollSettings = copy(backoffFactor = backoffFactor)
+
+  override def toString: String =
+    s"akka.kafka.AdaptivePollSettings(" +
+    s"enable=$enable," +
+    s"maxInterval=${maxInterval.toCoarsest}," +
+    s"backoffFactor=$backoffFactor" +
+    ")"
+}
+
+object AdaptivePollSettings {
+
+  val configPath: String = "adaptive-poll"
+
+  /**
+   * Enable adaptive polling with the given ceiling for the poll interval and backoff factor.
+   */
+  def apply(maxInterval: FiniteDuration, backoffFactor: Double): AdaptivePollSettings =
+    new AdaptivePollSettings(true, maxInterval, backoffFactor)
+
+  /**
+   * Java API: Enable adaptive polling with the given ceiling for the poll interval and backoff factor.
+   */
+  def create(maxInterval: JDuration, backoffFactor: Double): AdaptivePollSettings =
+    apply(maxInterval.asScala, backoffFactor)
+
+  /**
+   * Create settings from a configuration with layout `adaptive-poll`.
+   */
+  def apply(config: Config): AdaptivePollSettings = {
+    val enable = config.getBoolean("enable")
+    if (enable) {
+      val maxInterval = config.getDuration("max-interval").asScala
+      val backoffFactor = config.getDouble("backoff-factor")
+      apply(maxInterval, backoffFactor)
+    } else Disabled
+  }
+
+  /**
+   * Java API: Create settings from a configuration with layout `adaptive-poll`.
+   */
+  def create(config: Config): AdaptivePollSettings = apply(config)
+
+  val Disabled: AdaptivePollSettings = new AdaptivePollSettings(false, 1.second, 2.0d)
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka
+
+import java.util.Optional
+
+import akka.annotation.{ApiMayChange, InternalApi}
+import org.apache.kafka.common.TopicPartition
+
+import scala.jdk.CollectionConverters._
+import scala.compat.java8.OptionConverters._
+
+/**
+ * API MAY CHANGE
+ *
+ * How the partitions of a backfill source are spread across its Kafka consumers.
+ */
+@ApiMayChange
+sealed trait BackfillSharding
+
+@ApiMayChange
+object BackfillSharding {
+
+  /** Partitions are dealt to the consumers in topic and partition order. */
+  case object RoundRobin extends BackfillSharding
+
+  /**
+   * The records to read per partition are estimated from the beginning and end offsets, partitions are
+   * assigned to the consumer with the least records so far, starting with the largest partition.
+   */
+  case object LagBalanced extends BackfillSharding
+
+  /** Java API */
+  def roundRobin: BackfillSharding = RoundRobin
+
+  /** Java API */
+  def lagBalanced: BackfillSharding = LagBalanced
+}
+
+/**
+ * API MAY CHANGE
+ *
+ * Progress of one consumer (shard) of a backfill source.
+ *
+ * @param shard index of the shard
+ * @param partitions partitions read by the shard
+ * @param records records the shard emitted so far
+ * @param estimatedRecords records the shard is estimated to read, if the sharding looked up the offsets
+ * @param completed whether the shard read all of its partitions up to their end offsets
+ */
+@ApiMayChange
+final class BackfillProgress @InternalApi private[kafka] (
+    val shard: Int,
+    val partitions: Set[TopicPartition],
+    val records: Long,
+    val estimatedRecords: Option[Long],
+    val completed: Boolean
+) {
+
+  /** Java API */
+  def getPartitions: java.util.Set[TopicPartition] = partitions.asJava
+
+  /** Java API */
+  def getEstimatedRecords: Optional[java.lang.Long] = estimatedRecords.map(java.lang.Long.valueOf).asJava
+
+  override def toString: String =
+    s"BackfillProgress(shard=$shard,partitions=${partitions.mkString(",")},records=$records," +
+    s"estimatedRecords=$estimatedRecords,completed=$completed)"
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka
+
+import java.time.{Duration => JDuration}
+
+import akka.annotation.InternalApi
+import akka.util.JavaDurationConverters._
+import com.typesafe.config.Config
+
+import scala.concurrent.duration._
+
+/**
+ * Settings for how the consumer drives in-flight commits while no messages are requested.
+ *
+ * Commits only complete within a `KafkaConsumer.poll`. Right after a poll the consumer polls up to `spinPolls` more
+ * times, parking the thread for `parkTime` before each, which blocks the dispatcher thread. With a
+ * `followUpInterval` above zero, the consumer instead schedules polls at that interval for as long as commits are
+ * in flight.
+ */
+class CommitPollingSettings @InternalApi private[kafka] (val spinPolls: Int,
+                                                         val parkTime: FiniteDuration,
+                                                         val followUpInterval: FiniteDuration) {
+  require(spinPolls >= 0, "The spin polls for commits must not be negative")
+
+  private def copy(spinPolls: Int = spinPolls,
+                   parkTime: FiniteDuration = parkTime,
+                   followUpInterval: FiniteDuration = followUpInterval): CommitPollingSettings =
+    new CommitPollingSettings(spinPolls, parkTime, followUpInterval)
+
+  /**
+   * Extra polls right after a poll while commits are in flight, blocking the thread.
+   */
+  def withSpinPolls(spinPolls: Int): CommitPollingSettings = copy(spinPolls = spinPolls)
+
+  /**
+   * Scala API: Time to park the thread before each spin poll.
+   */
+  def withParkTime(parkTime: FiniteDuration): CommitPollingSettings = copy(parkTime = parkTime)
+
+  /**
+   * Java API: Time to park the thread before each spin poll.
+   */
+  def withParkTime(parkTime: JDuration): CommitPollingSettings = copy(parkTime = parkTime.asScala)
+
+  /**
+   * Scala API: Interval of polls scheduled while commits are in flight, zero disables them.
+   */
+  def withFollowUpInterval(followUpInterval: FiniteDuration): CommitPollingSettings =
+    copy(followUpInterval = followUpInterval)
+
+  /**
+   * Java API: Interval of polls scheduled while commits are in flight, zero disables them.
+   */
+  def withFollowUpInterval(followUpInterval: JDuration): CommitPollingSettings =
+    copy(followUpInterval = followUpInterval.asScala)
+
+  override def toString: String =
+    s"akka.kafka.CommitPollingSettings(" +
+    s"spinPolls=$spinPolls," +
+    s"parkTime=${parkTime.toCoarsest}," +
+    s"followUpInterval=${followUpInterval.toCoarsest}" +
+    ")"
+}
+
+object CommitPollingSettings {
+
+  val configPath: String = "commit-polling"
+
+  def apply(spinPolls: Int, parkTime: FiniteDuration, followUpInterval: FiniteDuration): CommitPollingSettings =
+    new CommitPollingSettings(spinPolls, parkTime, followUpInterval)
+
+  /**
+   * Java API
+   */
+  def create(spinPolls: Int, parkTime: JDuration, followUpInterval: JDuration): CommitPollingSettings =
+    apply(spinPolls, parkTime.asScala, followUpInterval.asScala)
+
+  /**
+   * Create settings from a configuration with layout `commit-polling`.
+   */
+  def apply(config: Config): CommitPollingSettings = {
+    val spinPolls = config.getInt("spin-polls")
+    val parkTime = config.getDuration("park-time").asScala
+    val followUpInterval = config.getDuration("follow-up-interval").asScala
+    apply(spinPolls, parkTime, followUpInterval)
+  }
+
+  /**
+   * Java API: Create settings from a configuration with layout `commit-polling`.
+   */
+  def create(config: Config): CommitPollingSettings = apply(config)
+
+  /**
+   * Never block the thread for commits, poll every millisecond while commits are in flight.
+   */
+  val CompletionDriven: CommitPollingSettings = apply(0, Duration.Zero, 1.milli)
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka
+
+import akka.annotation.ApiMayChange
+import org.apache.kafka.common.{Metric, MetricName}
+
+import scala.jdk.CollectionConverters._
+
+/**
+ * API MAY CHANGE
+ *
+ * Metrics of a committer stream, in the group `akka-kafka-committer`: the effective batch size and interval,
+ * which change with [[AdaptiveCommitSettings adaptive commits]], the commit round trip time, the commits in flight
+ * and the inflow of offsets.
+ */
+@ApiMayChange
+trait CommitterMetrics {
+
+  /** Scala API: the current values of the committer's metrics. */
+  def metrics: Map[MetricName, Metric]
+
+  /** Java API: the current values of the committer's metrics. */
+  def getMetrics: java.util.Map[MetricName, Metric] = metrics.asJava
+}
@@ -127,7 +127,17 @@ object CommitterSettings {
     val parallelism = config.getInt("parallelism")
     val delivery = CommitDelivery.valueOf(config.getString("delivery"))
     val when = CommitWhen.valueOf(config.getString("when"))
-    new CommitterSettings(maxBatch, maxInterval, parallelism, delivery, when)
+    val adaptive = AdaptiveCommitSettings(config.getConfig(AdaptiveCommitSettings.configPath))
+    val coalesceCommits = config.getBoolean("coalesce-commits")
+    val parallelismPerConsumer = config.getInt("parallelism-per-consumer")
+    new CommitterSettings(maxBatch,
+                          maxInterval,
+                          parallelism,
+                          delivery,
+                          when,
+                          adaptive,
+                          coalesceCommits,
+                          parallelismPerConsumer)
   }
 
   /**
@@ -166,7 +176,10 @@ class CommitterSettings private (
     val maxInterval: FiniteDuration,
     val parallelism: Int,
     val delivery: CommitDelivery,
-    val when: CommitWhen
+    val when: CommitWhen,
+    val adaptive: AdaptiveCommitSettings,
+    val coalesceCommits: Boolean,
+    val parallelismPerConsumer: Int
 ) {
 
   def withMaxBatch(maxBatch: Long): CommitterSettings =
@@ -189,12 +202,47 @@ class CommitterSettings private (
   def withCommitWhen(value: CommitWhen): CommitterSettings =
     copy(when = value)
 
+  /**
+   * Adapt the batch size and interval to the commit round trip time and inflow, `maxBatch` and `maxInterval`
+   * become upper bounds.
+   */
+  @ApiMayChange
+  def withAdaptive(adaptive: AdaptiveCommitSettings): CommitterSettings =
+    copy(adaptive = adaptive)
+
+  /**
+   * With `CommitDelivery.WaitForAck`, keep at most one commit in flight per consumer and merge the batches arriving
+   * while it is in flight into the next commit. The merged batch acknowledges all elements merged into it.
+   */
+  @ApiMayChange
+  def withCoalesceCommits(coalesceCommits: Boolean): CommitterSettings =
+    copy(coalesceCommits = coalesceCommits)
+
+  /**
+   * With `CommitDelivery.WaitForAck` and a value above zero, split batches by consumer and commit them with at most
+   * this many commits in flight per consumer, so that a slow consumer does not hold back the commits of others.
+   * With adaptive commits, the commits in flight of all consumers are bounded by their `maxCommitsInFlight`.
+   */
+  @ApiMayChange
+  def withParallelismPerConsumer(parallelismPerConsumer: Int): CommitterSettings =
+    copy(parallelismPerConsumer = parallelismPerConsumer)
+
   private def copy(maxBatch: Long = maxBatch,
                    maxInterval: FiniteDuration = maxInterval,
                    parallelism: Int = parallelism,
                    delivery: CommitDelivery = delivery,
-                   when: CommitWhen = when): CommitterSettings =
-    new CommitterSettings(maxBatch, maxInterval, parallelism, delivery, when)
+                   when: CommitWhen = when,
+                   adaptive: AdaptiveCommitSettings = adaptive,
+                   coalesceCommits: Boolean = coalesceCommits,
+                   parallelismPerConsumer: Int = parallelismPerConsumer): CommitterSettings =
+    new CommitterSettings(maxBatch,
+                          maxInterval,
+                          parallelism,
+                          delivery,
+                          when,
+                          adaptive,
+                          coalesceCommits,
+                          parallelismPerConsumer)
 
   override def toString: String =
     "akka.kafka.CommitterSettings(" +
@@ -202,5 +250,8 @@ class CommitterSettings private (
     s"maxInterval=${maxInterval.toCoarsest}," +
     s"parallelism=$parallelism," +
     s"delivery=$delivery," +
-    s"when=$when)"
+    s"when=$when," +
+    s"adaptive=$adaptive," +
+    s"coalesceCommits=$coalesceCommits," +
+    s"parallelismPerConsumer=$parallelismPerConsumer)"
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka
+
+import java.nio.file.Path
+import java.util.Optional
+
+import akka.annotation.{ApiMayChange, InternalApi}
+import akka.dispatch.Dispatchers
+import akka.kafka.internal.{OnHeapTableStore, SerializedTableStore}
+import akka.util.JavaDurationConverters._
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.serialization.{Deserializer, Serializer}
+
+import scala.compat.java8.OptionConverters._
+import scala.concurrent.duration._
+
+/**
+ * API MAY CHANGE
+ *
+ * Read view of a table materialized from a compacted topic. Reads don't take locks and see the latest value applied
+ * for a key.
+ */
+@ApiMayChange
+trait CompactedTable[K, V] {
+
+  /** The latest value of the key, if the key exists and was not deleted. */
+  def get(key: K): Option[V]
+
+  /** The number of keys in the table. */
+  def size: Int
+
+  /** Java API: the latest value of the key, if the key exists and was not deleted. */
+  def getOptional(key: K): Optional[V] = get(key).asJava
+}
+
+/**
+ * API MAY CHANGE
+ *
+ * Storage of a table materialized from a compacted topic. Updates are applied by a single writer, the table source,
+ * while any thread may read.
+ */
+@ApiMayChange
+trait TableStore[K, V] extends CompactedTable[K, V] {
+
+  /** Sets the value of the key. */
+  def put(key: K, value: V): Unit
+
+  /** Deletes the key, as requested by a tombstone. */
+  def remove(key: K): Unit
+}
+
+@ApiMayChange
+object TableStore {
+
+  /** Keeps keys and values as they are in a concurrent map. */
+  def onHeap[K, V](): TableStore[K, V] = new OnHeapTableStore[K, V]
+
+  /**
+   * Keeps keys and values in their serialized form, as a single byte array each, which keeps the number of objects
+   * low for large tables. Values are deserialized on every read.
+   */
+  def serialized[K, V](topic: String,
+                       keySerializer: Serializer[K],
+                       valueSerializer: Serializer[V],
+                       valueDeserializer: Deserializer[V]): TableStore[K, V] =
+    new SerializedTableStore[K, V](topic, keySerializer, valueSerializer, valueDeserializer)
+}
+
+/**
+ * API MAY CHANGE
+ *
+ * Local snapshots of a compacted table, which let the table source restore the table from disk and read only the
+ * records written since the snapshot. Snapshots require the [[TableStore#serialized]] store.
+ *
+ * @param directory the directory the snapshot files are kept in, one per topic
+ * @param interval how often a snapshot is taken
+ * @param maxAge snapshots older than this are ignored, keep it below the topic's `delete.retention.ms` as deletes
+ *               older than that may have been compacted away
+ * @param dispatcher the dispatcher snapshots are written and read on with blocking file I/O
+ */
+@ApiMayChange
+final class TableSnapshots private (val directory: Path,
+                                    val interval: FiniteDuration,
+                                    val maxAge: FiniteDuration,
+                                    val dispatcher: String) {
+
+  def withDirectory(directory: Path): TableSnapshots = copy(directory = directory)
+
+  def withInterval(interval: FiniteDuration): TableSnapshots = copy(interval = interval)
+
+  /** Java API */
+  def withInterval(interval: java.time.Duration): TableSnapshots = withInterval(interval.asScala)
+
+  def withMaxAge(maxAge: FiniteDuration): TableSnapshots = copy(maxAge = maxAge)
+
+  /** Java API */
+  def withMaxAge(maxAge: java.time.Duration): TableSnapshots = withMaxAge(maxAge.asScala)
+
+  /** Fully qualified config path of the dispatcher to write and read snapshots on. */
+  def withDispatcher(dispatcher: String): TableSnapshots = copy(dispatcher = dispatcher)
+
+  private def copy(directory: Path = directory,
+                   interval: FiniteDuration = interval,
+                   maxAge: FiniteDuration = maxAge,
+                   dispatcher: String = dispatcher): TableSnapshots =
+    new TableSnapshots(directory, interval, maxAge, dispatcher)
+
+  override def toString: String =
+    s"TableSnapshots(directory=$directory,interval=${interval.toCoarsest},maxAge=${maxAge.toCoarsest}," +
+    s"dispatcher=$dispatcher)"
+}
+
+@ApiMayChange
+object TableSnapshots {
+
+  /**
+   * Snapshots taken every 10 minutes, ignored when older than 12 hours, on `akka.actor.default-blocking-io-dispatcher`.
+   */
+  def apply(directory: Path): TableSnapshots =
+    new TableSnapshots(directory, 10.minutes, 12.hours, Dispatchers.DefaultBlockingDispatcherId)
+
+  /**
+   * Java API: snapshots taken every 10 minutes, ignored when older than 12 hours, on
+   * `akka.actor.default-blocking-io-dispatcher`.
+   */
+  def create(directory: Path): TableSnapshots = apply(directory)
+}
+
+/**
+ * API MAY CHANGE
+ *
+ * Bootstrap progress of a partition of a compacted table.
+ *
+ * @param partition the partition
+ * @param beginningOffset the offset the bootstrap started from
+ * @param endOffset the offset the partition is caught up at
+ * @param position the offset of the next record to apply
+ */
+@ApiMayChange
+final class TablePartitionProgress @InternalApi private[kafka] (
+    val partition: TopicPartition,
+    val beginningOffset: Long,
+    val endOffset: Long,
+    val position: Long
+) {
+
+  /** Whether all records before the end offset were applied. */
+  def caughtUp: Boolean = position >= endOffset
+
+  /** The number of offsets left to read before the partition is caught up. */
+  def remaining: Long = (endOffset - position).max(0L)
+
+  override def toString: String =
+    s"TablePartitionProgress(partition=$partition,beginningOffset=$beginningOffset,endOffset=$endOffset," +
+    s"position=$position)"
+}
@@ -14,6 +14,7 @@ import akka.kafka.internal.{CommittableOffsetBatchImpl, CommittedMarker}
 import org.apache.kafka.clients.consumer.ConsumerRecord
 import org.apache.kafka.common.TopicPartition
 
+import scala.collection.immutable
 import scala.concurrent.Future
 import scala.runtime.AbstractFunction2
 
@@ -32,6 +33,24 @@ object ConsumerMessage {
       committableOffset: CommittableOffset
   )
 
+  /**
+   * Output element of `committableBatchSource`.
+   * The offsets of all records can be committed via the included [[CommittableOffsetBatch]].
+   */
+  final case class CommittableMessages[K, V](
+      records: immutable.Seq[ConsumerRecord[K, V]],
+      committableOffsetBatch: CommittableOffsetBatch
+  ) {
+
+    /**
+     * Java API
+     */
+    def getRecords: java.util.List[ConsumerRecord[K, V]] = {
+      import scala.jdk.CollectionConverters._
+      records.asJava
+    }
+  }
+
   /**
    * Output element of `transactionalSource`.
    * The offset is automatically committed as by the Producer
@@ -11,9 +11,9 @@ import java.util.concurrent.{CompletionStage, Executor}
 import akka.annotation.InternalApi
 import akka.kafka.internal._
 import akka.util.JavaDurationConverters._
-import com.typesafe.config.Config
+import com.typesafe.config.{Config, ConfigUtil}
 import org.apache.kafka.clients.consumer.{Consumer, ConsumerConfig, KafkaConsumer}
-import org.apache.kafka.common.serialization.Deserializer
+import org.apache.kafka.common.serialization.{ByteArrayDeserializer, Deserializer}
 
 import scala.jdk.CollectionConverters._
 import scala.compat.java8.OptionConverters._
@@ -89,9 +89,24 @@ object ConsumerSettings {
     val drainingCheckInterval = config.getDuration("eos-draining-check-interval").asScala
     val connectionCheckerSettings = ConnectionCheckerSettings(config.getConfig(ConnectionCheckerSettings.configPath))
     val partitionHandlerWarning = config.getDuration("partition-handler-warning").asScala
+    val commitOnRevoke = config.getBoolean("commit-on-revoke")
     val resetProtectionThreshold = OffsetResetProtectionSettings(
       config.getConfig(OffsetResetProtectionSettings.configPath)
     )
+    val adaptivePollSettings = AdaptivePollSettings(config.getConfig(AdaptivePollSettings.configPath))
+    val prefetchRecordsPerPartition = config.getInt("prefetch-records-per-partition")
+    val prefetchBytesPerPartition = config.getBytes("prefetch-bytes-per-partition").longValue
+    val maxBufferedBytes = config.getBytes("max-buffered-bytes").longValue
+    val dispatchQuantum = config.getInt("dispatch-quantum")
+    val commitPollingSettings = CommitPollingSettings(config.getConfig(CommitPollingSettings.configPath))
+    val deserializationParallelism = config.getInt("deserialization-parallelism")
+    val deserializationDispatcher = config.getString("deserialization-dispatcher")
+    val processingDelays = {
+      val delays = config.getConfig("processing-delays")
+      delays.root.keySet.asScala.iterator
+        .map(topic => topic -> delays.getDuration(ConfigUtil.joinPath(topic)).asScala)
+        .toMap
+    }
 
     new ConsumerSettings[K, V](
       properties,
@@ -114,7 +129,17 @@ object ConsumerSettings {
       ConsumerSettings.createKafkaConsumer,
       connectionCheckerSettings,
       partitionHandlerWarning,
-      resetProtectionThreshold
+      resetProtectionThreshold,
+      adaptivePollSettings,
+      prefetchRecordsPerPartition,
+      prefetchBytesPerPartition,
+      maxBufferedBytes,
+      dispatchQuantum,
+      commitPollingSettings,
+      deserializationParallelism,
+      deserializationDispatcher,
+      processingDelays,
+      commitOnRevoke
     )
   }
 
@@ -271,7 +296,17 @@ class ConsumerSettings[K, V] @InternalApi private[kafka] (
     val consumerFactory: ConsumerSettings[K, V] => Consumer[K, V],
     val connectionCheckerSettings: ConnectionCheckerSettings,
     val partitionHandlerWarning: FiniteDuration,
-    val resetProtectionSettings: OffsetResetProtectionSettings
+    val resetProtectionSettings: OffsetResetProtectionSettings,
+    val adaptivePollSettings: AdaptivePollSettings,
+    val prefetchRecordsPerPartition: Int,
+    val prefetchBytesPerPartition: Long,
+    val maxBufferedBytes: Long,
+    val dispatchQuantum: Int,
+    val commitPollingSettings: CommitPollingSettings,
+    val deserializationParallelism: Int,
+    val deserializationDispatcher: String,
+    val processingDelays: Map[String, FiniteDuration],
+    val commitOnRevoke: Boolean
 ) {
 
   /**
@@ -539,6 +574,101 @@ class ConsumerSettings[K, V] @InternalApi private[kafka] (
   def withResetProtectionSettings(resetProtection: OffsetResetProtectionSettings): ConsumerSettings[K, V] =
     copy(resetProtectionSettings = resetProtection)
 
+  /**
+   * Set the adaptation of the poll interval to the consumer's traffic.
+   */
+  def withAdaptivePollSettings(adaptivePollSettings: AdaptivePollSettings): ConsumerSettings[K, V] =
+    copy(adaptivePollSettings = adaptivePollSettings)
+
+  /**
+   * Let the consumer fetch ahead of demand and keep up to `records` records or `bytes` serialized bytes
+   * per partition. A partition is only paused when its buffer is full. `0` records disables prefetching.
+   */
+  def withPrefetchPerPartition(records: Int, bytes: Long): ConsumerSettings[K, V] =
+    copy(prefetchRecordsPerPartition = records, prefetchBytesPerPartition = bytes)
+
+  /**
+   * Limit the serialized bytes of keys and values a source stage requests from the consumer actor at a time. Records
+   * beyond the limit are kept by the actor for the stage's next request. `0` means no limit.
+   */
+  def withMaxBufferedBytes(maxBufferedBytes: Long): ConsumerSettings[K, V] =
+    copy(maxBufferedBytes = maxBufferedBytes)
+
+  /**
+   * Limit the records the consumer actor hands to a stage per request, so that a busy stage sharing the actor
+   * (e.g. with `plainExternalSource`) can't starve the others. `0` means no limit.
+   */
+  def withDispatchQuantum(dispatchQuantum: Int): ConsumerSettings[K, V] =
+    copy(dispatchQuantum = dispatchQuantum)
+
+  /**
+   * Set how in-flight commits are driven while no messages are requested.
+   */
+  def withCommitPollingSettings(commitPollingSettings: CommitPollingSettings): ConsumerSettings[K, V] =
+    copy(commitPollingSettings = commitPollingSettings)
+
+  /**
+   * Deserialize keys and values in the source stage instead of in the Kafka consumer's `poll`, on up to
+   * `parallelism` threads of the given dispatcher per source. An empty dispatcher name uses the stream's
+   * dispatcher. `0` deserializes in `poll`.
+   *
+   * Only applies to sources creating their own consumer actor which emit to a single stage (not to partitioned
+   * sources or sources sharing an external consumer actor). The key and value deserializers must be configured as
+   * class names (`key.deserializer` and `value.deserializer`) so that each parallel chunk is deserialized by
+   * instances of its own, settings with deserializer instances are rejected. The Kafka consumer is created with
+   * `ByteArrayDeserializer`s instead, a custom consumer factory must create it with the deserializers of the settings
+   * it is passed.
+   */
+  def withDeserializationParallelism(parallelism: Int, dispatcher: String): ConsumerSettings[K, V] = {
+    val settings = copy(deserializationParallelism = parallelism, deserializationDispatcher = dispatcher)
+    ParallelDeserialization.requireConfiguredDeserializers(settings)
+    settings
+  }
+
+  /**
+   * Deserialize keys and values in the source stage instead of in the Kafka consumer's `poll`, on up to
+   * `parallelism` threads of the stream's dispatcher per source. `0` deserializes in `poll`.
+   */
+  def withDeserializationParallelism(parallelism: Int): ConsumerSettings[K, V] =
+    withDeserializationParallelism(parallelism, deserializationDispatcher)
+
+  /**
+   * Deliver records of the topic only once their timestamp plus the delay has passed. Partitions whose next record
+   * is not due yet are paused in the consumer until it is, without buffering the records. A zero delay removes it.
+   */
+  def withProcessingDelay(topic: String, delay: FiniteDuration): ConsumerSettings[K, V] =
+    if (delay <= Duration.Zero) copy(processingDelays = processingDelays - topic)
+    else copy(processingDelays = processingDelays.updated(topic, delay))
+
+  /**
+   * Java API:
+   * Deliver records of the topic only once their timestamp plus the delay has passed. Partitions whose next record
+   * is not due yet are paused in the consumer until it is, without buffering the records. A zero delay removes it.
+   */
+  def withProcessingDelay(topic: String, delay: java.time.Duration): ConsumerSettings[K, V] =
+    withProcessingDelay(topic, delay.asScala)
+
+  /**
+   * Commit the offsets which reached the consumer actor but are not committed yet synchronously when partitions are
+   * revoked, so that the new owner of the partitions does not process their records again.
+   */
+  def withCommitOnRevoke(commitOnRevoke: Boolean): ConsumerSettings[K, V] =
+    copy(commitOnRevoke = commitOnRevoke)
+
+  /**
+   * Internal API.
+   *
+   * The settings to create the Kafka consumer with. When deserializing in the source stage, the consumer polls the
+   * raw bytes of keys and values.
+   */
+  @InternalApi private[kafka] def consumerCreationSettings: ConsumerSettings[K, V] =
+    if (deserializationParallelism <= 0) this
+    else
+      copy(
+        keyDeserializer = Some(new ByteArrayDeserializer().asInstanceOf[Deserializer[K]]),
+        valueDeserializer = Some(new ByteArrayDeserializer().asInstanceOf[Deserializer[V]])
+      )
+
   /**
    * Get the Kafka consumer settings as map.
    */
@@ -570,7 +700,17 @@ class ConsumerSettings[K, V] @InternalApi private[kafka] (
       consumerFactory: ConsumerSettings[K, V] => Consumer[K, V] = consumerFactory,
       connectionCheckerConfig: ConnectionCheckerSettings = connectionCheckerSettings,
       partitionHandlerWarning: FiniteDuration = partitionHandlerWarning,
-      resetProtectionSettings: OffsetResetProtectionSettings = resetProtectionSettings
+      resetProtectionSettings: OffsetResetProtectionSettings = resetProtectionSettings,
+      adaptivePollSettings: AdaptivePollSettings = adaptivePollSettings,
+      prefetchRecordsPerPartition: Int = prefetchRecordsPerPartition,
+      prefetchBytesPerPartition: Long = prefetchBytesPerPartition,
+      maxBufferedBytes: Long = maxBufferedBytes,
+      dispatchQuantum: Int = dispatchQuantum,
+      commitPollingSettings: CommitPollingSettings = commitPollingSettings,
+      deserializationParallelism: Int = deserializationParallelism,
+      deserializationDispatcher: String = deserializationDispatcher,
+      processingDelays: Map[String, FiniteDuration] = processingDelays,
+      commitOnRevoke: Boolean = commitOnRevoke
   ): ConsumerSettings[K, V] =
     new ConsumerSettings[K, V](
       properties,
@@ -593,7 +733,17 @@ class ConsumerSettings[K, V] @InternalApi private[kafka] (
       consumerFactory,
       connectionCheckerConfig,
       partitionHandlerWarning,
-      resetProtectionSettings
+      resetProtectionSettings,
+      adaptivePollSettings,
+      prefetchRecordsPerPartition,
+      prefetchBytesPerPartition,
+      maxBufferedBytes,
+      dispatchQuantum,
+      commitPollingSettings,
+      deserializationParallelism,
+      deserializationDispatcher,
+      processingDelays,
+      commitOnRevoke
     )
 
   /**
@@ -661,8 +811,18 @@ class ConsumerSettings[K, V] @InternalApi private[kafka] (
     s"metadataRequestTimeout=${metadataRequestTimeout.toCoarsest}," +
     s"drainingCheckInterval=${drainingCheckInterval.toCoarsest}," +
     s"connectionCheckerSettings=$connectionCheckerSettings," +
-    s"partitionHandlerWarning=${partitionHandlerWarning.toCoarsest}" +
-    s"resetProtectionSettings=$resetProtectionSettings" +
+    s"partitionHandlerWarning=${partitionHandlerWarning.toCoarsest}," +
+    s"resetProtectionSettings=$resetProtectionSettings," +
+    s"adaptivePollSettings=$adaptivePollSettings," +
+    s"prefetchRecordsPerPartition=$prefetchRecordsPerPartition," +
+    s"prefetchBytesPerPartition=$prefetchBytesPerPartition," +
+    s"maxBufferedBytes=$maxBufferedBytes," +
+    s"dispatchQuantum=$dispatchQuantum," +
+    s"commitPollingSettings=$commitPollingSettings," +
+    s"deserializationParallelism=$deserializationParallelism," +
+    s"deserializationDispatcher=$deserializationDispatcher," +
+    s"processingDelays=$processingDelays," +
+    s"commitOnRevoke=$commitOnRevoke," +
     s"enrichAsync=${enrichAsync.map(_ => "needs to be applied")}" +
     ")"
   }
@@ -31,7 +31,8 @@ object KafkaConsumerActor {
    * Creates Props for the Kafka Consumer Actor.
    */
   def props[K, V](settings: ConsumerSettings[K, V]): Props =
-    Props(new InternalKafkaConsumerActor(None, settings)).withDispatcher(settings.dispatcher)
+    Props(new InternalKafkaConsumerActor(None, settings.withDeserializationParallelism(0)))
+      .withDispatcher(settings.dispatcher)
 
   /**
    * Creates Props for the Kafka Consumer Actor with a reference back to the owner of it
@@ -39,5 +40,16 @@ object KafkaConsumerActor {
    * Kafka client instance can't be created.
    */
   def props[K, V](owner: ActorRef, settings: ConsumerSettings[K, V]): Props =
+    Props(new InternalKafkaConsumerActor(Some(owner), settings.withDeserializationParallelism(0)))
+      .withDispatcher(settings.dispatcher)
+
+  /**
+   * Internal API.
+   *
+   * Props for the Kafka Consumer Actor of a source emitting to a single stage. With `deserialization-parallelism`
+   * above zero the consumer polls raw bytes which the source deserializes.
+   */
+  @InternalApi
+  private[kafka] def singleStageProps[K, V](owner: ActorRef, settings: ConsumerSettings[K, V]): Props =
     Props(new InternalKafkaConsumerActor(Some(owner), settings)).withDispatcher(settings.dispatcher)
 }
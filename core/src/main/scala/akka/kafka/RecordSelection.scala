@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka
+
+import akka.annotation.{ApiMayChange, InternalApi}
+import org.apache.kafka.clients.consumer.ConsumerRecord
+
+/**
+ * API MAY CHANGE
+ *
+ * Selects and transforms records in the consumer actor, before they are handed to the source stage. Records not
+ * matching the predicate are never sent to the stage, so they are neither buffered nor turned into messages.
+ *
+ * The functions run on the consumer actor's thread and must be fast and must not block. As they see the records as
+ * polled, a selection can't be combined with `deserialization-parallelism`.
+ *
+ * The committable offset of a record emitted by a committable source covers the records of its partition which
+ * were filtered before it. Records filtered after the last emitted record of a partition are committed by the
+ * consumer actor once the stage committed all records emitted before them.
+ */
+@ApiMayChange
+final class RecordSelection[K, V] private (
+    val predicate: ConsumerRecord[K, V] => Boolean,
+    val projection: ConsumerRecord[K, V] => ConsumerRecord[K, V]
+) {
+
+  /** Only hand records matching the predicate to the source stage. */
+  def withPredicate(predicate: ConsumerRecord[K, V] => Boolean): RecordSelection[K, V] =
+    new RecordSelection(predicate, projection)
+
+  /**
+   * Transform the selected records before handing them to the source stage, e.g. to drop headers or parts
+   * of the value which are not needed. The offset must not be changed.
+   */
+  def withProjection(projection: ConsumerRecord[K, V] => ConsumerRecord[K, V]): RecordSelection[K, V] =
+    new RecordSelection(predicate, projection)
+
+  /**
+   * Internal API
+   *
+   * The selected records of a chunk, the chunk itself if all records are selected and not projected.
+   */
+  @InternalApi
+  private[kafka] def apply(records: java.util.List[ConsumerRecord[K, V]]): java.util.List[ConsumerRecord[K, V]] = {
+    val project = projection ne RecordSelection.NoProjection
+    var selected: java.util.List[ConsumerRecord[K, V]] =
+      if (project) new java.util.ArrayList[ConsumerRecord[K, V]](records.size) else null
+    var i = 0
+    while (i < records.size) {
+      val record = records.get(i)
+      if (predicate(record)) {
+        if (project) selected.add(projection(record))
+        else if (selected != null) selected.add(record)
+      } else if (selected == null) {
+        selected = new java.util.ArrayList[ConsumerRecord[K, V]](records.subList(0, i))
+      }
+      i += 1
+    }
+    if (selected == null) records else selected
+  }
+
+  override def toString: String =
+    s"akka.kafka.RecordSelection(" +
+    s"projection=${if (projection eq RecordSelection.NoProjection) "none" else "defined"}" +
+    ")"
+}
+
+/**
+ * API MAY CHANGE
+ */
+@ApiMayChange
+object RecordSelection {
+  private val All: Any => Boolean = _ => true
+  private val NoProjection: Any => Any = identity
+
+  /**
+   * Internal API
+   *
+   * With `deserialization-parallelism` the consumer actor polls raw bytes, which a selection reading keys or values
+   * would fail on.
+   */
+  @InternalApi
+  private[kafka] def requireSupported(selection: Option[RecordSelection[_, _]],
+                                      settings: ConsumerSettings[_, _]): Unit =
+    require(
+      selection.isEmpty || settings.deserializationParallelism <= 0,
+      "A record selection can't be combined with `deserialization-parallelism`, " +
+      "it runs in the consumer actor before the records are deserialized"
+    )
+
+  /** Hand all records to the source stage unchanged. */
+  def all[K, V]: RecordSelection[K, V] =
+    new RecordSelection[K, V](All, NoProjection.asInstanceOf[ConsumerRecord[K, V] => ConsumerRecord[K, V]])
+
+  /** Only hand records matching the predicate to the source stage. */
+  def apply[K, V](predicate: ConsumerRecord[K, V] => Boolean): RecordSelection[K, V] =
+    all[K, V].withPredicate(predicate)
+
+  /**
+   * Java API
+   *
+   * Only hand records matching the predicate to the source stage.
+   */
+  def create[K, V](predicate: java.util.function.Predicate[ConsumerRecord[K, V]]): RecordSelection[K, V] =
+    all[K, V].withPredicate(predicate.test(_))
+
+  /**
+   * Java API
+   *
+   * Only hand records matching the predicate to the source stage, transformed by the projection.
+   * The projection must not change the offset.
+   */
+  def create[K, V](
+      predicate: java.util.function.Predicate[ConsumerRecord[K, V]],
+      projection: java.util.function.UnaryOperator[ConsumerRecord[K, V]]
+  ): RecordSelection[K, V] =
+    all[K, V].withPredicate(predicate.test(_)).withProjection(projection.apply(_))
+}
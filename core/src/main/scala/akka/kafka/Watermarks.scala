@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import akka.annotation.{ApiMayChange, InternalApi}
+import akka.kafka.internal.WatermarkStage.{AssignmentChange, Assigned, Revoked}
+import akka.util.JavaDurationConverters._
+import org.apache.kafka.common.TopicPartition
+
+import scala.concurrent.duration.{Duration, FiniteDuration}
+
+/**
+ * API MAY CHANGE
+ *
+ * Output of the watermark flows: the elements, and the low watermark whenever it advances.
+ */
+@ApiMayChange
+sealed trait Watermarked[+T]
+
+@ApiMayChange
+object Watermarked {
+
+  /** An element passed through the watermark flow. */
+  final case class Element[+T](element: T) extends Watermarked[T]
+
+  /**
+   * The event time all partitions which are not idle progressed to: later elements of these partitions are expected
+   * to have event times after it.
+   */
+  final case class Watermark(timestamp: Long) extends Watermarked[Nothing]
+}
+
+/**
+ * API MAY CHANGE
+ *
+ * Tracks the partitions assigned to a consumer for a watermark flow. Register the [[#partitionAssignmentHandler]]
+ * with the subscription of the source and pass the tracker to the watermark flow of the same stream, so that
+ * revoked partitions stop holding back the watermark and newly assigned partitions hold it back until their first
+ * element or until they are idle.
+ *
+ * A tracker must only be used in a single stream.
+ *
+ * @param idleTimeout partitions without elements for this long don't hold back the watermark until their next element
+ */
+@ApiMayChange
+final class WatermarkTracker private (val idleTimeout: FiniteDuration) {
+  require(idleTimeout > Duration.Zero, s"idleTimeout must be positive, was $idleTimeout")
+
+  /** Internal API: assignment changes not yet seen by the watermark flow. */
+  @InternalApi private[kafka] val assignmentChanges = new ConcurrentLinkedQueue[AssignmentChange]()
+
+  /** The handler to register with the subscription. */
+  val partitionAssignmentHandler: scaladsl.PartitionAssignmentHandler = new scaladsl.PartitionAssignmentHandler {
+    override def onRevoke(revokedTps: Set[TopicPartition], consumer: RestrictedConsumer): Unit =
+      assignmentChanges.add(Revoked(revokedTps))
+    override def onAssign(assignedTps: Set[TopicPartition], consumer: RestrictedConsumer): Unit =
+      assignmentChanges.add(Assigned(assignedTps))
+    override def onLost(lostTps: Set[TopicPartition], consumer: RestrictedConsumer): Unit =
+      assignmentChanges.add(Revoked(lostTps))
+    override def onStop(currentTps: Set[TopicPartition], consumer: RestrictedConsumer): Unit = ()
+  }
+}
+
+@ApiMayChange
+object WatermarkTracker {
+
+  def apply(idleTimeout: FiniteDuration): WatermarkTracker = new WatermarkTracker(idleTimeout)
+
+  /** Java API */
+  def create(idleTimeout: java.time.Duration): WatermarkTracker = apply(idleTimeout.asScala)
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.actor.ActorRef
+import akka.annotation.InternalApi
+import org.apache.kafka.clients.consumer.Consumer
+import org.apache.kafka.common.TopicPartition
+
+/**
+ * Internal API.
+ *
+ * Incrementally maintained view of the partitions assigned to the [[KafkaConsumerActor]], which of them are
+ * requested by a stage and whether the actor paused them.
+ *
+ * The index is updated on `RequestMessages`, on delivery of `Messages` and by the rebalance callbacks. Partitions
+ * whose state changed are collected and `sync` pauses or resumes only those, so that the work per poll is
+ * proportional to the changes rather than to the assignment.
+ *
+ * Not thread-safe, must only be used from within the actor.
+ */
+@InternalApi
+private[internal] final class AssignmentIndex {
+  import AssignmentIndex._
+
+  /** Assigned partitions and whether the actor paused them. */
+  private val assigned = new java.util.HashMap[TopicPartition, PartitionState]()
+
+  /** Requested partitions and the stage requesting them, may contain partitions not assigned (yet). */
+  private val demand = new java.util.HashMap[TopicPartition, ActorRef]()
+
+  /** Partitions which might need to be paused or resumed. */
+  private val changed = new java.util.HashSet[TopicPartition]()
+
+  /** Pause or resume all assigned partitions with the next `sync`, e.g. after a new subscription. */
+  private var fullSyncRequired = true
+
+  def isAssigned(tp: TopicPartition): Boolean = assigned.containsKey(tp)
+
+  def assignedCount: Int = assigned.size
+
+  def isDemanded(tp: TopicPartition): Boolean = demand.containsKey(tp)
+
+  /** The stage which requested messages from the partition, or `null`. */
+  def demandedBy(tp: TopicPartition): ActorRef = demand.get(tp)
+
+  def hasDemand: Boolean = !demand.isEmpty
+
+  def requireFullSync(): Unit = fullSyncRequired = true
+
+  /**
+   * Newly assigned partitions, `paused` tells if they were paused when being assigned.
+   */
+  def assign(tps: Iterable[TopicPartition], paused: Boolean): Unit =
+    tps.foreach { tp =>
+      assigned.put(tp, new PartitionState(paused))
+      changed.add(tp)
+    }
+
+  def revoke(tps: Iterable[TopicPartition]): Unit =
+    tps.foreach { tp =>
+      assigned.remove(tp)
+      changed.remove(tp)
+    }
+
+  /**
+   * Reconcile with the consumer's assignment after manually assigning partitions, partitions the index doesn't
+   * know yet are not paused.
+   */
+  def assignmentChanged(current: java.util.Set[TopicPartition]): Unit = {
+    assigned.keySet().retainAll(current)
+    changed.retainAll(current)
+    current.forEach { tp =>
+      if (!assigned.containsKey(tp)) {
+        assigned.put(tp, new PartitionState(paused = false))
+        changed.add(tp)
+      }
+    }
+  }
+
+  def addDemand(stage: ActorRef, tps: Iterable[TopicPartition]): Unit =
+    tps.foreach { tp =>
+      demand.put(tp, stage)
+      changed.add(tp)
+    }
+
+  /**
+   * Remove the demand for these partitions if it was registered by `stage`.
+   */
+  def removeDemand(stage: ActorRef, tps: Iterable[TopicPartition]): Unit =
+    tps.foreach { tp =>
+      if (demand.get(tp) == stage) {
+        demand.remove(tp)
+        changed.add(tp)
+      }
+    }
+
+  /**
+   * Mark a partition to be re-evaluated with the next `sync`, e.g. after its prefetch buffer changed.
+   */
+  def touch(tp: TopicPartition): Unit =
+    if (assigned.containsKey(tp)) changed.add(tp)
+
+  /**
+   * Pause and resume the partitions that changed since the last call so that exactly the partitions for which
+   * `shouldFetch` holds are resumed.
+   */
+  def sync(consumer: Consumer[_, _], shouldFetch: TopicPartition => Boolean): Unit =
+    if (fullSyncRequired) {
+      fullSyncRequired = false
+      changed.clear()
+      val pauseThese = new java.util.ArrayList[TopicPartition]()
+      val resumeThese = new java.util.ArrayList[TopicPartition]()
+      assigned.forEach { (tp, state) =>
+        val fetch = shouldFetch(tp)
+        state.paused = !fetch
+        if (fetch) resumeThese.add(tp) else pauseThese.add(tp)
+      }
+      consumer.pause(pauseThese)
+      if (!resumeThese.isEmpty) consumer.resume(resumeThese)
+    } else if (!changed.isEmpty) {
+      var pauseThese: java.util.ArrayList[TopicPartition] = null
+      var resumeThese: java.util.ArrayList[TopicPartition] = null
+      changed.forEach { tp =>
+        val state = assigned.get(tp)
+        if (state != null) {
+          val fetch = shouldFetch(tp)
+          if (fetch && state.paused) {
+            if (resumeThese == null) resumeThese = new java.util.ArrayList[TopicPartition]()
+            resumeThese.add(tp)
+            state.paused = false
+          } else if (!fetch && !state.paused) {
+            if (pauseThese == null) pauseThese = new java.util.ArrayList[TopicPartition]()
+            pauseThese.add(tp)
+            state.paused = true
+          }
+        }
+      }
+      changed.clear()
+      if (pauseThese != null) consumer.pause(pauseThese)
+      if (resumeThese != null) consumer.resume(resumeThese)
+    }
+}
+
+/**
+ * Internal API.
+ */
+@InternalApi
+private[internal] object AssignmentIndex {
+  private final class PartitionState(var paused: Boolean)
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import java.util.concurrent.{CompletionStage, Executor}
+
+import akka.Done
+import akka.actor.ActorSystem
+import akka.annotation.InternalApi
+import akka.dispatch.ExecutionContexts
+import akka.kafka.scaladsl.Consumer.{BackfillControl, Control}
+import akka.kafka.scaladsl.MetadataClient
+import akka.kafka.Subscriptions.AssignmentWithOffset
+import akka.kafka._
+import akka.stream.scaladsl.Source
+import akka.util.Timeout
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.{Metric, MetricName, TopicPartition}
+
+import scala.collection.immutable
+import scala.compat.java8.FutureConverters._
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.jdk.CollectionConverters._
+
+/**
+ * Internal API.
+ *
+ * Spreads the partitions of a manual subscription across several bounded sources, each with a Kafka consumer of
+ * its own, and merges their records. The partitions are sharded when the source is materialized, which looks up
+ * the beginning and end offsets first for lag balanced sharding.
+ */
+@InternalApi private[kafka] object BackfillSource {
+
+  def apply[K, V](settings: ConsumerSettings[K, V],
+                  subscription: ManualSubscription,
+                  consumers: Int,
+                  sharding: BackfillSharding): Source[ConsumerRecord[K, V], BackfillControl] = {
+    require(consumers > 0, s"consumers must be positive, was $consumers")
+    Source
+      .fromMaterializer { (mat, _) =>
+        implicit val ec: ExecutionContext = mat.executionContext
+        Source.futureSource(shard(settings, subscription, consumers, sharding)(mat.system, ec).map { shards =>
+          Source(shards)
+            .flatMapMerge(shards.size.max(1), _.source(settings))
+            .watchTermination() { (_, done) =>
+              done.onComplete(_ => shards.foreach(_.notStarted()))
+              shards
+            }
+        })
+      }
+      .mapMaterializedValue(shards => new BackfillControlImpl(shards.flatten))
+  }
+
+  private def shard[K, V](settings: ConsumerSettings[K, V],
+                          subscription: ManualSubscription,
+                          consumers: Int,
+                          sharding: BackfillSharding)(
+      implicit system: ActorSystem,
+      ec: ExecutionContext
+  ): Future[immutable.Seq[Shard[K, V]]] = {
+    val tps = BoundedSources.partitions(subscription)
+    sharding match {
+      case BackfillSharding.RoundRobin =>
+        Future.successful(roundRobin(tps, consumers).zipWithIndex.map {
+          case (shardTps, index) => new Shard[K, V](index, BoundedSources.restrict(subscription, shardTps), None)
+        })
+      case BackfillSharding.LagBalanced =>
+        val client = MetadataClient.create(settings, Timeout(settings.metadataRequestTimeout))
+        val lags = for {
+          beginning <- client.getBeginningOffsets(tps)
+          end <- client.getEndOffsets(tps)
+        } yield estimateRecords(subscription, beginning, end)
+        lags.onComplete(_ => client.close())
+        lags.map { lags =>
+          lagBalanced(lags, consumers).zipWithIndex.map {
+            case (shardTps, index) =>
+              val estimated = shardTps.iterator.map(lags).sum
+              new Shard[K, V](index, BoundedSources.restrict(subscription, shardTps), Some(estimated))
+          }
+        }
+    }
+  }
+
+  /** The records to read per partition, from the subscription's offset or the beginning up to the end offset. */
+  def estimateRecords(subscription: ManualSubscription,
+                      beginning: Map[TopicPartition, Long],
+                      end: Map[TopicPartition, Long]): Map[TopicPartition, Long] = {
+    val start = subscription match {
+      case AssignmentWithOffset(offsets) => beginning ++ offsets.map { case (tp, o) => tp -> o.max(beginning(tp)) }
+      case _ => beginning
+    }
+    end.map { case (tp, endOffset) => tp -> (endOffset - start(tp)).max(0L) }
+  }
+
+  /** Deals the partitions to at most `consumers` shards in topic and partition order. */
+  def roundRobin(tps: Set[TopicPartition], consumers: Int): immutable.Seq[Set[TopicPartition]] =
+    tps.toList
+      .sortBy(tp => (tp.topic, tp.partition))
+      .zipWithIndex
+      .groupBy(_._2 % consumers)
+      .toList
+      .sortBy(_._1)
+      .map(_._2.map(_._1).toSet)
+
+  /**
+   * Assigns the partitions to at most `consumers` shards, the largest partition first to the shard with the least
+   * records so far (longest processing time first).
+   */
+  def lagBalanced(lags: Map[TopicPartition, Long], consumers: Int): immutable.Seq[Set[TopicPartition]] = {
+    val shards = math.min(consumers, lags.size)
+    val load = new Array[Long](shards)
+    val assigned = Array.fill(shards)(Set.empty[TopicPartition])
+    lags.toList.sortBy { case (tp, lag) => (-lag, tp.topic, tp.partition) }.foreach {
+      case (tp, lag) =>
+        var least = 0
+        var i = 1
+        while (i < shards) {
+          if (load(i) < load(least)) least = i
+          i += 1
+        }
+        load(least) += lag
+        assigned(least) += tp
+    }
+    assigned.toList
+  }
+}
+
+/**
+ * Internal API.
+ *
+ * One bounded source of a backfill source, tracking its control and progress.
+ */
+@InternalApi private final class Shard[K, V](index: Int,
+                                             subscription: ManualSubscription,
+                                             estimatedRecords: Option[Long]) {
+  private val controlPromise = Promise[Control]()
+  // only written by the shard's stream
+  @volatile private var records = 0L
+  @volatile private var completed = false
+
+  def control: Future[Control] = controlPromise.future
+
+  def source(settings: ConsumerSettings[K, V]): Source[ConsumerRecord[K, V], Unit] =
+    Source
+      .fromGraph(new PlainBoundedSource[K, V](settings, subscription))
+      .map { record =>
+        records += 1
+        record
+      }
+      .watchTermination() { (control, done) =>
+        controlPromise.success(control)
+        done.foreach(_ => completed = true)(ExecutionContexts.parasitic)
+      }
+
+  /** Fails the control of a shard the merged stream never started. */
+  def notStarted(): Unit =
+    controlPromise.tryFailure(new IllegalStateException(s"Backfill shard $index was not started"))
+
+  def progress: BackfillProgress =
+    new BackfillProgress(index, BoundedSources.partitions(subscription), records, estimatedRecords, completed)
+}
+
+/** Internal API */
+@InternalApi private final class BackfillControlImpl(shards: Future[immutable.Seq[Shard[_, _]]])
+    extends CombinedControl(
+      shards.flatMap(shards => Future.sequence(shards.map(_.control)))(ExecutionContexts.parasitic)
+    )
+    with BackfillControl {
+
+  override def progress: Future[immutable.Seq[BackfillProgress]] =
+    shards.map(_.map(_.progress))(ExecutionContexts.parasitic)
+}
+
+/** Internal API */
+@InternalApi private[kafka] final class BackfillControlAsJava(underlying: BackfillControl)
+    extends javadsl.Consumer.BackfillControl {
+  private val control = ConsumerControlAsJava(underlying)
+
+  override def stop(): CompletionStage[Done] = control.stop()
+
+  override def shutdown(): CompletionStage[Done] = control.shutdown()
+
+  override def drainAndShutdown[T](streamCompletion: CompletionStage[T], ec: Executor): CompletionStage[T] =
+    control.drainAndShutdown(streamCompletion, ec)
+
+  override def isShutdown: CompletionStage[Done] = control.isShutdown
+
+  override def getMetrics: CompletionStage[java.util.Map[MetricName, Metric]] = control.getMetrics
+
+  override def getProgress: CompletionStage[java.util.List[BackfillProgress]] =
+    underlying.progress.map(_.asJava)(ExecutionContexts.parasitic).toJava
+}
+
+/** Internal API */
+@InternalApi private[kafka] object BackfillControlAsJava {
+  def apply(underlying: BackfillControl): javadsl.Consumer.BackfillControl = new BackfillControlAsJava(underlying)
+}
@@ -8,7 +8,7 @@ package akka.kafka.internal
 import akka.actor.{ActorRef, Status, Terminated}
 import akka.annotation.InternalApi
 import akka.kafka.Subscriptions.{Assignment, AssignmentOffsetsForTimes, AssignmentWithOffset}
-import akka.kafka.{ConsumerFailed, ManualSubscription}
+import akka.kafka.{ConsumerFailed, ManualSubscription, RecordSelection}
 import akka.stream.SourceShape
 import akka.stream.stage.GraphStageLogic.StageActor
 import akka.stream.stage.{AsyncCallback, GraphStageLogic, OutHandler}
@@ -67,7 +67,7 @@ import scala.concurrent.{ExecutionContext, Future}
       // might be more than one in flight when we assign/revoke tps
       if (msg.requestId == requestId)
         requested = false
-      buffer = buffer ++ msg.messages
+      addToBuffer(msg.chunks)
       pump()
     case (_, Status.Failure(e)) =>
       failStage(e)
@@ -89,23 +89,48 @@ import scala.concurrent.{ExecutionContext, Future}
       tps ++= topics.keySet
   }
 
+  /** Applied by the consumer actor to the records before they are sent to this stage. */
+  protected def recordSelection: Option[RecordSelection[K, V]] = None
+
+  /** Whether the consumer actor commits the offsets of records filtered by the selection. */
+  protected def commitFilteredRecords: Boolean = false
+
+  /**
+   * The next element to emit, only called if `hasBufferedRecords`.
+   */
+  protected def nextMessage(): Msg = createMessage(nextBufferedRecord())
+
+  /** No more records will be emitted, the stage completes when pulled. */
+  protected def exhausted: Boolean = false
+
   @tailrec
-  private def pump(): Unit =
+  protected final def pump(): Unit =
     if (isAvailable(shape.out)) {
-      if (buffer.hasNext) {
-        val msg = buffer.next()
-        push(shape.out, createMessage(msg))
+      if (hasBufferedRecords) {
+        push(shape.out, nextMessage())
         pump()
-      } else if (!requested && tps.nonEmpty) {
+      } else if (exhausted) {
+        performShutdown()
+      } else if (pendingDeserializationFailure.isDefined) {
+        failStage(pendingDeserializationFailure.get)
+      } else if (!requested && tps.nonEmpty && !deserializationBacklogFull) {
         requestMessages()
       }
     }
 
+  override protected def recordsDeserialized(): Unit = pump()
+
   protected def requestMessages(): Unit = {
     requested = true
     requestId += 1
     log.debug("Requesting messages, requestId: {}, partitions: {}", requestId, tps)
-    consumerActor.tell(KafkaConsumerActor.Internal.RequestMessages(requestId, tps), sourceActor.ref)
+    consumerActor.tell(
+      KafkaConsumerActor.Internal.RequestMessages(requestId,
+                                                  tps,
+                                                  selection = recordSelection,
+                                                  commitFiltered = commitFilteredRecords),
+      sourceActor.ref
+    )
   }
 
   setHandler(shape.out, new OutHandler {
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.annotation.InternalApi
+import akka.kafka.ConsumerMessage.CommittableMessages
+import akka.kafka.scaladsl.Consumer.Control
+import akka.kafka.{ConsumerSettings, Subscription}
+import akka.stream.SourceShape
+import akka.stream.stage.GraphStageLogic
+import org.apache.kafka.clients.consumer.{ConsumerConfig, ConsumerRecord}
+
+import scala.collection.immutable
+
+/**
+ * Internal API.
+ *
+ * Emits the buffered records in batches of up to `maxRecords` records, and up to `maxBytes` serialized bytes.
+ */
+@InternalApi private abstract class BatchSingleSourceLogic[K, V, Msg](
+    shape: SourceShape[Msg],
+    settings: ConsumerSettings[K, V],
+    subscription: Subscription,
+    maxRecords: Int,
+    maxBytes: Long
+) extends SingleSourceLogic[K, V, Msg](shape, settings, subscription) {
+  self: BatchMessageBuilder[K, V, Msg] =>
+
+  override protected def nextMessage(): Msg = createBatchMessage(nextBufferedBatch(maxRecords, maxBytes))
+}
+
+/** Internal API */
+@InternalApi
+private[kafka] final class PlainBatchSource[K, V](settings: ConsumerSettings[K, V],
+                                                  subscription: Subscription,
+                                                  maxRecords: Int,
+                                                  maxBytes: Long)
+    extends KafkaSourceStage[K, V, immutable.Seq[ConsumerRecord[K, V]]](
+      s"PlainBatchSource ${subscription.renderStageAttribute}"
+    ) {
+  require(maxRecords > 0, "maxRecords must be positive")
+  require(maxBytes > 0L, "maxBytes must be positive")
+
+  override protected def logic(shape: SourceShape[immutable.Seq[ConsumerRecord[K, V]]]): GraphStageLogic with Control =
+    new BatchSingleSourceLogic[K, V, immutable.Seq[ConsumerRecord[K, V]]](
+      shape,
+      settings,
+      subscription,
+      maxRecords,
+      maxBytes
+    ) with PlainBatchMessageBuilder[K, V]
+}
+
+/** Internal API */
+@InternalApi
+private[kafka] final class CommittableBatchSource[K, V](settings: ConsumerSettings[K, V],
+                                                        subscription: Subscription,
+                                                        maxRecords: Int,
+                                                        maxBytes: Long,
+                                                        _metadataFromRecord: ConsumerRecord[K, V] => String =
+                                                          CommittableMessageBuilder.NoMetadataFromRecord)
+    extends KafkaSourceStage[K, V, CommittableMessages[K, V]](
+      s"CommittableBatchSource ${subscription.renderStageAttribute}"
+    ) {
+  require(maxRecords > 0, "maxRecords must be positive")
+  require(maxBytes > 0L, "maxBytes must be positive")
+
+  override protected def logic(shape: SourceShape[CommittableMessages[K, V]]): GraphStageLogic with Control =
+    new BatchSingleSourceLogic[K, V, CommittableMessages[K, V]](shape, settings, subscription, maxRecords, maxBytes)
+      with CommittableBatchMessageBuilder[K, V] {
+      override def metadataFromRecord(record: ConsumerRecord[K, V]): String = _metadataFromRecord(record)
+      override def groupId: String = settings.properties(ConsumerConfig.GROUP_ID_CONFIG)
+      lazy val committer: KafkaAsyncConsumerCommitterRef = {
+        val ec = materializer.executionContext
+        new KafkaAsyncConsumerCommitterRef(consumerActor, settings.commitTimeout)(ec)
+      }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.actor.ActorRef
+import akka.annotation.InternalApi
+import akka.kafka.internal.KafkaConsumerActor.Internal.{DeliveredPositions, GetDeliveredPositions}
+import akka.kafka.scaladsl.Consumer.Control
+import akka.kafka.Subscriptions.{Assignment, AssignmentOffsetsForTimes, AssignmentWithOffset}
+import akka.kafka.{ConsumerSettings, ManualSubscription, Metadata, RecordSelection, Subscriptions}
+import akka.stream.SourceShape
+import akka.stream.stage.GraphStageLogic
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.TopicPartition
+
+import scala.collection.immutable
+import scala.util.{Failure, Success}
+
+/**
+ * Internal API.
+ *
+ * Reads the assigned partitions up to the end offsets they have when the stage starts (unless the end offsets are
+ * given) and completes when all records before them were emitted.
+ *
+ * The consumer actor drops records beyond the end offsets (see [[RecordSelection]]). A partition is done when a record
+ * right before its end offset is emitted, or when the consumer actor delivered all records up to the end offset (as
+ * the last offsets may not hold records, e.g. transaction markers) and none are buffered or being deserialized. The
+ * delivered positions are checked every poll interval until all partitions were delivered. Done partitions are no
+ * longer requested, so the consumer actor keeps them paused, and the consumer actor is stopped right after completion.
+ */
+@InternalApi private abstract class BoundedSourceLogic[K, V, Msg](
+    shape: SourceShape[Msg],
+    settings: ConsumerSettings[K, V],
+    subscription: ManualSubscription,
+    knownEndOffsets: Option[Map[TopicPartition, Long]]
+) extends SingleSourceLogic[K, V, Msg](shape, settings, subscription) {
+
+  /** The end offsets captured at start, empty until known. */
+  private var endOffsets = Map.empty[TopicPartition, Long]
+  private var selection: Option[RecordSelection[K, V]] = None
+  /** Partitions the consumer actor delivered all records of. */
+  private var delivered = Set.empty[TopicPartition]
+  private var started = false
+
+  override protected def recordSelection: Option[RecordSelection[K, V]] = selection
+
+  override protected def configureManualSubscription(subscription: ManualSubscription): Unit = {
+    super.configureManualSubscription(subscription)
+    knownEndOffsets match {
+      case Some(offsets) => readUpTo(offsets)
+      case None => consumerActor.tell(Metadata.GetEndOffsets(tps), sourceActor.ref)
+    }
+  }
+
+  private def readUpTo(offsets: Map[TopicPartition, Long]): Unit = {
+    endOffsets = offsets
+    selection = Some(RecordSelection[K, V](r => r.offset < offsets(new TopicPartition(r.topic, r.partition))))
+    consumerActor.tell(GetDeliveredPositions(tps), sourceActor.ref)
+  }
+
+  override protected def messageHandling: PartialFunction[(ActorRef, Any), Unit] =
+    super.messageHandling.orElse {
+      case (_, Metadata.EndOffsets(Success(offsets))) =>
+        readUpTo(offsets)
+      case (_, DeliveredPositions(Success(positions))) =>
+        started = true
+        positions.foreach {
+          case (tp, position) => if (position >= endOffsets(tp)) delivered += tp
+        }
+        delivered.foreach(tp => if (!hasPendingRecords(tp)) partitionDone(tp))
+        if ((tps -- delivered).nonEmpty)
+          materializer.scheduleOnce(settings.pollInterval, new Runnable {
+            override def run(): Unit = checkPositionsCB.invoke(())
+          })
+        pump()
+      case (_, Metadata.EndOffsets(Failure(e))) =>
+        failStage(e)
+      case (_, DeliveredPositions(Failure(e))) =>
+        failStage(e)
+    }
+
+  private val checkPositionsCB = getAsyncCallback[Unit] { _ =>
+    consumerActor.tell(GetDeliveredPositions(tps -- delivered), sourceActor.ref)
+  }
+
+  override protected def requestMessages(): Unit =
+    if (started && tps.nonEmpty) super.requestMessages()
+
+  override protected def nextBufferedRecord(): ConsumerRecord[K, V] = {
+    val record = super.nextBufferedRecord()
+    val tp = new TopicPartition(record.topic, record.partition)
+    if (record.offset >= endOffsets(tp) - 1 || (delivered(tp) && !hasPendingRecords(tp))) partitionDone(tp)
+    record
+  }
+
+  override protected def exhausted: Boolean = started && tps.isEmpty && !hasBufferedRecords
+
+  private def partitionDone(tp: TopicPartition): Unit =
+    if (tps.contains(tp)) {
+      tps -= tp
+      log.debug("Partition {} read up to its end offset {}", tp, endOffsets(tp))
+    }
+
+  override protected def stopConsumerActor(): Unit =
+    if (exhausted) consumerActor.tell(KafkaConsumerActor.Internal.StopFromStage(id), sourceActor.ref)
+    else super.stopConsumerActor()
+}
+
+/** Internal API */
+@InternalApi
+private[kafka] final class PlainBoundedSource[K, V](settings: ConsumerSettings[K, V],
+                                                    subscription: ManualSubscription,
+                                                    endOffsets: Option[Map[TopicPartition, Long]] = None)
+    extends KafkaSourceStage[K, V, ConsumerRecord[K, V]](s"PlainBoundedSource ${subscription.renderStageAttribute}") {
+  override protected def logic(shape: SourceShape[ConsumerRecord[K, V]]): GraphStageLogic with Control =
+    new BoundedSourceLogic[K, V, ConsumerRecord[K, V]](shape, settings, subscription, endOffsets)
+    with PlainMessageBuilder[K, V]
+}
+
+/** Internal API */
+@InternalApi
+private[kafka] object BoundedSources {
+
+  /** Splits a manual subscription into a subscription per partition. */
+  def perPartition(subscription: ManualSubscription): immutable.Seq[(TopicPartition, ManualSubscription)] =
+    subscription match {
+      case Assignment(tps) =>
+        tps.toList.map(tp => tp -> Subscriptions.assignment(tp))
+      case AssignmentWithOffset(tps) =>
+        tps.toList.map { case (tp, offset) => tp -> Subscriptions.assignmentWithOffset(tp, offset) }
+      case AssignmentOffsetsForTimes(tps) =>
+        tps.toList.map { case (tp, timestamp) => tp -> Subscriptions.assignmentOffsetsForTimes(tp, timestamp) }
+    }
+
+  /** The partitions of a manual subscription. */
+  def partitions(subscription: ManualSubscription): Set[TopicPartition] =
+    subscription match {
+      case Assignment(tps) => tps
+      case AssignmentWithOffset(tps) => tps.keySet
+      case AssignmentOffsetsForTimes(tps) => tps.keySet
+    }
+
+  /** Restricts a manual subscription to the given partitions. */
+  def restrict(subscription: ManualSubscription, partitions: Set[TopicPartition]): ManualSubscription =
+    subscription match {
+      case Assignment(tps) => Subscriptions.assignment(tps.intersect(partitions))
+      case AssignmentWithOffset(tps) => Subscriptions.assignmentWithOffset(tps.filter(e => partitions(e._1)))
+      case AssignmentOffsetsForTimes(tps) => Subscriptions.assignmentOffsetsForTimes(tps.filter(e => partitions(e._1)))
+    }
+}
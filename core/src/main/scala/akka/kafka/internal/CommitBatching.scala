@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import akka.annotation.InternalApi
+import akka.kafka.{CommitterMetrics, CommitterSettings}
+import org.apache.kafka.common.{Metric, MetricName}
+
+import scala.concurrent.duration._
+
+/**
+ * Internal API.
+ *
+ * The batch size and interval of a committer stream. With adaptive commits they are recalculated whenever the
+ * [[CommitCollectorStage]] emits a batch, from the inflow of offsets since the previous batch and the commit round
+ * trip time reported by the commit step, both as moving averages:
+ *
+ * - the interval is the longest keeping the committed offsets within the target lag, i.e. the target lag minus the
+ *   round trip, bounded by `maxInterval`, but at least `minInterval` and the round trip divided by the commits
+ *   which may be in flight,
+ * - the batch size is the inflow expected within the interval, between `minBatch` and `maxBatch`.
+ *
+ * The limits are only updated by the stage, the round trip by the commit completions on any thread, the metrics are
+ * read on any thread.
+ */
+@InternalApi private[kafka] final class CommitBatching(settings: CommitterSettings) extends CommitterMetrics {
+  import CommitBatching._
+
+  private val adaptive = settings.adaptive
+
+  @volatile private var currentMaxBatch = settings.maxBatch
+  // start out from the target lag until the first batch tells about the inflow
+  @volatile private var currentMaxIntervalNanos =
+    if (adaptive.enable) math.min(settings.maxInterval.toNanos, adaptive.targetLag.toNanos)
+    else settings.maxInterval.toNanos
+  @volatile private var inflowPerSecond = 0.0d
+  @volatile private var roundTripNanos = 0L
+  private val inFlight = new AtomicInteger()
+  private var lastBatchNanos = System.nanoTime()
+
+  /** The number of offsets which triggers a commit. */
+  def maxBatch: Long = currentMaxBatch
+
+  /** The longest time offsets are held before a commit. */
+  def maxInterval: FiniteDuration = currentMaxIntervalNanos.nanos
+
+  /** The commits to run in parallel. */
+  def parallelism: Int = if (adaptive.enable) adaptive.maxCommitsInFlight else settings.parallelism
+
+  /** A commit was sent, returns its start time for [[commitCompleted]]. */
+  def commitStarted(): Long = {
+    inFlight.incrementAndGet()
+    System.nanoTime()
+  }
+
+  def commitCompleted(startNanos: Long): Unit = {
+    inFlight.decrementAndGet()
+    val rtt = System.nanoTime() - startNanos
+    // completions of parallel commits may race, a lost update only delays the average
+    val previous = roundTripNanos
+    roundTripNanos = if (previous == 0L) rtt else previous + ((rtt - previous) >> RoundTripWeightShift)
+  }
+
+  /** The stage emitted a batch of `batchSize` offsets, adapt the limits. */
+  def batchEmitted(batchSize: Long): Unit = {
+    val now = System.nanoTime()
+    val elapsed = now - lastBatchNanos
+    lastBatchNanos = now
+    if (adaptive.enable && elapsed > 0) {
+      val inflow = batchSize * 1e9d / elapsed
+      val previous = inflowPerSecond
+      inflowPerSecond = if (previous == 0.0d) inflow else previous + (inflow - previous) * InflowWeight
+
+      val rtt = roundTripNanos
+      val lower = math.max(adaptive.minInterval.toNanos, rtt / adaptive.maxCommitsInFlight)
+      val interval = math.min(settings.maxInterval.toNanos, math.max(lower, adaptive.targetLag.toNanos - rtt))
+      currentMaxIntervalNanos = interval
+      val batch = (inflowPerSecond * interval / 1e9d).toLong
+      currentMaxBatch = math.min(settings.maxBatch, math.max(adaptive.minBatch, batch))
+    }
+  }
+
+  override def metrics: Map[MetricName, Metric] = Map(
+    snapshot("commit-max-batch", "The number of offsets which triggers a commit", currentMaxBatch),
+    snapshot("commit-max-interval-ms",
+             "The longest time offsets are held before a commit in milliseconds",
+             currentMaxIntervalNanos / 1000000L),
+    snapshot("commit-rtt-avg-ms",
+             "The moving average of the commit round trip time in milliseconds",
+             roundTripNanos / 1e6d),
+    snapshot("commits-in-flight", "The number of commits awaiting their reply", inFlight.get),
+    snapshot("commit-inflow-rate", "The moving average of the offsets to commit per second", inflowPerSecond)
+  )
+
+  private def snapshot(name: String, description: String, value: Any): (MetricName, Metric) = {
+    val metricName = new MetricName(name, Group, description, java.util.Collections.emptyMap[String, String]())
+    metricName -> new ConsumerActorMetrics.Snapshot(metricName, value)
+  }
+}
+
+/** Internal API */
+@InternalApi private[kafka] object CommitBatching {
+  val Group = "akka-kafka-committer"
+
+  /** Weight of a round trip in its moving average, as a shift: 1/8. */
+  private val RoundTripWeightShift = 3
+
+  /** Weight of a batch's inflow in its moving average. */
+  private val InflowWeight = 0.25d
+}
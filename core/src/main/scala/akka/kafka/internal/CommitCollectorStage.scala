@@ -16,9 +16,13 @@ import akka.stream.stage._
  *
  * Combined stage for committing incoming offsets in batches. Capable of emitting dynamic (reduced) size batch in case of
  * upstream failures. Support flushing on failure (for downstreams).
+ *
+ * The batch size and interval are taken from `batching` when given, which the commit step of the stream reports
+ * commit round trips to for adaptive commits.
  */
 @InternalApi
-private[kafka] final class CommitCollectorStage(val committerSettings: CommitterSettings)
+private[kafka] final class CommitCollectorStage(val committerSettings: CommitterSettings,
+                                                val batching: Option[CommitBatching] = None)
     extends GraphStage[FlowShape[Committable, CommittableOffsetBatch]] {
 
   val in: Inlet[Committable] = Inlet[Committable]("FlowIn")
@@ -46,6 +50,10 @@ private final class CommitCollectorStageLogic(
 
   override protected def logSource: Class[_] = classOf[CommitCollectorStageLogic]
 
+  private val batching = stage.batching.getOrElse(new CommitBatching(settings))
+
+  override protected def maxBatch: Long = batching.maxBatch
+
   private var pushOnNextPull = false
 
   override def preStart(): Unit = {
@@ -55,7 +63,7 @@ private final class CommitCollectorStageLogic(
   }
 
   private def scheduleCommit(): Unit =
-    scheduleOnce(CommitNow, stage.committerSettings.maxInterval)
+    scheduleOnce(CommitNow, batching.maxInterval)
 
   override protected def onTimer(timerKey: Any): Unit = timerKey match {
     case CommitCollectorStage.CommitNow =>
@@ -69,9 +77,10 @@ private final class CommitCollectorStageLogic(
   }
 
   private def pushDownStream(triggeredBy: TriggerdBy): Unit = {
-    log.debug("pushDownStream triggered by {}, outstanding batch {}", triggeredBy, offsetBatch)
-    push(stage.out, offsetBatch)
-    offsetBatch = CommittableOffsetBatch.empty
+    val batch = offsetBatch.take()
+    log.debug("pushDownStream triggered by {}, outstanding batch {}", triggeredBy, batch)
+    push(stage.out, batch)
+    batching.batchEmitted(batch.batchSize)
     scheduleCommit()
   }
 
@@ -90,18 +99,16 @@ private final class CommitCollectorStageLogic(
 
       override def onUpstreamFinish(): Unit = {
         if (activeBatchInProgress) {
-          log.debug("pushDownStream triggered by {}, outstanding batch {}", UpstreamFinish, offsetBatch)
-          emit(stage.out, offsetBatch)
+          val batch = offsetBatch.take()
+          log.debug("pushDownStream triggered by {}, outstanding batch {}", UpstreamFinish, batch)
+          emit(stage.out, batch)
         }
         completeStage()
       }
 
       override def onUpstreamFailure(ex: Throwable): Unit = {
         log.debug("onUpstreamFailure with exception {} with {}", ex, offsetBatch)
-        if (activeBatchInProgress) {
-          offsetBatch.tellCommitEmergency()
-          offsetBatch = CommittableOffsetBatch.empty
-        }
+        if (activeBatchInProgress) offsetBatch.take().tellCommitEmergency()
         failStage(ex)
       }
     }
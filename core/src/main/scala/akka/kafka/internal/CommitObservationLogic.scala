@@ -18,8 +18,11 @@ import akka.stream.stage.GraphStageLogic
 private[internal] trait CommitObservationLogic { self: GraphStageLogic =>
   def settings: CommitterSettings
 
-  /** Batches offsets until a commit is triggered. */
-  protected var offsetBatch: CommittableOffsetBatch = CommittableOffsetBatch.empty
+  /** The number of offsets which triggers a commit. */
+  protected def maxBatch: Long = settings.maxBatch
+
+  /** Batches offsets until a commit is triggered, `take` the batch to commit it. */
+  protected val offsetBatch = new CommittableOffsetBatchBuilder
 
   /** Deferred offsets when `CommitterSetting.when == CommitWhen.NextOffsetObserved` **/
   private var deferredOffsets: Map[GroupTopicPartition, Committable] = Map.empty
@@ -30,7 +33,7 @@ private[internal] trait CommitObservationLogic { self: GraphStageLogic =>
    */
   def updateBatch(committable: Committable): Boolean = {
     if (settings.when == OffsetFirstObserved) {
-      offsetBatch = offsetBatch.updated(committable)
+      offsetBatch.add(committable)
     } else { // CommitWhen.NextOffsetObserved
       committable match {
         case single: CommittableOffset =>
@@ -50,20 +53,20 @@ private[internal] trait CommitObservationLogic { self: GraphStageLogic =>
 
       }
     }
-    offsetBatch.batchSize >= settings.maxBatch
+    offsetBatch.batchSize >= maxBatch
   }
 
   private def updateBatchForPartition(gtp: GroupTopicPartition, committable: Committable, offset: Long): Unit =
     deferredOffsets.get(gtp) match {
       case Some(dOffset: CommittableOffset) if dOffset.partitionOffset.offset < offset =>
         deferredOffsets = deferredOffsets + (gtp -> committable)
-        offsetBatch = offsetBatch.updated(dOffset)
+        offsetBatch.add(dOffset)
       case Some(dOffsetBatch: CommittableOffsetBatch)
           if dOffsetBatch.offsets.contains(gtp) && dOffsetBatch.offsets
             .get(gtp)
             .head < offset =>
         deferredOffsets = deferredOffsets + (gtp -> committable)
-        offsetBatch = offsetBatch.updated(dOffsetBatch)
+        offsetBatch.add(dOffsetBatch)
       case None =>
         deferredOffsets = deferredOffsets + (gtp -> committable)
       case _ => ()
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.annotation.InternalApi
+import akka.kafka.ConsumerMessage.{Committable, CommittableOffset, CommittableOffsetBatch, GroupTopicPartition}
+import org.apache.kafka.clients.consumer.OffsetAndMetadata
+
+/**
+ * Internal API.
+ *
+ * Accumulates the offsets of a batch in a mutable table with an entry per partition, which is updated in place,
+ * instead of copying the maps of an immutable [[CommittableOffsetBatchImpl]] for every offset. The immutable batch
+ * is created only when the batch is taken. As with `CommittableOffsetBatch.updated`, the last offset and committer
+ * seen for a partition win.
+ *
+ * Not thread-safe, must only be used from within a stage.
+ */
+@InternalApi
+private[kafka] final class CommittableOffsetBatchBuilder {
+  import CommittableOffsetBatchBuilder._
+
+  private val entries = new java.util.HashMap[GroupTopicPartition, Entry]()
+  private var size = 0L
+
+  /** The number of offsets added since the batch was last taken. */
+  def batchSize: Long = size
+
+  def isEmpty: Boolean = size == 0
+
+  def add(committable: Committable): Unit = committable match {
+    case offset: CommittableOffset => add(offset, records = 1L)
+    case batch: CommittableOffsetBatchImpl =>
+      batch.offsetsAndMetadata.foreach {
+        case (gtp, offsetAndMetadata) =>
+          update(gtp, offsetAndMetadata.offset, offsetAndMetadata.metadata, batch.committerFor(gtp))
+      }
+      size += batch.batchSize
+    case batch: CommittableOffsetBatch =>
+      throw new IllegalArgumentException(
+        s"Unknown CommittableOffsetBatch, got [${batch.getClass.getName}], " +
+        s"expected [${classOf[CommittableOffsetBatchImpl].getName}]"
+      )
+  }
+
+  /** Adds the offset as covering `records` records, e.g. the highest of several offsets released at once. */
+  def add(offset: CommittableOffset, records: Long): Unit = offset match {
+    case impl: CommittableOffsetImpl =>
+      val partitionOffset = impl.partitionOffset
+      update(partitionOffset.key, partitionOffset.offset + 1L, impl.metadata, impl.committer)
+      size += records
+    case _ =>
+      throw new IllegalArgumentException(
+        s"Unknown CommittableOffset, got [${offset.getClass.getName}], " +
+        s"expected [${classOf[CommittableOffsetImpl].getName}]"
+      )
+  }
+
+  private def update(gtp: GroupTopicPartition,
+                     offset: Long,
+                     metadata: String,
+                     committer: KafkaAsyncConsumerCommitterRef): Unit = {
+    val entry = entries.get(gtp)
+    if (entry == null) entries.put(gtp, new Entry(offset, metadata, committer))
+    else {
+      entry.offset = offset
+      entry.metadata = metadata
+      entry.committer = committer
+    }
+  }
+
+  /** The batch of the offsets added since the batch was last taken, and start a new batch. */
+  def take(): CommittableOffsetBatch =
+    if (entries.isEmpty && size == 0) CommittableOffsetBatch.empty
+    else {
+      val offsets = Map.newBuilder[GroupTopicPartition, OffsetAndMetadata]
+      val committers = Map.newBuilder[GroupTopicPartition, KafkaAsyncConsumerCommitterRef]
+      entries.forEach { (gtp, entry) =>
+        offsets += gtp -> new OffsetAndMetadata(entry.offset, entry.metadata)
+        committers += gtp -> entry.committer
+      }
+      val batch = new CommittableOffsetBatchImpl(offsets.result(), committers.result(), size)
+      entries.clear()
+      size = 0
+      batch
+    }
+
+  override def toString: String = s"CommittableOffsetBatchBuilder(batchSize=$size, partitions=${entries.size})"
+}
+
+/**
+ * Internal API.
+ */
+@InternalApi
+private[kafka] object CommittableOffsetBatchBuilder {
+  private final class Entry(var offset: Long, var metadata: String, var committer: KafkaAsyncConsumerCommitterRef)
+}
@@ -31,10 +31,13 @@ import scala.concurrent.{ExecutionContext, Future}
 private[kafka] final class CommittableSource[K, V](settings: ConsumerSettings[K, V],
                                                    subscription: Subscription,
                                                    _metadataFromRecord: ConsumerRecord[K, V] => String =
-                                                     CommittableMessageBuilder.NoMetadataFromRecord)
+                                                     CommittableMessageBuilder.NoMetadataFromRecord,
+                                                   selection: Option[RecordSelection[K, V]] = None)
     extends KafkaSourceStage[K, V, CommittableMessage[K, V]](
       s"CommittableSource ${subscription.renderStageAttribute}"
     ) {
+  RecordSelection.requireSupported(selection, settings)
+
   override protected def logic(shape: SourceShape[CommittableMessage[K, V]]): GraphStageLogic with Control =
     new SingleSourceLogic[K, V, CommittableMessage[K, V]](shape, settings, subscription)
       with CommittableMessageBuilder[K, V] {
@@ -44,6 +47,8 @@ private[kafka] final class CommittableSource[K, V](settings: ConsumerSettings[K,
         val ec = materializer.executionContext
         new KafkaAsyncConsumerCommitterRef(consumerActor, settings.commitTimeout)(ec)
       }
+      override protected def recordSelection: Option[RecordSelection[K, V]] = selection
+      override protected def commitFilteredRecords: Boolean = selection.isDefined
     }
 }
 
@@ -190,7 +195,7 @@ private[kafka] object KafkaAsyncConsumerCommitterRef {
  * [[akka.kafka.internal.KafkaConsumerActor.Internal.CommitWithoutReply]] messages to the consumer actor.
  */
 @InternalApi
-private[kafka] class KafkaAsyncConsumerCommitterRef(private val consumerActor: ActorRef,
+private[kafka] class KafkaAsyncConsumerCommitterRef(private[internal] val consumerActor: ActorRef,
                                                     private val commitTimeout: FiniteDuration)(
     private val ec: ExecutionContext
 ) {
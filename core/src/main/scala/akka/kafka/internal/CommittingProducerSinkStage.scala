@@ -9,7 +9,7 @@ import java.util.concurrent.atomic.AtomicInteger
 
 import akka.Done
 import akka.annotation.InternalApi
-import akka.kafka.ConsumerMessage.{Committable, CommittableOffsetBatch}
+import akka.kafka.ConsumerMessage.Committable
 import akka.kafka.ProducerMessage._
 import akka.kafka.{CommitDelivery, CommitterSettings, ProducerSettings}
 import akka.stream.ActorAttributes.SupervisionStrategy
@@ -174,16 +174,16 @@ private final class CommittingProducerSinkStageLogic[K, V, IN <: Envelope[K, V,
     else if (isClosed(stage.in) && awaitingProduceResult == 0L) commit(UpstreamClosed)
 
   private def commit(triggeredBy: TriggerdBy): Unit = {
-    if (offsetBatch.batchSize != 0) {
+    if (!offsetBatch.isEmpty) {
       log.debug("commit triggered by {} (awaitingProduceResult={} awaitingCommitResult={})",
                 triggeredBy,
                 awaitingProduceResult,
                 awaitingCommitResult)
-      val batchSize = offsetBatch.batchSize
-      offsetBatch
+      val batch = offsetBatch.take()
+      val batchSize = batch.batchSize
+      batch
         .commitInternal()
         .onComplete(t => commitResultCB.invoke(batchSize -> t))(materializer.executionContext)
-      offsetBatch = CommittableOffsetBatch.empty
     }
     scheduleCommit()
   }
@@ -210,9 +210,8 @@ private final class CommittingProducerSinkStageLogic[K, V, IN <: Envelope[K, V,
               awaitingProduceResult,
               awaitingCommitResult)
 
-    offsetBatch.tellCommitEmergency()
+    offsetBatch.take().tellCommitEmergency()
     upstreamCompletionState = Some(Failure(ex))
-    offsetBatch = CommittableOffsetBatch.empty
     closeAndFailStage(ex)
   }
 
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import java.nio.ByteBuffer
+import java.util.concurrent.{CompletionStage, ConcurrentHashMap, Executor}
+import java.util.function.BiConsumer
+
+import akka.Done
+import akka.annotation.InternalApi
+import akka.dispatch.ExecutionContexts
+import akka.event.LoggingAdapter
+import akka.kafka.scaladsl.Consumer.{CompactedTableControl, Control}
+import akka.kafka.scaladsl.MetadataClient
+import akka.kafka._
+import akka.stream.scaladsl.Source
+import akka.util.Timeout
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.serialization.{Deserializer, Serializer}
+import org.apache.kafka.common.{Metric, MetricName, TopicPartition}
+
+import scala.collection.immutable
+import scala.compat.java8.FutureConverters._
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.jdk.CollectionConverters._
+import scala.util.control.NonFatal
+
+/**
+ * Internal API.
+ *
+ * Materializes a compacted topic into a [[TableStore]]. On materialization the beginning and end offsets of all
+ * partitions are looked up, a bounded source reads the partitions from the beginning up to the end offsets, and
+ * a plain source follows the partitions from the end offsets on. Its Kafka consumer is created right away, but
+ * its partitions stay paused until the bootstrap completed.
+ *
+ * With snapshots the table is first restored from the latest snapshot (see [[TableSnapshot]]) and the bootstrap
+ * starts from the offsets the snapshot reached. Snapshots are written periodically on the snapshots' dispatcher.
+ */
+@InternalApi private[kafka] object CompactedTableSource {
+
+  def apply[K, V](settings: ConsumerSettings[K, V],
+                  topic: String,
+                  store: TableStore[K, V],
+                  snapshots: Option[TableSnapshots]): Source[ConsumerRecord[K, V], CompactedTableControl[K, V]] = {
+    val snapshotStore = snapshots.map { _ =>
+      store match {
+        case serialized: SerializedTableStore[_, _] => serialized
+        case _ => throw new IllegalArgumentException("Table snapshots require the serialized table store")
+      }
+    }
+    Source
+      .fromMaterializer { (mat, _) =>
+        implicit val ec: ExecutionContext = mat.executionContext
+        // snapshots hold their dispatcher's thread for the whole file I/O
+        val blockingEc = snapshots.fold(ec)(s => mat.system.dispatchers.lookup(s.dispatcher))
+        val client = MetadataClient.create(settings, Timeout(settings.metadataRequestTimeout))(mat.system, ec)
+        val offsets = for {
+          partitions <- client.getPartitionsFor(topic)
+          tps = partitions.map(p => new TopicPartition(p.topic, p.partition)).toSet
+          beginning <- client.getBeginningOffsets(tps)
+          end <- client.getEndOffsets(tps)
+          restored <- restore(topic, snapshots, snapshotStore, mat.system.log)(blockingEc)
+        } yield (beginning.map { case (tp, offset) => tp -> restored.get(tp).fold(offset)(_.max(offset)) }, end)
+        offsets.onComplete(_ => client.close())
+        Source.futureSource(offsets.map {
+          case (start, end) =>
+            val state = new TableState(store, start, end)
+            val checkpoints = for {
+              snapshots <- snapshots
+              serialized <- snapshotStore
+            } yield {
+              val file = TableSnapshot.file(snapshots.directory, topic)
+              mat.system.scheduler.scheduleWithFixedDelay(snapshots.interval, snapshots.interval)(new Runnable {
+                override def run(): Unit =
+                  try TableSnapshot.write(file, topic, state.snapshotOffsets, serialized)
+                  catch {
+                    case NonFatal(e) => mat.system.log.warning("Table snapshot [{}] failed: {}", file, e)
+                  }
+              })(blockingEc)
+            }
+            Source
+              .fromGraph(new PlainBoundedSource[K, V](settings, Subscriptions.assignmentWithOffset(start), Some(end)))
+              .concat(Source.lazySource { () =>
+                state.bootstrapped()
+                Source.empty[ConsumerRecord[K, V]]
+              })
+              .concatMat(Source.fromGraph(new PlainSource[K, V](settings, Subscriptions.assignmentWithOffset(end)))) {
+                (bootstrap, follow) =>
+                  state -> List(bootstrap, follow)
+              }
+              .map(state.apply)
+              .watchTermination() { (materialized, done) =>
+                done.onComplete { _ =>
+                  state.terminated()
+                  checkpoints.foreach(_.cancel())
+                }
+                materialized
+              }
+        })
+      }
+      .mapMaterializedValue(materialized => new CompactedTableControlImpl(store, materialized.flatten))
+  }
+
+  /** Loads the snapshot, if any, and returns the offsets it reached. */
+  private def restore(topic: String,
+                      snapshots: Option[TableSnapshots],
+                      store: Option[SerializedTableStore[_, _]],
+                      log: LoggingAdapter)(implicit blockingEc: ExecutionContext): Future[Map[TopicPartition, Long]] =
+    (snapshots, store) match {
+      case (Some(snapshots), Some(store)) =>
+        Future {
+          val file = TableSnapshot.file(snapshots.directory, topic)
+          try TableSnapshot.read(file, topic, snapshots.maxAge, store).getOrElse(Map.empty)
+          catch {
+            case NonFatal(e) =>
+              log.warning("Ignoring table snapshot [{}] which can't be read: {}", file, e)
+              Map.empty
+          }
+        }
+      case _ => Future.successful(Map.empty)
+    }
+}
+
+/**
+ * Internal API.
+ *
+ * Applies the records of a compacted topic to the store and tracks the bootstrap.
+ */
+@InternalApi private[kafka] final class TableState[K, V](store: TableStore[K, V],
+                                                         beginning: Map[TopicPartition, Long],
+                                                         end: Map[TopicPartition, Long]) {
+
+  private final class Position(val tp: TopicPartition) {
+    // only written by the table source's stream
+    @volatile var next: Long = beginning(tp)
+  }
+
+  /** Positions indexed by partition number, as all partitions are of the same topic. */
+  private val positions: Array[Position] = {
+    val result = new Array[Position](if (beginning.isEmpty) 0 else beginning.keys.map(_.partition).max + 1)
+    beginning.keys.foreach(tp => result(tp.partition) = new Position(tp))
+    result
+  }
+
+  private val caughtUpPromise = Promise[Done]()
+
+  def caughtUp: Future[Done] = caughtUpPromise.future
+
+  /** The offsets of the next records to apply, as recorded in snapshots. */
+  def snapshotOffsets: Map[TopicPartition, Long] = progress.iterator.map(p => p.partition -> p.position).toMap
+
+  def apply(record: ConsumerRecord[K, V]): ConsumerRecord[K, V] = {
+    if (record.key != null) {
+      if (record.value == null) store.remove(record.key)
+      else store.put(record.key, record.value)
+    }
+    positions(record.partition).next = record.offset + 1
+    record
+  }
+
+  /** All records up to the end offsets were applied, the following offsets held no records. */
+  def bootstrapped(): Unit = {
+    positions.foreach { position =>
+      if (position != null && position.next < end(position.tp)) position.next = end(position.tp)
+    }
+    caughtUpPromise.trySuccess(Done)
+  }
+
+  def terminated(): Unit =
+    caughtUpPromise.tryFailure(new IllegalStateException("The table source terminated before it caught up"))
+
+  def progress: immutable.Seq[TablePartitionProgress] =
+    positions.iterator
+      .filter(_ != null)
+      .map(p => new TablePartitionProgress(p.tp, beginning(p.tp), end(p.tp), p.next))
+      .toList
+}
+
+/** Internal API */
+@InternalApi private[kafka] final class OnHeapTableStore[K, V] extends TableStore[K, V] {
+  private val map = new ConcurrentHashMap[K, V]()
+
+  override def put(key: K, value: V): Unit = map.put(key, value)
+  override def remove(key: K): Unit = map.remove(key)
+  override def get(key: K): Option[V] = Option(map.get(key))
+  override def size: Int = map.size
+}
+
+/** Internal API */
+@InternalApi private[kafka] final class SerializedTableStore[K, V](topic: String,
+                                                                   keySerializer: Serializer[K],
+                                                                   valueSerializer: Serializer[V],
+                                                                   valueDeserializer: Deserializer[V])
+    extends TableStore[K, V] {
+  // a byte buffer's equality and hash code are those of its content
+  private val map = new ConcurrentHashMap[ByteBuffer, Array[Byte]]()
+
+  private def serializedKey(key: K): ByteBuffer = ByteBuffer.wrap(keySerializer.serialize(topic, key))
+
+  override def put(key: K, value: V): Unit = map.put(serializedKey(key), valueSerializer.serialize(topic, value))
+  override def remove(key: K): Unit = map.remove(serializedKey(key))
+  override def get(key: K): Option[V] =
+    Option(map.get(serializedKey(key))).map(bytes => valueDeserializer.deserialize(topic, bytes))
+  override def size: Int = map.size
+
+  def putSerialized(key: Array[Byte], value: Array[Byte]): Unit = map.put(ByteBuffer.wrap(key), value)
+
+  def foreachSerialized(f: (Array[Byte], Array[Byte]) => Unit): Unit =
+    map.forEach(new BiConsumer[ByteBuffer, Array[Byte]] {
+      override def accept(key: ByteBuffer, value: Array[Byte]): Unit = f(key.array(), value)
+    })
+
+  def clear(): Unit = map.clear()
+}
+
+/** Internal API */
+@InternalApi private final class CompactedTableControlImpl[K, V](
+    override val table: CompactedTable[K, V],
+    materialized: Future[(TableState[K, V], immutable.Seq[Control])]
+) extends CombinedControl(materialized.map(_._2)(ExecutionContexts.parasitic))
+    with CompactedTableControl[K, V] {
+
+  override def caughtUp: Future[Done] = materialized.flatMap(_._1.caughtUp)(ExecutionContexts.parasitic)
+
+  override def bootstrapProgress: Future[immutable.Seq[TablePartitionProgress]] =
+    materialized.map(_._1.progress)(ExecutionContexts.parasitic)
+}
+
+/** Internal API */
+@InternalApi private[kafka] final class CompactedTableControlAsJava[K, V](underlying: CompactedTableControl[K, V])
+    extends javadsl.Consumer.CompactedTableControl[K, V] {
+  private val control = ConsumerControlAsJava(underlying)
+
+  override def stop(): CompletionStage[Done] = control.stop()
+
+  override def shutdown(): CompletionStage[Done] = control.shutdown()
+
+  override def drainAndShutdown[T](streamCompletion: CompletionStage[T], ec: Executor): CompletionStage[T] =
+    control.drainAndShutdown(streamCompletion, ec)
+
+  override def isShutdown: CompletionStage[Done] = control.isShutdown
+
+  override def getMetrics: CompletionStage[java.util.Map[MetricName, Metric]] = control.getMetrics
+
+  override def getTable: CompactedTable[K, V] = underlying.table
+
+  override def getCaughtUp: CompletionStage[Done] = underlying.caughtUp.toJava
+
+  override def getBootstrapProgress: CompletionStage[java.util.List[TablePartitionProgress]] =
+    underlying.bootstrapProgress.map(_.asJava)(ExecutionContexts.parasitic).toJava
+}
+
+/** Internal API */
+@InternalApi private[kafka] object CompactedTableControlAsJava {
+  def apply[K, V](underlying: CompactedTableControl[K, V]): javadsl.Consumer.CompactedTableControl[K, V] =
+    new CompactedTableControlAsJava(underlying)
+}
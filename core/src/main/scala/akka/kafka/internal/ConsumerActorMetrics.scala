@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.annotation.InternalApi
+import akka.kafka.ConsumerSettings
+import com.github.ghik.silencer.silent
+import org.apache.kafka.clients.consumer.ConsumerConfig
+import org.apache.kafka.common.{Metric, MetricName}
+
+/**
+ * Internal API.
+ *
+ * Metrics maintained by the [[KafkaConsumerActor]] itself. They are reported next to the Kafka consumer's
+ * metrics in the group `akka-kafka-consumer`.
+ */
+@InternalApi private[kafka] object ConsumerActorMetrics {
+
+  val Group = "akka-kafka-consumer"
+
+  def tags(settings: ConsumerSettings[_, _]): java.util.Map[String, String] =
+    java.util.Collections.singletonMap("client-id",
+                                       settings.properties.getOrElse(ConsumerConfig.CLIENT_ID_CONFIG, ""))
+
+  def metricName(name: String, description: String, tags: java.util.Map[String, String]): MetricName =
+    new MetricName(name, Group, description, tags)
+
+  /**
+   * A snapshot of a value taken by the actor when metrics were requested.
+   */
+  @silent("deprecated")
+  final class Snapshot(name: MetricName, snapshot: Any) extends Metric {
+    override def metricName(): MetricName = name
+
+    override def metricValue(): AnyRef = snapshot.asInstanceOf[AnyRef]
+
+    override def value(): Double = snapshot match {
+      case n: java.lang.Number => n.doubleValue()
+      case _ => Double.NaN
+    }
+
+    override def toString: String = s"$name=$snapshot"
+  }
+
+  def snapshot(name: String,
+               description: String,
+               tags: java.util.Map[String, String],
+               value: Any): (MetricName, Metric) = {
+    val mn = metricName(name, description, tags)
+    mn -> new Snapshot(mn, value)
+  }
+
+  /**
+   * Records delivered to a stage and the time its requests waited for them. Only used from within the actor.
+   */
+  final class StageStats {
+    private var waiting = false
+    private var requestedAt = 0L
+    var deliveredRecords = 0L
+    var deliveries = 0L
+    var totalWaitNanos = 0L
+    var maxWaitNanos = 0L
+
+    def requested(now: Long): Unit =
+      if (!waiting) {
+        waiting = true
+        requestedAt = now
+      }
+
+    def delivered(records: Int, now: Long): Unit = {
+      deliveredRecords += records
+      deliveries += 1
+      if (waiting) {
+        val wait = now - requestedAt
+        totalWaitNanos += wait
+        if (wait > maxWaitNanos) maxWaitNanos = wait
+        waiting = false
+      }
+    }
+  }
+
+  def stageMetrics(stage: String,
+                   stats: StageStats,
+                   consumerTags: java.util.Map[String, String]): Map[MetricName, Metric] = {
+    val tags = new java.util.HashMap[String, String](consumerTags)
+    tags.put("stage", stage)
+    val avgWaitMs = if (stats.deliveries == 0) 0.0d else stats.totalWaitNanos.toDouble / stats.deliveries / 1000000d
+    Map(
+      snapshot("stage-records-delivered-total",
+               "The number of records delivered to the stage",
+               tags,
+               stats.deliveredRecords),
+      snapshot("stage-wait-time-avg-ms",
+               "The average time the stage's requests waited for records",
+               tags,
+               avgWaitMs),
+      snapshot("stage-wait-time-max-ms",
+               "The longest time a stage's request waited for records",
+               tags,
+               stats.maxWaitNanos / 1000000L)
+    )
+  }
+
+  /**
+   * Latencies counted in power-of-two buckets of microseconds. Only used from within the actor.
+   */
+  final class LatencyHistogram {
+    private val buckets = new Array[Long](40)
+    var count = 0L
+    var totalNanos = 0L
+    var maxNanos = 0L
+
+    def record(nanos: Long): Unit = {
+      val micros = math.max(nanos / 1000L, 1L)
+      val bucket = math.min(63 - java.lang.Long.numberOfLeadingZeros(micros), buckets.length - 1)
+      buckets(bucket) += 1
+      count += 1
+      totalNanos += nanos
+      if (nanos > maxNanos) maxNanos = nanos
+    }
+
+    /**
+     * The upper bound of the bucket holding the quantile `q` in milliseconds.
+     */
+    def quantileMillis(q: Double): Double =
+      if (count == 0) 0.0d
+      else {
+        val rank = math.max(math.ceil(q * count).toLong, 1L)
+        var seen = buckets(0)
+        var i = 0
+        while (seen < rank && i < buckets.length - 1) {
+          i += 1
+          seen += buckets(i)
+        }
+        (1L << (i + 1)).toDouble / 1000d
+      }
+  }
+
+  def latencyMetrics(name: String,
+                     description: String,
+                     histogram: LatencyHistogram,
+                     tags: java.util.Map[String, String]): Map[MetricName, Metric] = {
+    val avgMs = if (histogram.count == 0) 0.0d else histogram.totalNanos.toDouble / histogram.count / 1000000d
+    Map(
+      snapshot(s"$name-count", s"The number of $description", tags, histogram.count),
+      snapshot(s"$name-avg-ms", s"The average time of $description", tags, avgMs),
+      snapshot(s"$name-max-ms", s"The longest time of $description", tags, histogram.maxNanos.toDouble / 1000000d),
+      snapshot(s"$name-p50-ms", s"The median time of $description", tags, histogram.quantileMillis(0.5d)),
+      snapshot(s"$name-p99-ms", s"The 99th percentile time of $description", tags, histogram.quantileMillis(0.99d))
+    )
+  }
+}
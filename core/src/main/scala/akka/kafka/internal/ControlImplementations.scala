@@ -17,6 +17,7 @@ import akka.stream.stage.GraphStageLogic
 import akka.util.Timeout
 import org.apache.kafka.common.{Metric, MetricName}
 
+import scala.collection.immutable
 import scala.jdk.CollectionConverters._
 import scala.compat.java8.FutureConverters.{CompletionStageOps, FutureOps}
 import scala.concurrent.{ExecutionContext, Future, Promise}
@@ -91,6 +92,29 @@ private trait MetricsControl extends scaladsl.Consumer.Control {
   }
 }
 
+/**
+ * Internal API
+ *
+ * Controls several consumer sources as one, once all of their controls are materialized.
+ */
+@InternalApi
+private[kafka] class CombinedControl(controls: Future[immutable.Seq[scaladsl.Consumer.Control]])
+    extends scaladsl.Consumer.Control {
+  private implicit val ec: ExecutionContext = ExecutionContexts.parasitic
+
+  private def all[T](f: scaladsl.Consumer.Control => Future[T]): Future[immutable.Seq[T]] =
+    controls.flatMap(controls => Future.sequence(controls.map(f)))
+
+  override def stop(): Future[Done] = all(_.stop()).map(_ => Done)
+
+  override def shutdown(): Future[Done] = all(_.shutdown()).map(_ => Done)
+
+  override def isShutdown: Future[Done] = all(_.isShutdown).map(_ => Done)
+
+  override def metrics: Future[Map[MetricName, Metric]] =
+    all(_.metrics).map(_.foldLeft(Map.empty[MetricName, Metric])(_ ++ _))
+}
+
 /** Internal API */
 @InternalApi
 final private[kafka] class ConsumerControlAsJava(underlying: scaladsl.Consumer.Control)
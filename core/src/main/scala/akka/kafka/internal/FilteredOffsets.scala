@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.annotation.InternalApi
+import org.apache.kafka.clients.consumer.{ConsumerRecord, OffsetAndMetadata}
+import org.apache.kafka.common.TopicPartition
+
+/**
+ * Internal API.
+ *
+ * Tracks the records a committable source's [[akka.kafka.RecordSelection]] filtered after the last record delivered
+ * for a partition. The committable offset of an emitted record covers the filtered records before it, but the records
+ * filtered after it are only covered by the next record emitted for the partition, which may never come. The
+ * consumer actor commits them itself once the stage requested to commit all records delivered before them.
+ *
+ * Not thread-safe, must only be used from within the actor.
+ */
+@InternalApi
+private[kafka] final class FilteredOffsets {
+  import FilteredOffsets._
+
+  private val partitions = new java.util.HashMap[TopicPartition, Position]()
+
+  def isEmpty: Boolean = partitions.isEmpty
+
+  /** The selection of a committable source selected `selected` from the records of `chunk`. */
+  def selected(tp: TopicPartition,
+               chunk: java.util.List[_ <: ConsumerRecord[_, _]],
+               selected: java.util.List[_ <: ConsumerRecord[_, _]]): Unit =
+    if (!chunk.isEmpty) {
+      var position = partitions.get(tp)
+      if (position == null) {
+        position = new Position
+        partitions.put(tp, position)
+      }
+      if (!selected.isEmpty) position.delivered = selected.get(selected.size - 1).offset + 1
+      val next = chunk.get(chunk.size - 1).offset + 1
+      if (next > position.delivered) position.filtered = next
+    }
+
+  /** The stage requested to commit the partition up to the offset. */
+  def commitRequested(tp: TopicPartition, offset: OffsetAndMetadata): Unit = {
+    val position = partitions.get(tp)
+    if (position != null && offset.offset > position.committed) {
+      position.committed = offset.offset
+      position.metadata = offset.metadata
+    }
+  }
+
+  /**
+   * The offset after the filtered records of the partition if all records delivered before them were requested to
+   * be committed, `null` otherwise. The offset counts as requested to be committed afterwards.
+   */
+  def committable(tp: TopicPartition): OffsetAndMetadata = {
+    val position = partitions.get(tp)
+    if (position == null || position.filtered <= position.committed || position.committed < position.delivered) null
+    else {
+      position.committed = position.filtered
+      new OffsetAndMetadata(position.filtered, position.metadata)
+    }
+  }
+
+  def drop(tps: Iterable[TopicPartition]): Unit =
+    tps.foreach(tp => partitions.remove(tp))
+}
+
+/** Internal API */
+@InternalApi
+private[kafka] object FilteredOffsets {
+
+  /** Offsets are those of the record after, `-1` while unknown. */
+  private final class Position {
+    var delivered = -1L
+    var filtered = -1L
+    var committed = -1L
+    var metadata = ""
+  }
+}
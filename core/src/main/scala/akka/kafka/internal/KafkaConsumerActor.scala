@@ -22,6 +22,7 @@ import akka.actor.{
   Timers
 }
 import akka.annotation.InternalApi
+import akka.dispatch.ControlMessage
 import akka.util.JavaDurationConverters._
 import akka.event.LoggingReceive
 import akka.kafka.KafkaConsumerActor.{StopLike, StoppingException}
@@ -32,6 +33,7 @@ import org.apache.kafka.clients.consumer._
 import org.apache.kafka.common.errors.RebalanceInProgressException
 import org.apache.kafka.common.{Metric, MetricName, TopicPartition}
 
+import scala.collection.immutable
 import scala.jdk.CollectionConverters._
 import scala.concurrent.{ExecutionContext, Future}
 import scala.concurrent.duration._
@@ -60,7 +62,21 @@ import scala.util.control.NonFatal
         extends SubscriptionRequest
     final case class RegisterSubStage(tps: Set[TopicPartition]) extends NoSerializationVerificationNeeded
     final case class Seek(tps: Map[TopicPartition, Long]) extends NoSerializationVerificationNeeded
-    final case class RequestMessages(requestId: Int, tps: Set[TopicPartition]) extends NoSerializationVerificationNeeded
+
+    /**
+     * Demand for records from `tps`. The reply holds at most `maxRecords` records and about `maxBytes` serialized
+     * bytes (also limited by `max-buffered-bytes`), records polled beyond that are kept for the next request.
+     *
+     * @param selection applied to the records before they are delivered, with the stage's key and value types
+     * @param commitFiltered commit the offsets of records filtered by the selection (see [[FilteredOffsets]])
+     */
+    final case class RequestMessages(requestId: Int,
+                                     tps: Set[TopicPartition],
+                                     maxRecords: Int = Int.MaxValue,
+                                     maxBytes: Long = Long.MaxValue,
+                                     selection: Option[RecordSelection[_, _]] = None,
+                                     commitFiltered: Boolean = false)
+        extends NoSerializationVerificationNeeded
     val Stop = akka.kafka.KafkaConsumerActor.Stop
     final case class StopFromStage(stageId: String) extends StopLike
     final case class Commit(tp: TopicPartition, offsetAndMetadata: OffsetAndMetadata)
@@ -68,25 +84,49 @@ import scala.util.control.NonFatal
     final case class CommitWithoutReply(tp: TopicPartition, offsetAndMetadata: OffsetAndMetadata, emergency: Boolean)
         extends NoSerializationVerificationNeeded
 
+    /**
+     * Get the offsets up to which records of the partitions were handed to stages, i.e. the consumer's position or
+     * the offset of the first record kept for a later request.
+     */
+    final case class GetDeliveredPositions(tps: Set[TopicPartition]) extends NoSerializationVerificationNeeded
+    final case class DeliveredPositions(positions: Try[Map[TopicPartition, Long]])
+        extends NoSerializationVerificationNeeded
+
     /** Special case commit for non-batched committing. */
     final case class CommitSingle(tp: TopicPartition, offsetAndMetadata: OffsetAndMetadata)
         extends NoSerializationVerificationNeeded
     //responses
     final case class Assigned(partition: List[TopicPartition]) extends NoSerializationVerificationNeeded
     final case class Revoked(partition: List[TopicPartition]) extends NoSerializationVerificationNeeded
-    final case class Messages[K, V](requestId: Int, messages: Iterator[ConsumerRecord[K, V]])
+
+    /**
+     * Records polled for a `RequestMessages`, each chunk holds the records of one partition as returned by
+     * `ConsumerRecords.records(tp)` and must not be mutated.
+     */
+    final case class Messages[K, V](requestId: Int, chunks: immutable.Seq[java.util.List[ConsumerRecord[K, V]]])
         extends NoSerializationVerificationNeeded
     final case class ConsumerMetrics(metrics: Map[MetricName, Metric]) extends NoSerializationVerificationNeeded {
       def getMetrics: java.util.Map[MetricName, Metric] = metrics.asJava
     }
     //internal
+    /**
+     * A `ControlMessage` so that a control-aware mailbox (as configured for `akka.kafka.pinned-consumer-dispatcher`)
+     * handles polls before queued commits and requests.
+     *
+     * @param periodic the regular poll, scheduled again when handled
+     * @param requested the poll sent by `requestDelayedPoll`, another one may be requested once it is handled
+     */
     private[KafkaConsumerActor] final case class Poll[K, V](
         target: KafkaConsumerActor[K, V],
-        periodic: Boolean
+        periodic: Boolean,
+        requested: Boolean = false
     ) extends DeadLetterSuppression
+        with ControlMessage
         with NoSerializationVerificationNeeded
 
     private[KafkaConsumerActor] case object PollTask
+    private[KafkaConsumerActor] case object CommitPollTask
+    private[KafkaConsumerActor] case object DelayedResumeTask
 
     private val number = new AtomicInteger()
     def nextNumber(): Int =
@@ -153,18 +193,76 @@ import scala.util.control.NonFatal
     }
   }
 
-  private val oneMilli = java.time.Duration.ofMillis(1)
+  private[internal] trait PollScheduling {
 
-  /**
-   * Create map with just the highest received offsets.
-   */
-  private[internal] def aggregateOffsets(cm: List[(TopicPartition, OffsetAndMetadata)]) =
-    cm.foldLeft(Map.empty[TopicPartition, OffsetAndMetadata]) { (aggregate, add) =>
-      val (tp, toBeAdded) = add
-      if (aggregate.get(tp).exists(_.offset > toBeAdded.offset))
-        aggregate
-      else aggregate + add
+    /** The interval until the next scheduled poll. */
+    def currentInterval: FiniteDuration
+
+    /**
+     * Register the outcome of a poll.
+     *
+     * @return `true` if the next poll should happen right away
+     */
+    def polled(recordCount: Int, demand: Boolean, commitsPending: Boolean): Boolean
+
+    /**
+     * Return to the configured poll interval, e.g. when commits need polls to complete.
+     *
+     * @return `true` if the interval got shorter
+     */
+    def reset(): Boolean
+  }
+
+  private[internal] object PollScheduling {
+    def apply(pollInterval: FiniteDuration, maxPollRecords: Int, adaptive: AdaptivePollSettings): PollScheduling =
+      if (adaptive.enable) new Adaptive(pollInterval, maxPollRecords, adaptive)
+      else new Fixed(pollInterval)
+
+    private final class Fixed(override val currentInterval: FiniteDuration) extends PollScheduling {
+      override def polled(recordCount: Int, demand: Boolean, commitsPending: Boolean): Boolean = false
+      override def reset(): Boolean = false
+    }
+
+    /**
+     * Polls back-to-back while full batches arrive and messages are requested, and backs off exponentially
+     * while no records arrive. Pending commits keep the base interval as their completion is driven by polling.
+     */
+    private final class Adaptive(pollInterval: FiniteDuration, maxPollRecords: Int, settings: AdaptivePollSettings)
+        extends PollScheduling {
+      private val maxInterval = settings.maxInterval.max(pollInterval)
+      private var interval = pollInterval
+
+      override def currentInterval: FiniteDuration = interval
+
+      override def polled(recordCount: Int, demand: Boolean, commitsPending: Boolean): Boolean =
+        if (recordCount == 0 && !commitsPending) {
+          val next = interval * settings.backoffFactor
+          interval = next match {
+            case finite: FiniteDuration if finite < maxInterval => finite
+            case _ => maxInterval
+          }
+          false
+        } else {
+          interval = pollInterval
+          demand && recordCount >= maxPollRecords
+        }
+
+      override def reset(): Boolean =
+        if (interval > pollInterval) {
+          interval = pollInterval
+          true
+        } else false
     }
+  }
+
+  /** Chunks collected for a stage's request while processing a poll result, in reverse order. */
+  private final class StageDelivery[K, V](val credit: PrefetchBuffers.Credit,
+                                          val selection: RecordSelection[K, V],
+                                          val commitFiltered: Boolean) {
+    var chunks: List[java.util.List[ConsumerRecord[K, V]]] = Nil
+  }
+
+  private val oneMilli = java.time.Duration.ofMillis(1)
 }
 
 /**
@@ -182,7 +280,9 @@ import scala.util.control.NonFatal
   import KafkaConsumerActor._
 
   private val pollMsg = Poll(this, periodic = true)
-  private val delayedPollMsg = Poll(this, periodic = false)
+  private val delayedPollMsg = Poll(this, periodic = false, requested = true)
+  /** Sent by the timers polling for commits in flight and held back records. */
+  private val timerPollMsg = Poll(this, periodic = false)
 
   private var settings: ConsumerSettings[K, V] = _
   private var pollTimeout: java.time.Duration = _
@@ -195,6 +295,9 @@ import scala.util.control.NonFatal
 
   private var requests = Map.empty[ActorRef, RequestMessages]
 
+  /** Assigned and requested partitions, kept in sync with `requests` and the rebalance callbacks. */
+  private val assignmentIndex = new AssignmentIndex
+
   /** ActorRefs of all stages that sent subscriptions requests or `RegisterSubStage` to this actor (removed on their termination). */
   private var stageActorsMap = Map.empty[Set[TopicPartition], ActorRef]
   private var consumer: Consumer[K, V] = _
@@ -204,15 +307,47 @@ import scala.util.control.NonFatal
   private var stopInProgress = false
 
   /**
-   * Collect commit offset maps until the next poll.
+   * Collect the highest offsets to commit per partition until the next poll.
    */
-  private var commitMaps = List.empty[(TopicPartition, OffsetAndMetadata)]
+  private val pendingCommits = new PendingCommitOffsets
+  private val filteredOffsets = new FilteredOffsets
 
   /**
    * Keeps commit senders that need a reply once stashed commits are made.
    */
   private var commitSenders = Vector.empty[ActorRef]
 
+  private var pollScheduling: PollScheduling = _
+
+  /**
+   * Records fetched ahead of demand, when enabled via `prefetch-records-per-partition`, and records polled beyond
+   * the credit of a request.
+   */
+  private var prefetchEnabled = false
+  private var prefetchBuffers: PrefetchBuffers[K, V] = _
+  private var maxBufferedBytes = Long.MaxValue
+  private var dispatchQuantum = Int.MaxValue
+
+  private var commitSpinPolls = 0
+  private var commitParkNanos = 0L
+  private var commitFollowUpInterval: FiniteDuration = Duration.Zero
+
+  /** Processing delays per topic in milliseconds, empty unless delayed consumption is used. */
+  private var processingDelays = Map.empty[String, Long]
+
+  /** Partitions kept paused until their next record is due, with the epoch millis it is due at. */
+  private val delayedPartitions = new java.util.HashMap[TopicPartition, java.lang.Long]()
+
+  private val demandedAndDue: TopicPartition => Boolean = tp =>
+    assignmentIndex.isDemanded(tp) && !delayedPartitions.containsKey(tp)
+
+  /** Time from `commitAsync` to its callback. */
+  private val commitLatency = new ConsumerActorMetrics.LatencyHistogram
+
+  /** Delivery metrics per stage sending `RequestMessages`. */
+  private val stageStats = new java.util.HashMap[ActorRef, ConsumerActorMetrics.StageStats]()
+  private var metricTags: java.util.Map[String, String] = _
+
   private var delayedPollInFlight = false
   private var partitionAssignmentHandler: RebalanceListener = RebalanceListener.Empty
   private var progressTracker: ConsumerProgressTracking = ConsumerProgressTrackerNoop
@@ -221,19 +356,19 @@ import scala.util.control.NonFatal
 
   def regularReceive: Receive = LoggingReceive {
     case Commit(tp, offset) =>
-      // prepending, as later received offsets most likely are higher
-      commitMaps = tp -> offset :: commitMaps
+      addPendingCommit(tp, offset)
       commitSenders = commitSenders :+ sender()
+      if (pollScheduling.reset()) schedulePollTask()
 
     case CommitWithoutReply(tp, offset, emergency) =>
-      // prepending, as later received offsets most likely are higher
-      commitMaps = tp -> offset :: commitMaps
+      addPendingCommit(tp, offset)
       if (emergency) {
         emergencyPoll()
       }
+      if (pollScheduling.reset()) schedulePollTask()
 
     case CommitSingle(tp, offset) =>
-      commitMaps = tp -> offset :: commitMaps
+      addPendingCommit(tp, offset)
       commitSenders = commitSenders :+ sender()
       requestDelayedPoll()
 
@@ -246,6 +381,10 @@ import scala.util.control.NonFatal
     case Seek(offsets) =>
       try {
         offsets.foreach { case (tp, offset) => consumer.seek(tp, offset) }
+        prefetchBuffers.drop(offsets.keys)
+        filteredOffsets.drop(offsets.keys)
+        offsets.keys.foreach(tp => delayedPartitions.remove(tp))
+        offsets.keys.foreach(assignmentIndex.touch)
         sender() ! Done
       } catch {
         case NonFatal(e) => sendFailure(e, sender())
@@ -259,7 +398,8 @@ import scala.util.control.NonFatal
       checkOverlappingRequests("RequestMessages", sender(), req.tps)
       // https://github.com/akka/alpakka-kafka/pull/1263
       if (stageActorsMap.getOrElse(req.tps, sender()) == sender())
-        requests = requests.updated(sender(), req)
+        addRequest(sender(), req)
+      deliverPrefetched()
       if (stageActorsMap.size == 1)
         poll()
       else requestDelayedPoll()
@@ -280,17 +420,21 @@ import scala.util.control.NonFatal
       processErrors(kcf)
       self ! Stop
 
+    case GetDeliveredPositions(tps) =>
+      sender() ! DeliveredPositions(Try(tps.iterator.map(tp => tp -> deliveredPosition(tp)).toMap))
+
     case RequestMetrics =>
       try {
         val unmodifiableYetMutableMetrics: java.util.Map[MetricName, _ <: Metric] = consumer.metrics()
-        sender() ! ConsumerMetrics(unmodifiableYetMutableMetrics.asScala.toMap)
+        sender() ! ConsumerMetrics(unmodifiableYetMutableMetrics.asScala.toMap ++ actorMetrics())
       } catch {
         case NonFatal(e) => sendFailure(e, sender())
       }
 
     case Terminated(ref) =>
       stageActorsMap = stageActorsMap.filterNot(_._2 == ref)
-      requests -= ref
+      removeRequest(ref)
+      stageStats.remove(ref)
 
     case req: Metadata.Request =>
       sender() ! handleMetadataRequest(req)
@@ -320,12 +464,14 @@ import scala.util.control.NonFatal
           checkOverlappingRequests("Assign", sender(), assignedTps)
           val previousAssigned = consumer.assignment()
           consumer.assign((assignedTps.toSeq ++ previousAssigned.asScala).asJava)
+          assignmentIndex.assignmentChanged(consumer.assignment())
           progressTracker.assignedPositionsAndSeek(assignedTps, consumer, positionTimeout)
 
         case AssignWithOffset(assignedOffsets) =>
           checkOverlappingRequests("AssignWithOffset", sender(), assignedOffsets.keySet)
           val previousAssigned = consumer.assignment()
           consumer.assign((assignedOffsets.keys.toSeq ++ previousAssigned.asScala).asJava)
+          assignmentIndex.assignmentChanged(consumer.assignment())
           assignedOffsets.foreach {
             case (tp, offset) =>
               consumer.seek(tp, offset)
@@ -336,6 +482,7 @@ import scala.util.control.NonFatal
           checkOverlappingRequests("AssignOffsetsForTimes", sender(), timestampsToSearch.keySet)
           val previousAssigned = consumer.assignment()
           consumer.assign((timestampsToSearch.keys.toSeq ++ previousAssigned.asScala).asJava)
+          assignmentIndex.assignmentChanged(consumer.assignment())
           val topicPartitionToOffsetAndTimestamp =
             consumer.offsetsForTimes(timestampsToSearch.map { case (k, v) => (k, long2Long(v)) }.toMap.asJava,
                                      offsetForTimesTimeout)
@@ -360,6 +507,7 @@ import scala.util.control.NonFatal
           consumer.subscribe(Pattern.compile(pattern), callback)
 
       }
+      assignmentIndex.requireFullSync()
       scheduleFirstPollTask()
       stageActorsMap = stageActorsMap.updated(consumer.assignment().asScala.toSet, sender())
     } catch {
@@ -373,8 +521,8 @@ import scala.util.control.NonFatal
       case (ref, r) =>
         if (ref != fromStage && r.tps.exists(topics.apply)) {
           log.warning("{} from topic/partition {} already requested by other stage {}", updateType, topics, r.tps)
-          ref ! Messages(r.requestId, Iterator.empty)
-          requests -= ref
+          ref ! Messages(r.requestId, Nil)
+          removeRequest(ref)
         }
     }
 
@@ -414,13 +562,24 @@ import scala.util.control.NonFatal
     pollTimeout = settings.pollTimeout.asJava
     offsetForTimesTimeout = settings.getOffsetForTimesTimeout
     positionTimeout = settings.getPositionTimeout
+    pollScheduling = PollScheduling(settings.pollInterval, maxPollRecords(settings), settings.adaptivePollSettings)
+    metricTags = ConsumerActorMetrics.tags(settings)
+    prefetchEnabled = settings.prefetchRecordsPerPartition > 0
+    prefetchBuffers =
+      new PrefetchBuffers[K, V](settings.prefetchRecordsPerPartition, settings.prefetchBytesPerPartition)
+    maxBufferedBytes = if (settings.maxBufferedBytes > 0) settings.maxBufferedBytes else Long.MaxValue
+    dispatchQuantum = if (settings.dispatchQuantum > 0) settings.dispatchQuantum else Int.MaxValue
+    commitSpinPolls = settings.commitPollingSettings.spinPolls
+    commitParkNanos = settings.commitPollingSettings.parkTime.toNanos
+    commitFollowUpInterval = settings.commitPollingSettings.followUpInterval
+    processingDelays = settings.processingDelays.map { case (topic, delay) => topic -> delay.toMillis }
     val progressTrackingFactory: () => ConsumerProgressTracking = ensureProgressTracker
     commitRefreshing = CommitRefreshing(settings.commitRefreshInterval, progressTrackingFactory)
     resetProtection = ConsumerResetProtection(log, settings.resetProtectionSettings, progressTrackingFactory)
     try {
       if (log.isDebugEnabled)
         log.debug(s"Creating Kafka consumer with ${settings.toString}")
-      consumer = settings.consumerFactory.apply(settings)
+      consumer = settings.consumerFactory.apply(settings.consumerCreationSettings)
       context.become(regularReceive)
       unstashAll()
     } catch {
@@ -430,6 +589,12 @@ import scala.util.control.NonFatal
     }
   }
 
+  private def maxPollRecords(settings: ConsumerSettings[K, V]): Int =
+    settings.properties
+      .get(ConsumerConfig.MAX_POLL_RECORDS_CONFIG)
+      .flatMap(s => Try(s.trim.toInt).toOption)
+      .getOrElse(ConsumerConfig.DEFAULT_MAX_POLL_RECORDS)
+
   private def ensureProgressTracker(): ConsumerProgressTracking = {
     if (progressTracker == ConsumerProgressTrackerNoop) {
       progressTracker = new ConsumerProgressTrackerImpl()
@@ -441,7 +606,7 @@ import scala.util.control.NonFatal
     // reply to outstanding requests is important if the actor is restarted
     requests.foreach {
       case (ref, req) =>
-        ref ! Messages(req.requestId, Iterator.empty)
+        ref ! Messages(req.requestId, Nil)
     }
     partitionAssignmentHandler.postStop()
     consumer.close(settings.getCloseTimeout)
@@ -452,7 +617,7 @@ import scala.util.control.NonFatal
     if (!timers.isTimerActive(PollTask)) schedulePollTask()
 
   def schedulePollTask(): Unit =
-    timers.startSingleTimer(PollTask, pollMsg, settings.pollInterval)
+    timers.startSingleTimer(PollTask, pollMsg, pollScheduling.currentInterval)
 
   /**
    * Sends an extra `Poll(periodic=false)` request to self.
@@ -477,7 +642,7 @@ import scala.util.control.NonFatal
       commitAndPoll()
       if (p.periodic)
         schedulePollTask()
-      else
+      else if (p.requested)
         delayedPollInFlight = false
     } else {
       // Message was enqueued before a restart - can be ignored
@@ -495,36 +660,25 @@ import scala.util.control.NonFatal
 
   def poll(): Unit = {
     try {
-      val currentAssignmentsJava = consumer.assignment()
       commitAggregatedOffsets()
-      if (requests.isEmpty) {
+      resumeDuePartitions()
+      if (prefetchEnabled) {
+        pollWithPrefetch()
+      } else if (requests.isEmpty) {
         // no outstanding requests so we don't expect any messages back, but we should anyway
         // drive the KafkaConsumer by polling
         def checkNoResult(rawResult: ConsumerRecords[K, V]): Unit =
           if (!rawResult.isEmpty)
             throw new IllegalStateException(s"Got ${rawResult.count} unexpected messages")
-        consumer.pause(currentAssignmentsJava)
+        assignmentIndex.sync(consumer, demandedAndDue)
         checkNoResult(consumer.poll(java.time.Duration.ZERO))
-
-        // COMMIT PERFORMANCE OPTIMIZATION
-        // For commits we try to avoid blocking poll because a commit normally succeeds after a few
-        // poll(0). Using poll(1) will always block for 1 ms, since there are no messages.
-        // Therefore we do 10 poll(0) with short 10 μs delay followed by 1 poll(1).
-        // If it's still not completed it will be tried again after the scheduled Poll.
-        var i = 10
-        while (i > 0 && commitsInProgress > 0) {
-          LockSupport.parkNanos(10 * 1000)
-          val pollTimeout = if (i == 1) oneMilli else java.time.Duration.ZERO
-          checkNoResult(consumer.poll(pollTimeout))
-          i -= 1
-        }
+        spinForCommits(continue = true)(timeout => checkNoResult(consumer.poll(timeout)))
       } else {
-        // resume partitions to fetch
-        val partitionsToFetch: Set[TopicPartition] = requests.values.flatMap(_.tps).toSet
-        val (resumeThese, pauseThese) = currentAssignmentsJava.asScala.partition(partitionsToFetch.contains)
-        consumer.pause(pauseThese.asJava)
-        consumer.resume(resumeThese.asJava)
-        processResult(partitionsToFetch, consumer.poll(pollTimeout))
+        // resume requested partitions and pause the others, for those whose demand changed
+        assignmentIndex.sync(consumer, demandedAndDue)
+        val rawResult = holdBackUndue(consumer.poll(pollTimeout))
+        processResult(rawResult)
+        adaptPollInterval(rawResult.count())
       }
     } catch {
       case e: org.apache.kafka.common.errors.SerializationException =>
@@ -538,24 +692,236 @@ import scala.util.control.NonFatal
     if (stopInProgress && commitsInProgress == 0) {
       log.debug("Stopping")
       context.stop(self)
+    } else {
+      scheduleCommitFollowUp()
+      scheduleDelayedResume()
     }
   }
 
-  private def commitAggregatedOffsets(): Unit = if (commitMaps.nonEmpty) {
-    val aggregatedOffsets = aggregateOffsets(commitMaps)
+  /**
+   * COMMIT PERFORMANCE OPTIMIZATION
+   * For commits we try to avoid blocking poll because a commit normally succeeds after a few
+   * poll(0). Using poll(1) will always block for 1 ms, since there are no messages.
+   * Therefore we do `spin-polls` poll(0) with a short `park-time` delay, the last one as poll(1).
+   * If it's still not completed it will be tried again after the scheduled or follow-up Poll.
+   */
+  private def spinForCommits(continue: => Boolean)(pollOnce: java.time.Duration => Unit): Unit = {
+    var i = commitSpinPolls
+    while (i > 0 && commitsInProgress > 0 && continue) {
+      if (commitParkNanos > 0) LockSupport.parkNanos(commitParkNanos)
+      pollOnce(if (i == 1) oneMilli else java.time.Duration.ZERO)
+      i -= 1
+    }
+  }
+
+  /**
+   * Poll again shortly while commits are in flight, as commits only complete within `poll`.
+   */
+  private def scheduleCommitFollowUp(): Unit =
+    if (commitFollowUpInterval > Duration.Zero && commitsInProgress > 0 && !timers.isTimerActive(CommitPollTask))
+      timers.startSingleTimer(CommitPollTask, timerPollMsg, commitFollowUpInterval)
+
+  /**
+   * Fetch all partitions which have room in their prefetch buffer, independent of the demand. Partitions
+   * are paused only when their buffer is full, so that the `pause`/`resume` calls are limited to partitions
+   * changing between full and not full.
+   */
+  private def pollWithPrefetch(): Unit = {
+    def syncFetching(): Unit =
+      assignmentIndex.sync(consumer, tp => !prefetchBuffers.isFull(tp) && !delayedPartitions.containsKey(tp))
+
+    def bufferResult(polled: ConsumerRecords[K, V]): Unit = {
+      val rawResult = holdBackUndue(polled)
+      if (!rawResult.isEmpty) {
+        val safeRecords = resetProtection.protect(self, rawResult)
+        progressTracker.received(safeRecords)
+        safeRecords.partitions().asScala.foreach { tp =>
+          prefetchBuffers.add(tp, safeRecords.records(tp))
+          assignmentIndex.touch(tp)
+        }
+      }
+    }
+
+    // do not block the actor while nobody waits for messages
+    syncFetching()
+    val rawResult = consumer.poll(if (requests.isEmpty) java.time.Duration.ZERO else pollTimeout)
+    bufferResult(rawResult)
+    deliverPrefetched()
+    // drive in-flight commits like the non-prefetching poll does, pausing the partitions which were held back
+    // or filled their buffer with the previous poll
+    spinForCommits(continue = requests.isEmpty) { timeout =>
+      syncFetching()
+      bufferResult(consumer.poll(timeout))
+    }
+    adaptPollInterval(rawResult.count())
+  }
+
+  /**
+   * DELAYED CONSUMPTION
+   * Cut the records of partitions with a processing delay off at the first record which is not due yet, seek back
+   * to it and keep the partition paused until it is due. The records from there on are fetched again once the
+   * partition is resumed, so that records which are not due are neither delivered nor buffered.
+   */
+  private def holdBackUndue(rawResult: ConsumerRecords[K, V]): ConsumerRecords[K, V] =
+    if (processingDelays.isEmpty || rawResult.isEmpty) rawResult
+    else {
+      val now = System.currentTimeMillis()
+      val due = new java.util.HashMap[TopicPartition, java.util.List[ConsumerRecord[K, V]]]()
+      var heldBack = false
+      rawResult.partitions().forEach { tp =>
+        val records = rawResult.records(tp)
+        val delay = processingDelays.getOrElse(tp.topic, 0L)
+        var i = if (delay > 0) 0 else records.size
+        while (i < records.size && records.get(i).timestamp + delay <= now) i += 1
+        if (i < records.size) {
+          heldBack = true
+          val head = records.get(i)
+          consumer.seek(tp, head.offset)
+          delayedPartitions.put(tp, head.timestamp + delay)
+          assignmentIndex.touch(tp)
+          if (i > 0) due.put(tp, records.subList(0, i))
+        } else due.put(tp, records)
+      }
+      if (heldBack) new ConsumerRecords[K, V](due) else rawResult
+    }
+
+  /** Resume the partitions whose next record became due. */
+  private def resumeDuePartitions(): Unit =
+    if (!delayedPartitions.isEmpty) {
+      val now = System.currentTimeMillis()
+      delayedPartitions.entrySet().removeIf { entry =>
+        val isDue = entry.getValue <= now
+        if (isDue) assignmentIndex.touch(entry.getKey)
+        isDue
+      }
+    }
+
+  /** Poll when the next held back record becomes due. */
+  private def scheduleDelayedResume(): Unit =
+    if (!delayedPartitions.isEmpty) {
+      var dueAt = Long.MaxValue
+      delayedPartitions.values().forEach(at => if (at < dueAt) dueAt = at)
+      val delay = (dueAt - System.currentTimeMillis()).max(0L)
+      timers.startSingleTimer(DelayedResumeTask, timerPollMsg, delay.millis)
+    } else timers.cancel(DelayedResumeTask)
+
+  /**
+   * Answer outstanding requests from the prefetch buffers, within the requests' credits.
+   */
+  private def deliverPrefetched(): Unit =
+    if (!prefetchBuffers.isEmpty) requests.foreach {
+      case (stageActorRef, req) =>
+        if (req.tps.exists(prefetchBuffers.nonEmpty)) {
+          val selection = selectionFor(req)
+          val b = Vector.newBuilder[java.util.List[ConsumerRecord[K, V]]]
+          val credit = creditFor(req)
+          req.tps.foreach { tp =>
+            if (selection == null) prefetchBuffers.drainTo(tp, b, credit)
+            else {
+              // filtered records are given back to the credit, so drain on while the credit allows for more
+              while (!credit.exhausted && prefetchBuffers.nonEmpty(tp)) {
+                val drained = Vector.newBuilder[java.util.List[ConsumerRecord[K, V]]]
+                prefetchBuffers.drainTo(tp, drained, credit)
+                drained.result().foreach { chunk =>
+                  val selected = select(selection, req.commitFiltered, tp, chunk, credit)
+                  if (!selected.isEmpty) b += selected
+                }
+              }
+            }
+            assignmentIndex.touch(tp)
+          }
+          // a request stays pending if all its records were filtered by its selection
+          val chunks = b.result()
+          if (chunks.nonEmpty) deliver(stageActorRef, req, chunks)
+        }
+    }
+
+  private def adaptPollInterval(recordCount: Int): Unit = {
+    val previousInterval = pollScheduling.currentInterval
+    val pollImmediately =
+      pollScheduling.polled(recordCount, requests.nonEmpty, commitsInProgress > 0 || pendingCommits.nonEmpty)
+    if (pollImmediately) requestDelayedPoll()
+    // bring the scheduled poll forward when traffic picked up again
+    else if (pollScheduling.currentInterval < previousInterval && timers.isTimerActive(PollTask)) schedulePollTask()
+  }
+
+  private def actorMetrics(): Map[MetricName, Metric] = {
+    var metrics = Map(
+      ConsumerActorMetrics.snapshot("poll-interval-ms",
+                                    "The current interval between scheduled polls in milliseconds",
+                                    metricTags,
+                                    pollScheduling.currentInterval.toMillis)
+    )
+    metrics ++= ConsumerActorMetrics.latencyMetrics("commit-rtt",
+                                                   "commit round trips from `commitAsync` to its callback",
+                                                   commitLatency,
+                                                   metricTags)
+    stageStats.forEach { (stageActorRef, stats) =>
+      metrics ++= ConsumerActorMetrics.stageMetrics(stageActorRef.path.name, stats, metricTags)
+    }
+    metrics
+  }
+
+  /** Queue the offset for the next commit, up to the filtered records after it if they become committable. */
+  private def addPendingCommit(tp: TopicPartition, offset: OffsetAndMetadata): Unit = {
+    pendingCommits.add(tp, offset)
+    if (!filteredOffsets.isEmpty) {
+      filteredOffsets.commitRequested(tp, offset)
+      commitFilteredOffset(tp)
+    }
+  }
+
+  private def commitFilteredOffset(tp: TopicPartition): Unit = {
+    val offset = filteredOffsets.committable(tp)
+    if (offset != null) pendingCommits.add(tp, offset)
+  }
+
+  private def commitAggregatedOffsets(): Unit = if (pendingCommits.nonEmpty) {
+    // flush the data before calling `consumer.commitAsync` which might call the callback synchronously
+    val aggregatedOffsets = pendingCommits.drain()
     // commits can occur after the partition has been revoked from the consumer, so ensure that we only attempt to
     // commit partitions that are currently assigned to the consumer. For high volume topics, this can lead to small
     // amounts of replayed data during a rebalance, but for low volume topics we can ensure that consumers never appear
     // 'stuck' because of out-of-order commits from slow consumers.
-    val assignedOffsetsToCommit = aggregatedOffsets.filterKeys(consumer.assignment().contains).toMap
+    aggregatedOffsets.keySet.removeIf(tp => !assignmentIndex.isAssigned(tp))
+    val assignedOffsetsToCommit = aggregatedOffsets.asScala.toMap
     progressTracker.commitRequested(assignedOffsetsToCommit)
     val replyTo = commitSenders
-    // flush the data before calling `consumer.commitAsync` which might call the callback synchronously
-    commitMaps = List.empty
     commitSenders = Vector.empty
     commit(assignedOffsetsToCommit, replyTo)
   }
 
+  /**
+   * Commit the pending offsets with `commitSync` while the partitions about to be revoked are still assigned, as
+   * `commitAggregatedOffsets` drops their offsets afterwards. If the commit fails, the offsets are left to
+   * `commitAggregatedOffsets`.
+   */
+  private def commitPendingSync(timeout: java.time.Duration): Unit = if (pendingCommits.nonEmpty) {
+    val aggregatedOffsets = pendingCommits.drain()
+    aggregatedOffsets.keySet.removeIf(tp => !assignmentIndex.isAssigned(tp))
+    val offsetsToCommit = aggregatedOffsets.asScala.toMap
+    val replyTo = commitSenders
+    commitSenders = Vector.empty
+    val startTime = System.nanoTime()
+    try {
+      if (!aggregatedOffsets.isEmpty) {
+        progressTracker.commitRequested(offsetsToCommit)
+        consumer.commitSync(aggregatedOffsets, timeout)
+        commitLatency.record(System.nanoTime() - startTime)
+        commitRefreshing.updateRefreshDeadlines(offsetsToCommit.keySet)
+        progressTracker.committed(aggregatedOffsets)
+      }
+      replyTo.foreach(_ ! Done)
+    } catch {
+      case NonFatal(e) =>
+        log.warning("Kafka commit on revoke failed after={} ms, cause={}",
+                    (System.nanoTime() - startTime) / 1000000L,
+                    e)
+        offsetsToCommit.foreach { case (tp, offset) => pendingCommits.add(tp, offset) }
+        commitSenders = commitSenders ++ replyTo
+    }
+  }
+
   private def commit(commitMap: Map[TopicPartition, OffsetAndMetadata], replyTo: Vector[ActorRef]): Unit = {
     commitRefreshing.updateRefreshDeadlines(commitMap.keySet)
     commitsInProgress += 1
@@ -570,7 +936,7 @@ import scala.util.control.NonFatal
                         duration / 1000000L,
                         commitsInProgress,
                         e.getCause)
-            commitMaps = commitMap.toList ++ commitMaps
+            commitMap.foreach { case (tp, offset) => pendingCommits.add(tp, offset) }
             commitSenders = commitSenders ++ replyTo
             requestDelayedPoll()
           }
@@ -578,6 +944,8 @@ import scala.util.control.NonFatal
           // this is invoked on the thread calling consumer.poll which will always be the actor, so it is safe
           val duration = System.nanoTime() - startTime
           commitsInProgress -= 1
+          commitLatency.record(duration)
+          if (commitsInProgress == 0) timers.cancel(CommitPollTask)
           exception match {
             case null =>
               if (duration > settings.commitTimeWarning.toNanos) {
@@ -604,43 +972,134 @@ import scala.util.control.NonFatal
     )
   }
 
-  private def processResult(partitionsToFetch: Set[TopicPartition], rawResult: ConsumerRecords[K, V]): Unit =
+  private def processResult(rawResult: ConsumerRecords[K, V]): Unit =
     if (!rawResult.isEmpty) {
       //check the we got only requested partitions and did not drop any messages
       val fetchedTps = rawResult.partitions().asScala
-      if ((fetchedTps diff partitionsToFetch).nonEmpty)
+      if (!fetchedTps.forall(assignmentIndex.isDemanded))
         throw new scala.IllegalArgumentException(
-          s"Unexpected records polled. Expected: $partitionsToFetch, " +
+          s"Unexpected records polled. Expected: ${requests.values.flatMap(_.tps).toSet}, " +
           s"result: ${rawResult.partitions()}, consumer assignment: ${consumer.assignment()}"
         )
 
       val safeRecords = resetProtection.protect(self, rawResult)
       progressTracker.received(safeRecords)
 
-      //send messages to actors
-      requests.foreach {
-        case (stageActorRef, req) =>
-          //gather all messages for ref
-          // See https://github.com/akka/alpakka-kafka/issues/978
-          // Temporary fix to avoid https://github.com/scala/bug/issues/11807
-          // Using `VectorIterator` avoids the error from `ConcatIterator`
-          val b = Vector.newBuilder[ConsumerRecord[K, V]]
-          req.tps.foreach { tp =>
-            val tpMessages = safeRecords.records(tp).asScala
-            b ++= tpMessages
+      //gather the records' chunks per requesting stage, visiting only the fetched partitions
+      //the chunks are passed on as they are, without copying the records, unless a request's selection filters or
+      //projects them, records beyond a request's credit are kept as polled and selected when they are delivered
+      val messagesByStage = new java.util.HashMap[ActorRef, StageDelivery[K, V]]()
+      safeRecords.partitions().asScala.foreach { tp =>
+        val tpRecords = safeRecords.records(tp)
+        if (!tpRecords.isEmpty) {
+          val stageActorRef = assignmentIndex.demandedBy(tp)
+          var delivery = messagesByStage.get(stageActorRef)
+          if (delivery == null) {
+            val req = requests(stageActorRef)
+            delivery = new StageDelivery[K, V](creditFor(req), selectionFor(req), req.commitFiltered)
+            messagesByStage.put(stageActorRef, delivery)
           }
-          val messages = b.result().iterator
-          if (messages.nonEmpty) {
-            stageActorRef ! Messages(req.requestId, messages)
-            requests -= stageActorRef
+          var taken = 0
+          while (taken < tpRecords.size && !delivery.credit.exhausted) {
+            val end = PrefetchBuffers.take(tpRecords, taken, delivery.credit)
+            val chunk = if (taken == 0 && end == tpRecords.size) tpRecords else tpRecords.subList(taken, end)
+            val selected = select(delivery.selection, delivery.commitFiltered, tp, chunk, delivery.credit)
+            if (!selected.isEmpty) delivery.chunks ::= selected
+            taken = end
           }
+          if (taken < tpRecords.size) {
+            prefetchBuffers.add(tp, tpRecords.subList(taken, tpRecords.size))
+            assignmentIndex.touch(tp)
+          }
+        }
       }
+
+      //send messages to actors, a request stays pending if all its records were filtered by its selection
+      messagesByStage.forEach { (stageActorRef, delivery) =>
+        if (delivery.chunks.nonEmpty) requests.get(stageActorRef).foreach { req =>
+          deliver(stageActorRef, req, delivery.chunks.reverse)
+        }
+      }
+    }
+
+  private def deliveredPosition(tp: TopicPartition): Long = {
+    val prefetched = prefetchBuffers.firstOffset(tp)
+    if (prefetched >= 0L) prefetched else consumer.position(tp, positionTimeout)
+  }
+
+  private def selectionFor(req: RequestMessages): RecordSelection[K, V] =
+    req.selection.map(_.asInstanceOf[RecordSelection[K, V]]).orNull
+
+  /**
+   * The records of a chunk taken with the credit which the selection selects. The filtered records are given back
+   * to the credit, so that records after them can take their place. With `commitFiltered` the offsets of filtered
+   * records are committed once the stage committed the records delivered before them.
+   */
+  private def select(selection: RecordSelection[K, V],
+                     commitFiltered: Boolean,
+                     tp: TopicPartition,
+                     chunk: java.util.List[ConsumerRecord[K, V]],
+                     credit: PrefetchBuffers.Credit): java.util.List[ConsumerRecord[K, V]] =
+    if (selection == null) chunk
+    else {
+      val selected = selection(chunk)
+      if (commitFiltered) {
+        filteredOffsets.selected(tp, chunk, selected)
+        commitFilteredOffset(tp)
+      }
+      if (selected.size < chunk.size) {
+        credit.records += chunk.size - selected.size
+        // an unlimited byte credit is not charged
+        if (credit.bytes != Long.MaxValue) {
+          var i = 0
+          while (i < chunk.size) {
+            credit.bytes += PrefetchBuffers.serializedSize(chunk.get(i))
+            i += 1
+          }
+          i = 0
+          while (i < selected.size) {
+            credit.bytes -= PrefetchBuffers.serializedSize(selected.get(i))
+            i += 1
+          }
+        }
+      }
+      selected
+    }
+
+  private def creditFor(req: RequestMessages): PrefetchBuffers.Credit =
+    new PrefetchBuffers.Credit(math.min(req.maxRecords, dispatchQuantum), math.min(req.maxBytes, maxBufferedBytes))
+
+  private def deliver(stageActorRef: ActorRef,
+                      req: RequestMessages,
+                      chunks: immutable.Seq[java.util.List[ConsumerRecord[K, V]]]): Unit = {
+    stageActorRef ! Messages(req.requestId, chunks)
+    removeRequest(stageActorRef)
+    val stats = stageStats.get(stageActorRef)
+    if (stats != null) stats.delivered(chunks.foldLeft(0)(_ + _.size), System.nanoTime())
+  }
+
+  private def addRequest(stageActorRef: ActorRef, req: RequestMessages): Unit = {
+    requests.get(stageActorRef).foreach(previous => assignmentIndex.removeDemand(stageActorRef, previous.tps))
+    requests = requests.updated(stageActorRef, req)
+    assignmentIndex.addDemand(stageActorRef, req.tps)
+    var stats = stageStats.get(stageActorRef)
+    if (stats == null) {
+      stats = new ConsumerActorMetrics.StageStats
+      stageStats.put(stageActorRef, stats)
+    }
+    stats.requested(System.nanoTime())
+  }
+
+  private def removeRequest(stageActorRef: ActorRef): Unit =
+    requests.get(stageActorRef).foreach { req =>
+      requests -= stageActorRef
+      assignmentIndex.removeDemand(stageActorRef, req.tps)
     }
 
   private def sendFailure(exception: Throwable, stageActorRef: ActorRef): Unit = {
     stageActorRef ! Failure(exception)
     stageActorsMap = stageActorsMap.filterNot(_._2 == stageActorRef)
-    requests -= stageActorRef
+    removeRequest(stageActorRef)
   }
 
   private def processErrors(exception: Throwable): Unit = {
@@ -764,10 +1223,12 @@ import scala.util.control.NonFatal
 
     private val restrictedConsumer = new RestrictedConsumer(consumer, settings.partitionHandlerWarning.*(0.95d).asJava)
     private val warningDuration = settings.partitionHandlerWarning.toNanos
+    private val commitOnRevokeTimeout = settings.partitionHandlerWarning.*(0.95d).asJava
 
     override def onPartitionsAssigned(partitions: java.util.Collection[TopicPartition]): Unit = {
       consumer.pause(partitions)
       val tps = partitions.asScala.toSet
+      assignmentIndex.assign(tps, paused = true)
       progressTracker.assignedPositionsAndSeek(tps, consumer, positionTimeout)
       val startTime = System.nanoTime()
       partitionAssignmentHandler.onAssign(tps, restrictedConsumer)
@@ -776,10 +1237,15 @@ import scala.util.control.NonFatal
 
     override def onPartitionsRevoked(partitions: java.util.Collection[TopicPartition]): Unit = {
       val revokedTps = partitions.asScala.toSet
+      if (settings.commitOnRevoke) commitPendingSync(commitOnRevokeTimeout)
       val startTime = System.nanoTime()
       partitionAssignmentHandler.onRevoke(revokedTps, restrictedConsumer)
       checkDuration(startTime, "onRevoke")
       progressTracker.revoke(revokedTps)
+      prefetchBuffers.drop(revokedTps)
+      filteredOffsets.drop(revokedTps)
+      revokedTps.foreach(tp => delayedPartitions.remove(tp))
+      assignmentIndex.revoke(revokedTps)
     }
 
     override def onPartitionsLost(partitions: java.util.Collection[TopicPartition]): Unit = {
@@ -788,6 +1254,10 @@ import scala.util.control.NonFatal
       partitionAssignmentHandler.onLost(lostTps, restrictedConsumer)
       checkDuration(startTime, "onLost")
       progressTracker.revoke(lostTps)
+      prefetchBuffers.drop(lostTps)
+      filteredOffsets.drop(lostTps)
+      lostTps.foreach(tp => delayedPartitions.remove(tp))
+      assignmentIndex.revoke(lostTps)
     }
 
     override def postStop(): Unit = {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.annotation.InternalApi
+import akka.dispatch.ExecutionContexts
+import akka.kafka.ConsumerMessage.{CommittableMessage, CommittableOffsetBatch, GroupTopicPartition}
+import akka.stream._
+import akka.stream.stage._
+
+import scala.concurrent.Future
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
+
+/**
+ * INTERNAL API.
+ *
+ * Processes up to `parallelism` messages concurrently while messages with the same record key are processed one
+ * after the other, messages without a key are not ordered. Emits the offsets of the records completed without gaps per
+ * partition as `CommittableOffsetBatch`, offsets released while downstream backpressures are aggregated into the next
+ * batch.
+ */
+@InternalApi
+private[kafka] final class KeyOrderedStage[K, V](parallelism: Int, process: CommittableMessage[K, V] => Future[_])
+    extends GraphStage[FlowShape[CommittableMessage[K, V], CommittableOffsetBatch]] {
+  require(parallelism > 0, "parallelism must be positive")
+
+  val in: Inlet[CommittableMessage[K, V]] = Inlet[CommittableMessage[K, V]]("KeyOrdered.in")
+  val out: Outlet[CommittableOffsetBatch] = Outlet[CommittableOffsetBatch]("KeyOrdered.out")
+  val shape: FlowShape[CommittableMessage[K, V], CommittableOffsetBatch] = FlowShape(in, out)
+
+  override def createLogic(inheritedAttributes: Attributes): GraphStageLogic =
+    new GraphStageLogic(shape) with InHandler with OutHandler {
+
+      private final class Pending(val message: CommittableMessage[K, V], val watermark: OffsetWatermark, val seq: Long)
+
+      /** Messages waiting for an earlier message with the same key, the key is present while one is processed. */
+      private val keyQueues = new java.util.HashMap[Any, java.util.ArrayDeque[Pending]]()
+      /** Partitions with outstanding records or released offsets not yet emitted. */
+      private val watermarks = new java.util.HashMap[GroupTopicPartition, OffsetWatermark]()
+      private val batch = new CommittableOffsetBatchBuilder
+      /** Messages processed or waiting for their key. */
+      private var held = 0
+      private var released = false
+
+      private val completed = getAsyncCallback[(Pending, Try[Any])] {
+        case (pending, Success(_)) =>
+          held -= 1
+          if (pending.watermark.complete(pending.seq)) released = true
+          val key = pending.message.record.key
+          if (key != null) {
+            val next = keyQueues.get(key).poll()
+            if (next == null) keyQueues.remove(key)
+            else start(next)
+          }
+          pushReleased()
+          if (isClosed(in)) completeWhenDone()
+          else if (!hasBeenPulled(in) && held < parallelism) pull(in)
+        case (_, Failure(e)) =>
+          failStage(e)
+      }
+
+      override def onPush(): Unit = {
+        val message = grab(in)
+        val partition = message.committableOffset.partitionOffset.key
+        var watermark = watermarks.get(partition)
+        if (watermark == null) {
+          watermark = new OffsetWatermark(parallelism)
+          watermarks.put(partition, watermark)
+        }
+        val pending = new Pending(message, watermark, watermark.register(message.committableOffset))
+        held += 1
+        val key = message.record.key
+        if (key == null) start(pending)
+        else {
+          val queue = keyQueues.get(key)
+          if (queue == null) {
+            keyQueues.put(key, new java.util.ArrayDeque[Pending]())
+            start(pending)
+          } else queue.add(pending)
+        }
+        if (held < parallelism) pull(in)
+      }
+
+      override def onUpstreamFinish(): Unit = completeWhenDone()
+
+      override def onPull(): Unit = pushReleased()
+
+      override def preStart(): Unit = pull(in)
+
+      private def start(pending: Pending): Unit =
+        try {
+          process(pending.message).onComplete(result => completed.invoke((pending, result)))(
+            ExecutionContexts.parasitic
+          )
+        } catch {
+          case NonFatal(e) => failStage(e)
+        }
+
+      private def pushReleased(): Unit =
+        if (released && isAvailable(out)) push(out, takeReleased())
+
+      private def takeReleased(): CommittableOffsetBatch = {
+        val it = watermarks.values().iterator()
+        while (it.hasNext) {
+          val watermark = it.next()
+          if (watermark.hasReleased) {
+            batch.add(watermark.releasedOffset, watermark.releasedRecords)
+            watermark.clearReleased()
+          }
+          if (watermark.isEmpty) it.remove()
+        }
+        released = false
+        batch.take()
+      }
+
+      private def completeWhenDone(): Unit =
+        if (held == 0) {
+          if (released) emit(out, takeReleased(), () => completeStage())
+          else completeStage()
+        }
+
+      setHandlers(in, out, this)
+    }
+}
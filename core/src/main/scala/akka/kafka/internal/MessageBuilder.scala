@@ -7,6 +7,7 @@ package akka.kafka.internal
 import java.util.concurrent.CompletionStage
 
 import akka.Done
+import akka.actor.ActorRef
 import akka.annotation.InternalApi
 import akka.kafka.ConsumerMessage
 import akka.kafka.ConsumerMessage.{
@@ -21,6 +22,7 @@ import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.requests.OffsetFetchResponse
 
 import scala.collection.compat._
+import scala.collection.immutable
 import scala.compat.java8.FutureConverters.FutureOps
 import scala.concurrent.Future
 import scala.jdk.CollectionConverters._
@@ -37,6 +39,52 @@ private[kafka] trait PlainMessageBuilder[K, V] extends MessageBuilder[K, V, Cons
   override def createMessage(rec: ConsumerRecord[K, V]): ConsumerRecord[K, V] = rec
 }
 
+/** Internal API */
+@InternalApi
+private[kafka] trait BatchMessageBuilder[K, V, Msg] extends MessageBuilder[K, V, Msg] {
+  def createBatchMessage(records: immutable.Seq[ConsumerRecord[K, V]]): Msg
+
+  override def createMessage(rec: ConsumerRecord[K, V]): Msg = createBatchMessage(Vector(rec))
+}
+
+/** Internal API */
+@InternalApi
+private[kafka] trait PlainBatchMessageBuilder[K, V]
+    extends BatchMessageBuilder[K, V, immutable.Seq[ConsumerRecord[K, V]]] {
+  override def createBatchMessage(records: immutable.Seq[ConsumerRecord[K, V]]): immutable.Seq[ConsumerRecord[K, V]] =
+    records
+}
+
+/** Internal API */
+@InternalApi
+private[kafka] trait CommittableBatchMessageBuilder[K, V] extends BatchMessageBuilder[K, V, CommittableMessages[K, V]] {
+  def groupId: String
+  def committer: KafkaAsyncConsumerCommitterRef
+  def metadataFromRecord(record: ConsumerRecord[K, V]): String
+
+  /**
+   * Creates a single offset batch for all records, without creating a committable offset per record.
+   */
+  override def createBatchMessage(records: immutable.Seq[ConsumerRecord[K, V]]): CommittableMessages[K, V] = {
+    var offsets = Map.empty[GroupTopicPartition, OffsetAndMetadata]
+    var committers = Map.empty[GroupTopicPartition, KafkaAsyncConsumerCommitterRef]
+    // records of a partition follow each other in offset order, the last of each run holds the offset to commit
+    var last: ConsumerRecord[K, V] = null
+    def addLast(): Unit =
+      if (last != null) {
+        val key = GroupTopicPartition(groupId, last.topic, last.partition)
+        offsets = offsets.updated(key, new OffsetAndMetadata(last.offset + 1L, metadataFromRecord(last)))
+        committers = committers.updated(key, committer)
+      }
+    records.foreach { rec =>
+      if (last != null && (last.partition != rec.partition || last.topic != rec.topic)) addLast()
+      last = rec
+    }
+    addLast()
+    CommittableMessages(records, new CommittableOffsetBatchImpl(offsets, committers, records.size.toLong))
+  }
+}
+
 /** Internal API */
 @InternalApi
 private[kafka] trait TransactionalMessageBuilderBase[K, V, Msg] extends MessageBuilder[K, V, Msg] {
@@ -173,12 +221,34 @@ private[kafka] final class CommittableOffsetBatchImpl(
     case batch: CommittableOffsetBatch => updatedWithBatch(batch)
   }
 
+  /** A copy of this batch accounting for `batchSize` records. */
+  private[kafka] def withBatchSize(batchSize: Long): CommittableOffsetBatchImpl =
+    new CommittableOffsetBatchImpl(offsetsAndMetadata, committers, batchSize)
+
   private[internal] def committerFor(groupTopicPartition: GroupTopicPartition) =
     committers.getOrElse(
       groupTopicPartition,
       throw new IllegalStateException(s"Unknown committer, got [$groupTopicPartition] (${committers.keys})")
     )
 
+  /**
+   * This batch split into a batch per consumer actor with the consumer actor. Each split batch accounts for
+   * at least one record per partition, the first one for the rest of the batch size.
+   */
+  private[internal] def byConsumer: List[(ActorRef, CommittableOffsetBatchImpl)] = {
+    val consumers = offsetsAndMetadata.keysIterator.map(committerFor(_).consumerActor).toSet
+    if (consumers.size <= 1) List(consumers.headOption.orNull -> this)
+    else {
+      val split = offsetsAndMetadata.groupBy { case (gtp, _) => committerFor(gtp).consumerActor }.toList
+      val rest = (batchSize - offsetsAndMetadata.size).max(0L)
+      split.zipWithIndex.map {
+        case ((consumer, offsets), i) =>
+          val size = offsets.size.toLong + (if (i == 0) rest else 0L)
+          consumer -> new CommittableOffsetBatchImpl(offsets, committers.filter(c => offsets.contains(c._1)), size)
+      }
+    }
+  }
+
   private def updatedWithOffset(newOffset: CommittableOffset): CommittableOffsetBatch = {
     val partitionOffset = newOffset.partitionOffset
     val key = partitionOffset.key
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.annotation.InternalApi
+import akka.kafka.ConsumerMessage.CommittableOffset
+
+/**
+ * Internal API.
+ *
+ * Tracks the records of one partition which complete out of order and releases the offsets up to the first
+ * record still outstanding.
+ *
+ * Records are registered in offset order and identified by a sequence number, as offsets of a partition may have
+ * gaps (compaction, transaction markers). The outstanding records are kept in a ring with a completion bit per slot,
+ * the ring doubles when full.
+ */
+@InternalApi
+private[kafka] final class OffsetWatermark(initialCapacity: Int) {
+  require(initialCapacity > 0, "initialCapacity must be positive")
+
+  private var offsets = new Array[CommittableOffset](initialCapacity)
+  private var completed = new java.util.BitSet(initialCapacity)
+  private var head = 0
+  private var size = 0
+  private var headSeq = 0L
+
+  private var released: CommittableOffset = _
+  private var releasedCount = 0L
+
+  def isEmpty: Boolean = size == 0
+
+  def outstanding: Int = size
+
+  /** Registers the next record of the partition and returns its sequence number. */
+  def register(offset: CommittableOffset): Long = {
+    if (size == offsets.length) grow()
+    offsets((head + size) % offsets.length) = offset
+    size += 1
+    headSeq + size - 1
+  }
+
+  /**
+   * Marks the record as completed and advances the watermark over all leading completed records.
+   *
+   * @return true if the watermark advanced
+   */
+  def complete(seq: Long): Boolean = {
+    val index = seq - headSeq
+    require(index >= 0 && index < size, s"sequence number $seq is not outstanding")
+    completed.set(slot(index.toInt))
+    var advanced = false
+    while (size > 0 && completed.get(head)) {
+      completed.clear(head)
+      released = offsets(head)
+      offsets(head) = null
+      head = (head + 1) % offsets.length
+      headSeq += 1
+      size -= 1
+      releasedCount += 1
+      advanced = true
+    }
+    advanced
+  }
+
+  def hasReleased: Boolean = released != null
+
+  /** The highest offset of the contiguous completed records since the last call to [[clearReleased]]. */
+  def releasedOffset: CommittableOffset = released
+
+  /** The number of records released since the last call to [[clearReleased]]. */
+  def releasedRecords: Long = releasedCount
+
+  def clearReleased(): Unit = {
+    released = null
+    releasedCount = 0L
+  }
+
+  private def slot(index: Int): Int = (head + index) % offsets.length
+
+  private def grow(): Unit = {
+    val capacity = offsets.length * 2
+    val grownOffsets = new Array[CommittableOffset](capacity)
+    val grownCompleted = new java.util.BitSet(capacity)
+    var i = 0
+    while (i < size) {
+      grownOffsets(i) = offsets(slot(i))
+      if (completed.get(slot(i))) grownCompleted.set(i)
+      i += 1
+    }
+    offsets = grownOffsets
+    completed = grownCompleted
+    head = 0
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+import akka.annotation.InternalApi
+import akka.kafka.ConsumerSettings
+import akka.stream.Materializer
+import org.apache.kafka.clients.consumer.{ConsumerConfig, ConsumerRecord}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.errors.RecordDeserializationException
+import org.apache.kafka.common.serialization.Deserializer
+import org.apache.kafka.common.utils.Utils
+
+import scala.concurrent.{ExecutionContext, Future}
+import scala.jdk.CollectionConverters._
+import scala.util.control.NonFatal
+
+/**
+ * Internal API.
+ *
+ * Deserializes the records a consumer actor polled as raw bytes (see `deserialization-parallelism`).
+ *
+ * The records are typed as `ConsumerRecord[K, V]` all the way from the consumer actor, while their keys and values
+ * are byte arrays until deserialized here.
+ *
+ * Deserializers are not required to be thread-safe, so each slice being deserialized takes a key and value
+ * deserializer of its own from the pool. They are configured as class names, instantiated as needed and closed with
+ * `close()`.
+ */
+@InternalApi
+private[kafka] final class ParallelDeserialization[K, V](pool: ParallelDeserialization.Pool[K, V],
+                                                         val parallelism: Int,
+                                                         executionContext: ExecutionContext) {
+  import ParallelDeserialization._
+
+  /** Splits a chunk of raw records into slices to deserialize concurrently. */
+  def slices(records: java.util.List[ConsumerRecord[K, V]]): Iterator[java.util.List[ConsumerRecord[K, V]]] = {
+    val sliceSize = math.max(1, (records.size + parallelism - 1) / parallelism)
+    Iterator
+      .range(0, records.size, sliceSize)
+      .map(from => records.subList(from, math.min(from + sliceSize, records.size)))
+  }
+
+  def deserialize(records: java.util.List[ConsumerRecord[K, V]]): Future[Deserialized[K, V]] =
+    Future(deserializeNow(records))(executionContext)
+
+  /** Deserializes the records up to the first one failing. */
+  def deserializeNow(records: java.util.List[ConsumerRecord[K, V]]): Deserialized[K, V] = {
+    val deserializers = pool.acquire()
+    try deserializers.deserialize(records)
+    finally pool.release(deserializers)
+  }
+
+  /** Closes the deserializers created for the slices, those still in use are closed once released. */
+  def close(): Unit = pool.close()
+}
+
+/** Internal API */
+@InternalApi
+private[kafka] object ParallelDeserialization {
+
+  /** The deserialized records, and the failure of the record after them if deserializing stopped early. */
+  final class Deserialized[K, V](val records: java.util.List[ConsumerRecord[K, V]],
+                                 val failure: RecordDeserializationException)
+
+  /** A key and value deserializer used by one slice at a time. */
+  final class Deserializers[K, V](keyDeserializer: Deserializer[K], valueDeserializer: Deserializer[V]) {
+
+    /** Deserializes the records up to the first one failing. */
+    def deserialize(records: java.util.List[ConsumerRecord[K, V]]): Deserialized[K, V] = {
+      val deserialized = new java.util.ArrayList[ConsumerRecord[K, V]](records.size)
+      var failure: RecordDeserializationException = null
+      var i = 0
+      while (failure == null && i < records.size) {
+        val raw = records.get(i).asInstanceOf[ConsumerRecord[Array[Byte], Array[Byte]]]
+        try {
+          deserialized.add(deserializeRecord(raw))
+        } catch {
+          case NonFatal(e) =>
+            failure = new RecordDeserializationException(
+              new TopicPartition(raw.topic, raw.partition),
+              raw.offset,
+              s"Error deserializing key/value for partition ${raw.topic}-${raw.partition} at offset ${raw.offset}",
+              e
+            )
+        }
+        i += 1
+      }
+      new Deserialized(deserialized, failure)
+    }
+
+    private def deserializeRecord(raw: ConsumerRecord[Array[Byte], Array[Byte]]): ConsumerRecord[K, V] = {
+      val key =
+        if (raw.key == null) null.asInstanceOf[K] else keyDeserializer.deserialize(raw.topic, raw.headers, raw.key)
+      val value =
+        if (raw.value == null) null.asInstanceOf[V]
+        else valueDeserializer.deserialize(raw.topic, raw.headers, raw.value)
+      new ConsumerRecord[K, V](
+        raw.topic,
+        raw.partition,
+        raw.offset,
+        raw.timestamp,
+        raw.timestampType,
+        null,
+        raw.serializedKeySize,
+        raw.serializedValueSize,
+        key,
+        value,
+        raw.headers,
+        raw.leaderEpoch
+      )
+    }
+
+    def close(): Unit = {
+      Utils.closeQuietly(keyDeserializer, "key deserializer")
+      Utils.closeQuietly(valueDeserializer, "value deserializer")
+    }
+  }
+
+  /**
+   * The deserializers not in use by a slice, new ones are created when all are in use, up to `maxSize` as the stage
+   * runs at most as many slices at a time. After `close()` the idle deserializers are closed and those in use are
+   * closed when released.
+   */
+  final class Pool[K, V](create: () => Deserializers[K, V], maxSize: Int) {
+    private val idle = new ConcurrentLinkedQueue[Deserializers[K, V]]()
+    private val created = new AtomicInteger()
+    @volatile private var closed = false
+
+    def acquire(): Deserializers[K, V] = {
+      val deserializers = idle.poll()
+      if (deserializers != null) deserializers
+      else if (created.incrementAndGet() <= maxSize) create()
+      else throw new IllegalStateException(s"More than $maxSize slices are deserialized at a time")
+    }
+
+    def release(deserializers: Deserializers[K, V]): Unit = {
+      idle.add(deserializers)
+      if (closed) closeIdle()
+    }
+
+    def close(): Unit = {
+      closed = true
+      closeIdle()
+    }
+
+    private def closeIdle(): Unit = {
+      var deserializers = idle.poll()
+      while (deserializers != null) {
+        deserializers.close()
+        deserializers = idle.poll()
+      }
+    }
+  }
+
+  /**
+   * Creates the deserialization for the settings, the deserializers configured as class names are instantiated and
+   * configured like the Kafka consumer does it.
+   */
+  def apply[K, V](settings: ConsumerSettings[K, V], materializer: Materializer): Option[ParallelDeserialization[K, V]] =
+    if (settings.deserializationParallelism <= 0) None
+    else {
+      val ec =
+        if (settings.deserializationDispatcher.isEmpty) materializer.executionContext
+        else materializer.system.dispatchers.lookup(settings.deserializationDispatcher)
+      requireConfiguredDeserializers(settings)
+      val pool = new Pool[K, V](
+        () =>
+          new Deserializers[K, V](
+            configured[K](settings, ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG),
+            configured[V](settings, ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG)
+          ),
+        settings.deserializationParallelism
+      )
+      Some(new ParallelDeserialization[K, V](pool, settings.deserializationParallelism, ec))
+    }
+
+  /**
+   * Deserializer instances can't be used by several slices at a time, parallel deserialization requires the
+   * deserializers to be configured as class names so that each slice gets instances of its own.
+   */
+  def requireConfiguredDeserializers(settings: ConsumerSettings[_, _]): Unit =
+    require(
+      settings.deserializationParallelism <= 0 ||
+      (settings.keyDeserializerOpt.isEmpty && settings.valueDeserializerOpt.isEmpty),
+      "deserialization-parallelism requires the key and value deserializers to be configured as class names " +
+      s"(${ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG}, ${ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG}) " +
+      "instead of passing deserializer instances to the settings"
+    )
+
+  private def configured[T](settings: ConsumerSettings[_, _], classConfig: String): Deserializer[T] = {
+    val deserializer = Utils.newInstance(settings.properties(classConfig), classOf[Deserializer[T]])
+    deserializer.configure(settings.properties.asJava, classConfig == ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG)
+    deserializer
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.annotation.InternalApi
+import org.apache.kafka.clients.consumer.OffsetAndMetadata
+import org.apache.kafka.common.TopicPartition
+
+/**
+ * Internal API.
+ *
+ * The highest offset per partition requested to be committed since the last `drain`. Offsets are aggregated in place
+ * as they arrive, `drain` hands out the table and starts a fresh one.
+ *
+ * Not thread-safe, must only be used from within the actor.
+ */
+@InternalApi
+private[kafka] final class PendingCommitOffsets {
+  private var offsets = new java.util.HashMap[TopicPartition, OffsetAndMetadata]()
+
+  /**
+   * Keep the offset if it is at least as high as the pending offset for the partition.
+   */
+  def add(tp: TopicPartition, offset: OffsetAndMetadata): Unit = {
+    val pending = offsets.get(tp)
+    if (pending == null || pending.offset <= offset.offset) offsets.put(tp, offset)
+  }
+
+  def isEmpty: Boolean = offsets.isEmpty
+
+  def nonEmpty: Boolean = !offsets.isEmpty
+
+  /**
+   * Hand out the pending offsets, the table is empty afterwards.
+   */
+  def drain(): java.util.Map[TopicPartition, OffsetAndMetadata] = {
+    val drained = offsets
+    offsets = new java.util.HashMap[TopicPartition, OffsetAndMetadata]()
+    drained
+  }
+}
@@ -9,7 +9,7 @@ import akka.NotUsed
 import akka.actor.ActorRef
 import akka.annotation.InternalApi
 import akka.kafka.scaladsl.Consumer.Control
-import akka.kafka.{AutoSubscription, ConsumerSettings, ManualSubscription, Subscription}
+import akka.kafka.{AutoSubscription, ConsumerSettings, ManualSubscription, RecordSelection, Subscription}
 import akka.kafka.internal.SubSourceLogic._
 import akka.stream.SourceShape
 import akka.stream.scaladsl.Source
@@ -21,10 +21,16 @@ import scala.concurrent.Future
 
 /** Internal API */
 @InternalApi
-private[kafka] final class PlainSource[K, V](settings: ConsumerSettings[K, V], subscription: Subscription)
+private[kafka] final class PlainSource[K, V](settings: ConsumerSettings[K, V],
+                                             subscription: Subscription,
+                                             selection: Option[RecordSelection[K, V]] = None)
     extends KafkaSourceStage[K, V, ConsumerRecord[K, V]](s"PlainSource ${subscription.renderStageAttribute}") {
+  RecordSelection.requireSupported(selection, settings)
+
   override protected def logic(shape: SourceShape[ConsumerRecord[K, V]]): GraphStageLogic with Control =
-    new SingleSourceLogic[K, V, ConsumerRecord[K, V]](shape, settings, subscription) with PlainMessageBuilder[K, V]
+    new SingleSourceLogic[K, V, ConsumerRecord[K, V]](shape, settings, subscription) with PlainMessageBuilder[K, V] {
+      override protected def recordSelection: Option[RecordSelection[K, V]] = selection
+    }
 }
 
 /** Internal API */
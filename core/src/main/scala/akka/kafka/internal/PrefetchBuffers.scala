@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.annotation.InternalApi
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.TopicPartition
+
+import scala.collection.mutable
+
+/**
+ * Internal API.
+ *
+ * Records the [[KafkaConsumerActor]] fetched ahead of demand or beyond a request's credit, kept per partition
+ * in the chunks returned by `ConsumerRecords.records(tp)`. A partition counts as full when it holds `maxRecords`
+ * records or `maxBytes` serialized bytes.
+ *
+ * Not thread-safe, must only be used from within the actor.
+ */
+@InternalApi
+private[internal] final class PrefetchBuffers[K, V](maxRecords: Int, maxBytes: Long) {
+  import PrefetchBuffers._
+
+  private val buffers = new java.util.HashMap[TopicPartition, PartitionBuffer[K, V]]()
+
+  def add(tp: TopicPartition, records: java.util.List[ConsumerRecord[K, V]]): Unit =
+    if (!records.isEmpty) {
+      var buffer = buffers.get(tp)
+      if (buffer == null) {
+        buffer = new PartitionBuffer[K, V]
+        buffers.put(tp, buffer)
+      }
+      buffer.add(records)
+    }
+
+  def isFull(tp: TopicPartition): Boolean = {
+    val buffer = buffers.get(tp)
+    buffer != null && (buffer.records >= maxRecords || buffer.bytes >= maxBytes)
+  }
+
+  def nonEmpty(tp: TopicPartition): Boolean = {
+    val buffer = buffers.get(tp)
+    buffer != null && buffer.records > 0
+  }
+
+  def isEmpty: Boolean = buffers.isEmpty
+
+  def bufferedRecords(tp: TopicPartition): Int = {
+    val buffer = buffers.get(tp)
+    if (buffer == null) 0 else buffer.records
+  }
+
+  /** The offset of the first buffered record of the partition, `-1` if none. */
+  def firstOffset(tp: TopicPartition): Long = {
+    val buffer = buffers.get(tp)
+    if (buffer == null || buffer.records == 0) -1L else buffer.firstOffset
+  }
+
+  /**
+   * Move the buffered records of the partition the credit allows for to the builder.
+   */
+  def drainTo(tp: TopicPartition,
+              builder: mutable.Builder[java.util.List[ConsumerRecord[K, V]], _],
+              credit: Credit): Unit = {
+    val buffer = buffers.get(tp)
+    if (buffer != null) {
+      buffer.drainTo(builder, credit)
+      if (buffer.records == 0) buffers.remove(tp)
+    }
+  }
+
+  def drop(tps: Iterable[TopicPartition]): Unit =
+    tps.foreach(tp => buffers.remove(tp))
+
+  def clear(): Unit = buffers.clear()
+}
+
+/**
+ * Internal API.
+ */
+@InternalApi
+private[internal] object PrefetchBuffers {
+
+  def serializedSize(record: ConsumerRecord[_, _]): Long =
+    math.max(record.serializedKeySize, 0).toLong + math.max(record.serializedValueSize, 0).toLong
+
+  /**
+   * The records and serialized bytes a stage may still receive for a request.
+   */
+  final class Credit(var records: Int, var bytes: Long) {
+    def exhausted: Boolean = records <= 0 || bytes <= 0L
+  }
+
+  /**
+   * Charge the records of `chunk` starting at `from` to the credit, as long as it is not exhausted. A record
+   * exceeding the remaining bytes is still taken, so that a non-exhausted credit always takes a record.
+   *
+   * @return the index after the last record taken
+   */
+  def take(chunk: java.util.List[_ <: ConsumerRecord[_, _]], from: Int, credit: Credit): Int =
+    if (credit.bytes == Long.MaxValue) {
+      val n = math.max(math.min(chunk.size - from, credit.records), 0)
+      credit.records -= n
+      from + n
+    } else {
+      var i = from
+      while (i < chunk.size && !credit.exhausted) {
+        credit.bytes -= serializedSize(chunk.get(i))
+        credit.records -= 1
+        i += 1
+      }
+      i
+    }
+
+  private final class PartitionBuffer[K, V] {
+    private val chunks = new java.util.ArrayDeque[java.util.List[ConsumerRecord[K, V]]]()
+    /** Records of the first chunk before this index were drained already. */
+    private var headIndex = 0
+    var records = 0
+    var bytes = 0L
+
+    def add(chunk: java.util.List[ConsumerRecord[K, V]]): Unit = {
+      chunks.addLast(chunk)
+      records += chunk.size
+      var i = 0
+      while (i < chunk.size) {
+        bytes += serializedSize(chunk.get(i))
+        i += 1
+      }
+    }
+
+    def firstOffset: Long = chunks.peekFirst().get(headIndex).offset
+
+    def drainTo(builder: mutable.Builder[java.util.List[ConsumerRecord[K, V]], _], credit: Credit): Unit = {
+      var chunk = chunks.peekFirst()
+      while (chunk != null && !credit.exhausted) {
+        val end = take(chunk, headIndex, credit)
+        var i = headIndex
+        while (i < end) {
+          bytes -= serializedSize(chunk.get(i))
+          i += 1
+        }
+        records -= end - headIndex
+        builder += (if (headIndex == 0 && end == chunk.size) chunk else chunk.subList(headIndex, end))
+        if (end == chunk.size) {
+          chunks.removeFirst()
+          headIndex = 0
+          chunk = chunks.peekFirst()
+        } else {
+          headIndex = end
+          chunk = null
+        }
+      }
+    }
+  }
+}
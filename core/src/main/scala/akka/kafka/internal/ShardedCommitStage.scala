@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.Done
+import akka.actor.ActorRef
+import akka.annotation.InternalApi
+import akka.dispatch.ExecutionContexts
+import akka.kafka.ConsumerMessage.CommittableOffsetBatch
+import akka.stream.stage.{AsyncCallback, GraphStage, GraphStageLogic, InHandler, OutHandler}
+import akka.stream.{Attributes, FlowShape, Inlet, Outlet}
+
+import scala.util.{Failure, Success, Try}
+
+/** Internal API */
+@InternalApi private[kafka] object ShardedCommitStage {
+  private final case class CommitResult(consumer: ActorRef,
+                                        batch: CommittableOffsetBatch,
+                                        startNanos: Long,
+                                        result: Try[Done])
+
+  /** The commits of a consumer actor, present while it has commits in flight or waiting. */
+  private final class Shard {
+    var inFlight = 0
+    /** Waits for the total number of commits in flight to drop below `maxInFlight`. */
+    var ready = false
+    val queued = new java.util.ArrayDeque[CommittableOffsetBatch]()
+    val merged = new CommittableOffsetBatchBuilder
+
+    def hasWaiting: Boolean = !queued.isEmpty || !merged.isEmpty
+  }
+}
+
+/**
+ * Internal API.
+ *
+ * Splits batches by consumer actor and commits them with at most `inFlightPerConsumer` commits in flight per
+ * consumer actor, so that a slow consumer does not hold back the commits of the other consumers feeding the stream.
+ * Batches arriving for a consumer at its limit wait for one of its commits to complete. With `coalesce` they are
+ * merged into a single waiting batch, as only the latest offsets of a partition matter, otherwise they are queued.
+ * At most `maxInFlight` commits are in flight in total (e.g. the max commits in flight of adaptive commits), the
+ * consumers waiting for room take turns in the order they became ready.
+ * Committed batches are emitted with the batch size of all batches merged into them, so that they acknowledge all
+ * upstream elements.
+ *
+ * Upstream is pulled as long as less than `parallelism` batches are queued or wait for demand after their commit.
+ */
+@InternalApi private[kafka] final class ShardedCommitStage(parallelism: Int,
+                                                           inFlightPerConsumer: Int,
+                                                           maxInFlight: Int,
+                                                           coalesce: Boolean,
+                                                           batching: Option[CommitBatching])
+    extends GraphStage[FlowShape[CommittableOffsetBatch, CommittableOffsetBatch]] {
+  import ShardedCommitStage._
+
+  require(inFlightPerConsumer > 0, "inFlightPerConsumer must be positive")
+  require(maxInFlight > 0, "maxInFlight must be positive")
+
+  private val in = Inlet[CommittableOffsetBatch]("ShardedCommitStage.in")
+  private val out = Outlet[CommittableOffsetBatch]("ShardedCommitStage.out")
+  override val shape: FlowShape[CommittableOffsetBatch, CommittableOffsetBatch] = FlowShape(in, out)
+
+  override def createLogic(inheritedAttributes: Attributes): GraphStageLogic =
+    new GraphStageLogic(shape) with InHandler with OutHandler {
+
+      private val shards = new java.util.HashMap[ActorRef, Shard]()
+      private val committed = new java.util.ArrayDeque[CommittableOffsetBatch]()
+      /** Consumers with waiting batches which are below their own limit, but not started for `maxInFlight`. */
+      private val ready = new java.util.ArrayDeque[ActorRef]()
+      private var queuedTotal = 0
+      private var inFlightTotal = 0
+
+      private val commitResult: AsyncCallback[CommitResult] = getAsyncCallback[CommitResult] {
+        case CommitResult(consumer, batch, startNanos, Success(_)) =>
+          batching.foreach(_.commitCompleted(startNanos))
+          committed.add(batch)
+          val shard = shards.get(consumer)
+          shard.inFlight -= 1
+          inFlightTotal -= 1
+          if (shard.hasWaiting) markReady(consumer, shard)
+          else if (shard.inFlight == 0) shards.remove(consumer)
+          commitReady()
+          emitCommitted()
+          pullIfRoom()
+          completeIfDone()
+        case CommitResult(_, _, _, Failure(e)) =>
+          failStage(e)
+      }
+
+      override def preStart(): Unit = pull(in)
+
+      override def onPush(): Unit = {
+        grab(in) match {
+          case batch: CommittableOffsetBatchImpl =>
+            batch.byConsumer.foreach {
+              case (consumer, split) =>
+                var shard = shards.get(consumer)
+                if (shard == null) {
+                  shard = new Shard
+                  shards.put(consumer, shard)
+                }
+                if (shard.inFlight < inFlightPerConsumer && inFlightTotal < maxInFlight) commit(consumer, shard, split)
+                else {
+                  if (coalesce) shard.merged.add(split)
+                  else {
+                    shard.queued.add(split)
+                    queuedTotal += 1
+                  }
+                  if (shard.inFlight < inFlightPerConsumer) markReady(consumer, shard)
+                }
+            }
+          case batch =>
+            throw new IllegalArgumentException(
+              s"Unknown CommittableOffsetBatch, got [${batch.getClass.getName}], " +
+              s"expected [${classOf[CommittableOffsetBatchImpl].getName}]"
+            )
+        }
+        pullIfRoom()
+      }
+
+      override def onUpstreamFinish(): Unit = completeIfDone()
+
+      override def onPull(): Unit = {
+        emitCommitted()
+        pullIfRoom()
+        completeIfDone()
+      }
+
+      private def markReady(consumer: ActorRef, shard: Shard): Unit =
+        if (!shard.ready) {
+          shard.ready = true
+          ready.add(consumer)
+        }
+
+      /** Commit the waiting batches of ready consumers while the total allows for more commits in flight. */
+      private def commitReady(): Unit =
+        while (inFlightTotal < maxInFlight && !ready.isEmpty) {
+          val consumer = ready.poll()
+          val shard = shards.get(consumer)
+          shard.ready = false
+          val batch =
+            if (!shard.merged.isEmpty) shard.merged.take()
+            else {
+              queuedTotal -= 1
+              shard.queued.poll()
+            }
+          commit(consumer, shard, batch)
+          if (shard.hasWaiting && shard.inFlight < inFlightPerConsumer) markReady(consumer, shard)
+        }
+
+      private def commit(consumer: ActorRef, shard: Shard, batch: CommittableOffsetBatch): Unit = {
+        shard.inFlight += 1
+        inFlightTotal += 1
+        val startNanos = if (batching.isDefined) batching.get.commitStarted() else 0L
+        batch
+          .commitInternal()
+          .onComplete(result => commitResult.invoke(CommitResult(consumer, batch, startNanos, result)))(
+            ExecutionContexts.parasitic
+          )
+      }
+
+      private def emitCommitted(): Unit =
+        if (isAvailable(out) && !committed.isEmpty) push(out, committed.poll())
+
+      private def pullIfRoom(): Unit =
+        if (!hasBeenPulled(in) && !isClosed(in) && committed.size + queuedTotal < parallelism) pull(in)
+
+      private def completeIfDone(): Unit =
+        if (isClosed(in) && shards.isEmpty && committed.isEmpty) completeStage()
+
+      setHandlers(in, out, this)
+    }
+}
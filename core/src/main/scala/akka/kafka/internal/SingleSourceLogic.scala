@@ -31,10 +31,13 @@ import scala.concurrent.{Future, Promise}
 
   final def consumerFuture: Future[ActorRef] = consumerPromise.future
 
+  override protected lazy val parallelDeserialization: Option[ParallelDeserialization[K, V]] =
+    ParallelDeserialization(settings, materializer)
+
   final def createConsumerActor(): ActorRef = {
     val extendedActorSystem = materializer.system.asInstanceOf[ExtendedActorSystem]
     val actor =
-      extendedActorSystem.systemActorOf(akka.kafka.KafkaConsumerActor.props(sourceActor.ref, settings),
+      extendedActorSystem.systemActorOf(akka.kafka.KafkaConsumerActor.singleStageProps(sourceActor.ref, settings),
                                         s"kafka-consumer-$actorNumber")
     consumerPromise.success(actor)
     actor
@@ -42,6 +45,7 @@ import scala.concurrent.{Future, Promise}
 
   final override def postStop(): Unit = {
     consumerActor.tell(KafkaConsumerActor.Internal.StopFromStage(id), sourceActor.ref)
+    parallelDeserialization.foreach(_.close())
     super.postStop()
   }
 
@@ -5,14 +5,27 @@
 
 package akka.kafka.internal
 import akka.annotation.InternalApi
+import akka.dispatch.ExecutionContexts
+import akka.kafka.internal.ParallelDeserialization.Deserialized
 import akka.stream.stage.{AsyncCallback, GraphStageLogic}
 import org.apache.kafka.clients.consumer.ConsumerRecord
 import org.apache.kafka.common.TopicPartition
 
+import scala.collection.immutable
+import scala.util.{Failure, Success, Try}
+
 /**
  * A buffer of messages provided by the [[KafkaConsumerActor]] for a Source Logic. When partitions are rebalanced
  * away from this Source Logic preemptively filter out messages for those partitions.
  *
+ * Records are kept in the per-partition chunks the actor sends and consumed with an index cursor, so that they
+ * are neither copied nor wrapped in iterators on their way downstream. The number of records and bytes buffered
+ * is tracked per partition, revoking a partition drops its chunks without looking at the individual records.
+ *
+ * With `parallelDeserialization` the chunks hold raw records, they are deserialized in slices concurrently and
+ * added to the buffer in the order they were received once deserialized. At most `parallelism` slices are
+ * deserialized at a time, the others wait for one of them to complete.
+ *
  * NOTE: Due to the asynchronous nature of Akka Streams, it's not possible to guarantee that a message has not
  * already been sent downstream for a revoked partition before the rebalance handler invokes
  * `filterRevokedPartitionsCB`. The best we can do is filter as many messages as possible to reduce the amount of
@@ -21,20 +34,224 @@ import org.apache.kafka.common.TopicPartition
 @InternalApi
 private[kafka] trait SourceLogicBuffer[K, V, Msg] {
   self: GraphStageLogic with StageIdLogging =>
+  import SourceLogicBuffer._
+
+  /** Chunks of records in the order delivered by the consumer actor, each chunk holds records of one partition. */
+  private val chunks = new java.util.ArrayDeque[Chunk[K, V]]()
+  private var chunk: Chunk[K, V] = null
+  private var chunkIndex = 0
 
-  protected var buffer: Iterator[ConsumerRecord[K, V]] = Iterator.empty
+  /** Records and serialized bytes buffered per partition. */
+  private val partitionCounts = new java.util.HashMap[TopicPartition, PartitionCounts]()
+  private var totalRecords = 0
+  private var totalBytes = 0L
+
+  /** Slices of raw records being or waiting to be deserialized, in the order received. */
+  private val deserializing = new java.util.ArrayDeque[PendingSlice[K, V]]()
+  /** Slices waiting for a running slice to complete. */
+  private val sliceQueue = new java.util.ArrayDeque[PendingSlice[K, V]]()
+  private var runningSlices = 0
+  private var deserializationFailure: Option[Throwable] = None
 
   protected val filterRevokedPartitionsCB: AsyncCallback[Set[TopicPartition]] =
     getAsyncCallback[Set[TopicPartition]](filterRevokedPartitions)
 
+  private val deserializedCB: AsyncCallback[PendingSlice[K, V]] =
+    getAsyncCallback[PendingSlice[K, V]] { _ =>
+      runningSlices -= 1
+      startSlices()
+      addDeserialized()
+    }
+
+  /** Deserializes the records if the consumer actor polls raw bytes (see `deserialization-parallelism`). */
+  protected def parallelDeserialization: Option[ParallelDeserialization[K, V]] = None
+
+  /** Called when deserialized records were added to the buffer. */
+  protected def recordsDeserialized(): Unit = ()
+
+  /** Don't request more records while as many slices as the parallelism are being deserialized. */
+  protected def deserializationBacklogFull: Boolean =
+    parallelDeserialization.exists(deserializing.size >= _.parallelism)
+
+  /** The failure to fail the stage with once the records before it are emitted. */
+  protected def pendingDeserializationFailure: Option[Throwable] = deserializationFailure
+
+  protected def addToBuffer(messageChunks: immutable.Seq[java.util.List[ConsumerRecord[K, V]]]): Unit =
+    parallelDeserialization match {
+      case None =>
+        messageChunks.foreach(addChunk)
+      case Some(deserialization) =>
+        messageChunks.foreach { records =>
+          if (!records.isEmpty) {
+            val first = records.get(0)
+            val tp = new TopicPartition(first.topic, first.partition)
+            deserialization.slices(records).foreach { slice =>
+              val pending = new PendingSlice[K, V](tp, slice)
+              deserializing.addLast(pending)
+              sliceQueue.addLast(pending)
+            }
+          }
+        }
+        startSlices()
+    }
+
+  private def startSlices(): Unit =
+    parallelDeserialization.foreach { deserialization =>
+      while (runningSlices < deserialization.parallelism && !sliceQueue.isEmpty) {
+        val pending = sliceQueue.removeFirst()
+        val slice = pending.records
+        pending.records = null
+        runningSlices += 1
+        deserialization
+          .deserialize(slice)
+          .onComplete { result =>
+            pending.result = result
+            deserializedCB.invoke(pending)
+          }(ExecutionContexts.parasitic)
+      }
+    }
+
+  private def addDeserialized(): Unit = {
+    while (!deserializing.isEmpty && deserializing.peekFirst.result != null) {
+      deserializing.removeFirst().result match {
+        case Success(deserialized) =>
+          addChunk(deserialized.records)
+          if (deserialized.failure != null) failDeserialization(deserialized.failure)
+        case Failure(e) =>
+          failDeserialization(e)
+      }
+    }
+    recordsDeserialized()
+  }
+
+  private def failDeserialization(e: Throwable): Unit = {
+    deserializationFailure = Some(e)
+    deserializing.clear()
+    sliceQueue.clear()
+  }
+
+  private def addChunk(records: java.util.List[ConsumerRecord[K, V]]): Unit =
+    if (!records.isEmpty) {
+      val first = records.get(0)
+      val tp = new TopicPartition(first.topic, first.partition)
+      var counts = partitionCounts.get(tp)
+      if (counts == null) {
+        counts = new PartitionCounts
+        partitionCounts.put(tp, counts)
+      }
+      var bytes = 0L
+      var i = 0
+      while (i < records.size) {
+        bytes += PrefetchBuffers.serializedSize(records.get(i))
+        i += 1
+      }
+      counts.records += records.size
+      counts.bytes += bytes
+      totalRecords += records.size
+      totalBytes += bytes
+      chunks.addLast(new Chunk(tp, records, counts))
+    }
+
+  protected def hasBufferedRecords: Boolean = totalRecords > 0
+
+  /** Take the next buffered record, only valid if `hasBufferedRecords`. */
+  protected def nextBufferedRecord(): ConsumerRecord[K, V] = {
+    if (chunk == null || chunkIndex >= chunk.records.size) {
+      chunk = chunks.removeFirst()
+      chunkIndex = 0
+    }
+    val record = chunk.records.get(chunkIndex)
+    chunkIndex += 1
+    val bytes = PrefetchBuffers.serializedSize(record)
+    chunk.counts.records -= 1
+    chunk.counts.bytes -= bytes
+    totalRecords -= 1
+    totalBytes -= bytes
+    if (chunk.counts.records == 0) partitionCounts.remove(chunk.tp)
+    record
+  }
+
+  /**
+   * Take buffered records up to `maxRecords` records, and until they reach `maxBytes` serialized bytes (a record
+   * exceeding the bytes is still taken). Only valid if `hasBufferedRecords`.
+   */
+  protected def nextBufferedBatch(maxRecords: Int, maxBytes: Long): immutable.Seq[ConsumerRecord[K, V]] = {
+    val b = Vector.newBuilder[ConsumerRecord[K, V]]
+    var records = 0
+    var bytes = 0L
+    while (hasBufferedRecords && records < maxRecords && bytes < maxBytes) {
+      val record = nextBufferedRecord()
+      b += record
+      records += 1
+      bytes += PrefetchBuffers.serializedSize(record)
+    }
+    b.result()
+  }
+
+  /** Number of records buffered for the partition. */
+  protected def bufferedRecords(tp: TopicPartition): Int = {
+    val counts = partitionCounts.get(tp)
+    if (counts == null) 0 else counts.records
+  }
+
+  /** Serialized size of keys and values buffered for the partition. */
+  protected def bufferedBytes(tp: TopicPartition): Long = {
+    val counts = partitionCounts.get(tp)
+    if (counts == null) 0L else counts.bytes
+  }
+
+  /** Whether records of the partition are buffered or still being deserialized. */
+  protected def hasPendingRecords(tp: TopicPartition): Boolean =
+    bufferedRecords(tp) > 0 || {
+      val it = deserializing.iterator()
+      var found = false
+      while (!found && it.hasNext) found = it.next().tp == tp
+      found
+    }
+
+  protected def bufferedRecords: Int = totalRecords
+
+  protected def bufferedBytes: Long = totalBytes
+
   private def filterRevokedPartitions(topicPartitions: Set[TopicPartition]): Unit = {
     if (topicPartitions.nonEmpty) {
       log.debug("filtering out messages from revoked partitions {}", topicPartitions)
-      // as buffer is an Iterator the filtering will be applied during `pump`
-      buffer = buffer.filterNot { record =>
-        val tp = new TopicPartition(record.topic, record.partition)
-        topicPartitions.contains(tp)
+      topicPartitions.foreach { tp =>
+        val counts = partitionCounts.remove(tp)
+        if (counts != null) {
+          totalRecords -= counts.records
+          totalBytes -= counts.bytes
+          // the chunks are removed below, make sure consuming remainders doesn't touch the counts
+          counts.records = 0
+          counts.bytes = 0L
+        }
+      }
+      if (chunk != null && topicPartitions.contains(chunk.tp)) {
+        chunk = null
+        chunkIndex = 0
       }
+      chunks.removeIf(c => topicPartitions.contains(c.tp))
+      deserializing.removeIf(p => topicPartitions.contains(p.tp))
+      sliceQueue.removeIf(p => topicPartitions.contains(p.tp))
     }
   }
 }
+
+/** Internal API */
+@InternalApi
+private[kafka] object SourceLogicBuffer {
+  private[internal] final class PartitionCounts {
+    var records: Int = 0
+    var bytes: Long = 0L
+  }
+
+  /** The records are released once the slice is started. */
+  private[internal] final class PendingSlice[K, V](val tp: TopicPartition,
+                                                   var records: java.util.List[ConsumerRecord[K, V]]) {
+    @volatile var result: Try[Deserialized[K, V]] = _
+  }
+
+  private[internal] final class Chunk[K, V](val tp: TopicPartition,
+                                            val records: java.util.List[ConsumerRecord[K, V]],
+                                            val counts: PartitionCounts)
+}
@@ -422,7 +422,7 @@ private abstract class SubSourceStageLogic[K, V, Msg](
   protected def messageHandling: PartialFunction[(ActorRef, Any), Unit] = {
     case (_, msg: KafkaConsumerActor.Internal.Messages[K, V]) =>
       requested = false
-      buffer = buffer ++ msg.messages
+      addToBuffer(msg.chunks)
       pump()
     case (_, Status.Failure(e)) =>
       failStage(e)
@@ -431,8 +431,8 @@ private abstract class SubSourceStageLogic[K, V, Msg](
   }
 
   protected def onDownstreamFinishSubSourceCancellationStrategy(): SubSourceCancellationStrategy =
-    if (buffer.hasNext) {
-      SeekToOffsetAndReEmit(buffer.next().offset())
+    if (hasBufferedRecords) {
+      SeekToOffsetAndReEmit(nextBufferedRecord().offset())
     } else {
       ReEmit
     }
@@ -461,8 +461,8 @@ private abstract class SubSourceStageLogic[K, V, Msg](
   @tailrec
   private def pump(): Unit =
     if (isAvailable(shape.out)) {
-      if (buffer.hasNext) {
-        val msg = buffer.next()
+      if (hasBufferedRecords) {
+        val msg = nextBufferedRecord()
         push(shape.out, createMessage(msg))
         pump()
       } else if (!requested) {
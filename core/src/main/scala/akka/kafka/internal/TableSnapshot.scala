@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import java.io.{BufferedOutputStream, DataOutputStream, EOFException, IOException}
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardCopyOption, StandardOpenOption}
+
+import akka.annotation.InternalApi
+import org.apache.kafka.common.TopicPartition
+
+import scala.concurrent.duration.FiniteDuration
+import scala.util.control.NonFatal
+
+/**
+ * Internal API.
+ *
+ * Snapshot file of a compacted table in its serialized form.
+ *
+ * The file holds a header with the time it was taken, the topic and the offset reached per partition, followed
+ * by the key and value bytes of all entries. The offsets are captured before the entries are copied, so the
+ * entries may be newer than the offsets, which is harmless as replaying a compacted topic from the offsets
+ * converges to the same table.
+ *
+ * Snapshots are written to a temporary file which is then moved in place, and read through memory mapped windows.
+ */
+@InternalApi private[kafka] object TableSnapshot {
+
+  private val Magic = 0x414b5453 // AKTS
+  private val Version = 1
+  private val EndOfEntries = -1
+  private val Window = 256 * 1024 * 1024
+
+  def file(directory: Path, topic: String): Path = directory.resolve(s"$topic.snapshot")
+
+  /** Writes the snapshot of the store and the offsets reached, replacing an existing snapshot. */
+  def write(path: Path, topic: String, offsets: Map[TopicPartition, Long], store: SerializedTableStore[_, _]): Unit = {
+    Files.createDirectories(path.getParent)
+    val tmp = path.resolveSibling(path.getFileName.toString + ".tmp")
+    val out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))
+    try {
+      out.writeInt(Magic)
+      out.writeInt(Version)
+      out.writeLong(System.currentTimeMillis())
+      val topicBytes = topic.getBytes(StandardCharsets.UTF_8)
+      out.writeInt(topicBytes.length)
+      out.write(topicBytes)
+      out.writeInt(offsets.size)
+      offsets.foreach {
+        case (tp, offset) =>
+          out.writeInt(tp.partition)
+          out.writeLong(offset)
+      }
+      store.foreachSerialized { (key, value) =>
+        out.writeInt(key.length)
+        out.write(key)
+        out.writeInt(value.length)
+        out.write(value)
+      }
+      out.writeInt(EndOfEntries)
+    } finally out.close()
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+  }
+
+  /**
+   * Loads the snapshot into the store and returns the offsets it reached, or nothing if there is no snapshot of
+   * the topic younger than `maxAge`. Fails if the snapshot can't be read, leaving the store empty.
+   */
+  def read(path: Path,
+           topic: String,
+           maxAge: FiniteDuration,
+           store: SerializedTableStore[_, _]): Option[Map[TopicPartition, Long]] =
+    if (!Files.exists(path)) None
+    else {
+      val channel = FileChannel.open(path, StandardOpenOption.READ)
+      try {
+        val in = new MappedReader(channel)
+        if (in.int() != Magic || in.int() != Version) throw new IOException(s"$path is not a table snapshot")
+        val takenAt = in.long()
+        val snapshotTopic = new String(in.bytes(in.int()), StandardCharsets.UTF_8)
+        if (snapshotTopic != topic || System.currentTimeMillis() - takenAt > maxAge.toMillis) None
+        else {
+          val offsets = Map.newBuilder[TopicPartition, Long]
+          var partitions = in.int()
+          while (partitions > 0) {
+            offsets += new TopicPartition(topic, in.int()) -> in.long()
+            partitions -= 1
+          }
+          var keyLength = in.int()
+          while (keyLength != EndOfEntries) {
+            val key = in.bytes(keyLength)
+            store.putSerialized(key, in.bytes(in.int()))
+            keyLength = in.int()
+          }
+          Some(offsets.result())
+        }
+      } catch {
+        case NonFatal(e) =>
+          store.clear()
+          throw e
+      } finally channel.close()
+    }
+
+  /** Reads from memory mapped windows of the file, a window is mapped again where a value exceeds it. */
+  private final class MappedReader(channel: FileChannel) {
+    private val size = channel.size()
+    private var base = 0L
+    private var buffer: MappedByteBuffer = map(0L, 0)
+
+    private def map(position: Long, bytes: Int): MappedByteBuffer = {
+      base = position
+      channel.map(FileChannel.MapMode.READ_ONLY, position, math.min(math.max(Window, bytes).toLong, size - position))
+    }
+
+    private def ensure(bytes: Int): Unit =
+      if (buffer.remaining < bytes) {
+        val position = base + buffer.position()
+        if (size - position < bytes) throw new EOFException(s"Table snapshot ended at $position")
+        buffer = map(position, bytes)
+      }
+
+    def int(): Int = {
+      ensure(4)
+      buffer.getInt()
+    }
+
+    def long(): Long = {
+      ensure(8)
+      buffer.getLong()
+    }
+
+    def bytes(length: Int): Array[Byte] = {
+      ensure(length)
+      val result = new Array[Byte](length)
+      buffer.get(result)
+      result
+    }
+  }
+}
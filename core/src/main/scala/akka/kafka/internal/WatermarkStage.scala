@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.annotation.InternalApi
+import akka.kafka.{WatermarkTracker, Watermarked}
+import akka.stream.stage.{GraphStage, GraphStageLogic, InHandler, OutHandler, TimerGraphStageLogic}
+import akka.stream.{Attributes, FlowShape, Inlet, Outlet}
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.TopicPartition
+
+/** Internal API */
+@InternalApi private[kafka] object WatermarkStage {
+  sealed trait AssignmentChange
+  final case class Assigned(tps: Set[TopicPartition]) extends AssignmentChange
+  final case class Revoked(tps: Set[TopicPartition]) extends AssignmentChange
+
+  private case object IdleCheck
+}
+
+/**
+ * Internal API.
+ *
+ * Tracks the highest event time per partition in primitive arrays indexed by a slot per partition, and emits the
+ * lowest of them across the partitions which are not idle whenever it advances.
+ *
+ * The lowest event time is only searched for again when the partition holding it progressed, got idle or revoked,
+ * or when a new or idle partition may hold a lower one, as the other partitions' event times only grow.
+ * Partitions are idle when they had no element for the idle timeout, which is checked every half of it. Assignment
+ * changes reported by the tracker's handler are applied before each element and idle check.
+ */
+@InternalApi private[kafka] final class WatermarkStage[T](tracker: WatermarkTracker,
+                                                          record: T => ConsumerRecord[_, _],
+                                                          eventTime: T => Long)
+    extends GraphStage[FlowShape[T, Watermarked[T]]] {
+  import WatermarkStage._
+
+  private val in = Inlet[T]("WatermarkStage.in")
+  private val out = Outlet[Watermarked[T]]("WatermarkStage.out")
+  override val shape: FlowShape[T, Watermarked[T]] = FlowShape(in, out)
+
+  override def createLogic(inheritedAttributes: Attributes): GraphStageLogic =
+    new TimerGraphStageLogic(shape) with InHandler with OutHandler {
+      private val idleTimeoutNanos = tracker.idleTimeout.toNanos
+
+      /** Slots per topic, indexed by partition number, -1 for partitions without a slot. */
+      private val slotsByTopic = new java.util.HashMap[String, Array[Int]]()
+      private var freeSlots = List.empty[Int]
+      private var slotCount = 0
+      private var partitions = new Array[TopicPartition](16)
+      private var maxEventTime = new Array[Long](16)
+      private var lastSeen = new Array[Long](16)
+      private var idle = new Array[Boolean](16)
+
+      /** The slot holding the lowest event time, -1 if all partitions are idle. */
+      private var minSlot = -1
+      private var watermark = Long.MinValue
+
+      override def preStart(): Unit =
+        scheduleWithFixedDelay(IdleCheck, tracker.idleTimeout / 2, tracker.idleTimeout / 2)
+
+      override def onPush(): Unit = {
+        val now = System.nanoTime()
+        applyAssignmentChanges(now)
+        val element = grab(in)
+        val r = record(element)
+        val slot = slotOf(r.topic, r.partition, now)
+        val time = eventTime(element)
+        if (time > maxEventTime(slot)) maxEventTime(slot) = time
+        lastSeen(slot) = now
+        if (idle(slot) || slot == minSlot || minSlot < 0 || maxEventTime(slot) < maxEventTime(minSlot)) {
+          idle(slot) = false
+          findMin()
+        }
+        val advanced = advance()
+        if (advanced != null) emitMultiple(out, List(Watermarked.Element(element), advanced))
+        else emit(out, Watermarked.Element(element))
+      }
+
+      override def onUpstreamFinish(): Unit = complete(out)
+
+      override def onPull(): Unit =
+        if (!hasBeenPulled(in) && !isClosed(in)) pull(in)
+
+      override protected def onTimer(timerKey: Any): Unit = {
+        val now = System.nanoTime()
+        applyAssignmentChanges(now)
+        var slot = 0
+        var changed = false
+        while (slot < slotCount) {
+          if (partitions(slot) != null && !idle(slot) && now - lastSeen(slot) > idleTimeoutNanos) {
+            idle(slot) = true
+            changed = true
+          }
+          slot += 1
+        }
+        if (changed) findMin()
+        val advanced = advance()
+        if (advanced != null) emit(out, advanced)
+      }
+
+      /** The watermark if it advanced, `null` otherwise. */
+      private def advance(): Watermarked.Watermark =
+        if (minSlot >= 0 && maxEventTime(minSlot) > watermark) {
+          watermark = maxEventTime(minSlot)
+          Watermarked.Watermark(watermark)
+        } else null
+
+      private def findMin(): Unit = {
+        minSlot = -1
+        var slot = 0
+        while (slot < slotCount) {
+          if (partitions(slot) != null && !idle(slot) && (minSlot < 0 || maxEventTime(slot) < maxEventTime(minSlot)))
+            minSlot = slot
+          slot += 1
+        }
+      }
+
+      private def applyAssignmentChanges(now: Long): Unit = {
+        var change = tracker.assignmentChanges.poll()
+        if (change != null) {
+          while (change != null) {
+            change match {
+              case Assigned(tps) => tps.foreach(tp => slotOf(tp.topic, tp.partition, now))
+              case Revoked(tps) => tps.foreach(release)
+            }
+            change = tracker.assignmentChanges.poll()
+          }
+          findMin()
+        }
+      }
+
+      private def slotOf(topic: String, partition: Int, now: Long): Int = {
+        var slots = slotsByTopic.get(topic)
+        if (slots != null && partition < slots.length && slots(partition) >= 0) slots(partition)
+        else {
+          if (slots == null || partition >= slots.length) {
+            val grown = Array.fill(partition + 1)(-1)
+            if (slots != null) System.arraycopy(slots, 0, grown, 0, slots.length)
+            slots = grown
+            slotsByTopic.put(topic, slots)
+          }
+          val slot = allocate()
+          slots(partition) = slot
+          partitions(slot) = new TopicPartition(topic, partition)
+          maxEventTime(slot) = Long.MinValue
+          lastSeen(slot) = now
+          idle(slot) = false
+          slot
+        }
+      }
+
+      private def allocate(): Int =
+        freeSlots match {
+          case slot :: rest =>
+            freeSlots = rest
+            slot
+          case Nil =>
+            if (slotCount == partitions.length) {
+              val capacity = slotCount * 2
+              partitions = java.util.Arrays.copyOf(partitions, capacity)
+              maxEventTime = java.util.Arrays.copyOf(maxEventTime, capacity)
+              lastSeen = java.util.Arrays.copyOf(lastSeen, capacity)
+              idle = java.util.Arrays.copyOf(idle, capacity)
+            }
+            slotCount += 1
+            slotCount - 1
+        }
+
+      private def release(tp: TopicPartition): Unit = {
+        val slots = slotsByTopic.get(tp.topic)
+        if (slots != null && tp.partition < slots.length && slots(tp.partition) >= 0) {
+          val slot = slots(tp.partition)
+          slots(tp.partition) = -1
+          partitions(slot) = null
+          freeSlots = slot :: freeSlots
+        }
+      }
+
+      setHandlers(in, out, this)
+    }
+}
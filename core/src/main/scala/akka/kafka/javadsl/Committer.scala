@@ -10,7 +10,7 @@ import akka.annotation.ApiMayChange
 import akka.japi.Pair
 import akka.{Done, NotUsed}
 import akka.kafka.ConsumerMessage.{Committable, CommittableOffsetBatch}
-import akka.kafka.{scaladsl, CommitterSettings}
+import akka.kafka.{scaladsl, CommitterMetrics, CommitterSettings}
 import akka.stream.javadsl.{Flow, FlowWithContext, Sink}
 
 import scala.compat.java8.FutureConverters.FutureOps
@@ -29,6 +29,19 @@ object Committer {
   def batchFlow[C <: Committable](settings: CommitterSettings): Flow[C, CommittableOffsetBatch, NotUsed] =
     scaladsl.Committer.batchFlow(settings).asJava
 
+  /**
+   * API MAY CHANGE
+   *
+   * Batches offsets and commits them to Kafka, emits `Done` for every committed batch. Materializes the committer's
+   * metrics, such as the batch size and interval adapted by [[akka.kafka.AdaptiveCommitSettings adaptive commits]]
+   * and the commit round trip time.
+   */
+  @ApiMayChange
+  def flowWithMetrics[C <: Committable](
+      settings: CommitterSettings
+  ): Flow[C, Done, CompletionStage[CommitterMetrics]] =
+    scaladsl.Committer.flowWithMetrics(settings).mapMaterializedValue(_.toJava).asJava
+
   /**
    * API MAY CHANGE
    *
@@ -11,9 +11,14 @@ import akka.actor.ActorRef
 import akka.annotation.ApiMayChange
 import akka.dispatch.ExecutionContexts
 import akka.japi.Pair
-import akka.kafka.ConsumerMessage.{CommittableMessage, CommittableOffset}
+import akka.kafka.ConsumerMessage.{CommittableMessage, CommittableMessages, CommittableOffset}
 import akka.kafka._
-import akka.kafka.internal.{ConsumerControlAsJava, SourceWithOffsetContext}
+import akka.kafka.internal.{
+  BackfillControlAsJava,
+  CompactedTableControlAsJava,
+  ConsumerControlAsJava,
+  SourceWithOffsetContext
+}
 import akka.stream.javadsl.{Source, SourceWithContext}
 import akka.{Done, NotUsed}
 import org.apache.kafka.clients.consumer.ConsumerRecord
@@ -122,6 +127,36 @@ object Consumer {
    */
   def createNoopControl(): Control = new ConsumerControlAsJava(scaladsl.Consumer.NoopControl)
 
+  /**
+   * API MAY CHANGE
+   *
+   * Materialized value of the [[#backfillSource]], controlling all of its Kafka consumers.
+   */
+  @ApiMayChange
+  trait BackfillControl extends Control {
+
+    /** Progress of each of the consumers, completed once the consumers were started. */
+    def getProgress: CompletionStage[java.util.List[BackfillProgress]]
+  }
+
+  /**
+   * API MAY CHANGE
+   *
+   * Materialized value of the [[#compactedTableSource]], giving access to the table.
+   */
+  @ApiMayChange
+  trait CompactedTableControl[K, V] extends Control {
+
+    /** The table, which is updated while the source runs. */
+    def getTable: CompactedTable[K, V]
+
+    /** Completes once the records up to the end offsets at start were applied to the table. */
+    def getCaughtUp: CompletionStage[Done]
+
+    /** Bootstrap progress per partition, completed once the offsets to bootstrap from were looked up. */
+    def getBootstrapProgress: CompletionStage[java.util.List[TablePartitionProgress]]
+  }
+
   /**
    * The `plainSource` emits `ConsumerRecord` elements (as received from the underlying `KafkaConsumer`).
    * It has no support for committing offsets to Kafka. It can be used when the offset is stored externally
@@ -140,6 +175,113 @@ object Consumer {
       .mapMaterializedValue(ConsumerControlAsJava.apply)
       .asJava
 
+  /**
+   * API MAY CHANGE
+   *
+   * Like [[#plainSource]], but the consumer actor only hands the records matching the selection to the source
+   * stage, see [[akka.kafka.RecordSelection]].
+   */
+  @ApiMayChange
+  def plainSource[K, V](settings: ConsumerSettings[K, V],
+                        subscription: Subscription,
+                        selection: RecordSelection[K, V]): Source[ConsumerRecord[K, V], Control] =
+    scaladsl.Consumer
+      .plainSource(settings, subscription, selection)
+      .mapMaterializedValue(ConsumerControlAsJava.apply)
+      .asJava
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `boundedSource` reads the assigned partitions from their start position up to the end offsets they have
+   * when the source starts, and completes once all records before those were emitted. Partitions which reached their
+   * end offset are paused while the others are read, the Kafka consumer is closed on completion.
+   *
+   * Offsets are not committed, use it for backfills and reconciliation.
+   */
+  @ApiMayChange
+  def boundedSource[K, V](settings: ConsumerSettings[K, V],
+                          subscription: ManualSubscription): Source[ConsumerRecord[K, V], Control] =
+    scaladsl.Consumer
+      .boundedSource(settings, subscription)
+      .mapMaterializedValue(ConsumerControlAsJava.apply)
+      .asJava
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `boundedPartitionedSource` emits a [[#boundedSource]] per assigned partition, each of them reading the
+   * partition up to its end offset with a Kafka consumer of its own.
+   */
+  @ApiMayChange
+  def boundedPartitionedSource[K, V](
+      settings: ConsumerSettings[K, V],
+      subscription: ManualSubscription
+  ): Source[Pair[TopicPartition, Source[ConsumerRecord[K, V], Control]], NotUsed] =
+    scaladsl.Consumer
+      .boundedPartitionedSource(settings, subscription)
+      .map {
+        case (tp, source) => Pair(tp, source.mapMaterializedValue[Control](ConsumerControlAsJava.apply).asJava)
+      }
+      .asJava
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `backfillSource` reads the assigned partitions up to their end offsets like the [[#boundedSource]], but
+   * spreads the partitions across up to `consumers` Kafka consumers which fetch in parallel, and merges the records
+   * they emit. The order of records is only kept per partition.
+   *
+   * The materialized [[BackfillControl]] controls all consumers and exposes their progress.
+   */
+  @ApiMayChange
+  def backfillSource[K, V](settings: ConsumerSettings[K, V],
+                           subscription: ManualSubscription,
+                           consumers: Int,
+                           sharding: BackfillSharding): Source[ConsumerRecord[K, V], BackfillControl] =
+    scaladsl.Consumer
+      .backfillSource(settings, subscription, consumers, sharding)
+      .mapMaterializedValue[BackfillControl](BackfillControlAsJava.apply)
+      .asJava
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `compactedTableSource` materializes a compacted topic into a table. It reads all partitions of the topic
+   * from their beginning up to the end offsets they have at start, completes `caughtUp` and then keeps applying new
+   * records. Records with a `null` value (tombstones) delete their key. The source emits each record after it was
+   * applied to the table.
+   *
+   * The table is kept in the `store`, see [[TableStore]] for the available stores. Offsets are not committed, the
+   * table is bootstrapped again on each materialization.
+   */
+  @ApiMayChange
+  def compactedTableSource[K, V](settings: ConsumerSettings[K, V],
+                                 topic: String,
+                                 store: TableStore[K, V]): Source[ConsumerRecord[K, V], CompactedTableControl[K, V]] =
+    scaladsl.Consumer
+      .compactedTableSource(settings, topic, store)
+      .mapMaterializedValue[CompactedTableControl[K, V]](CompactedTableControlAsJava.apply)
+      .asJava
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `compactedTableSource` which restores the table from the latest local snapshot, if there is one, and reads
+   * the topic from the offsets the snapshot reached. Snapshots are taken periodically while the source runs.
+   *
+   * Snapshots require the [[TableStore#serialized]] store.
+   */
+  @ApiMayChange
+  def compactedTableSource[K, V](settings: ConsumerSettings[K, V],
+                                 topic: String,
+                                 store: TableStore[K, V],
+                                 snapshots: TableSnapshots): Source[ConsumerRecord[K, V], CompactedTableControl[K, V]] =
+    scaladsl.Consumer
+      .compactedTableSource(settings, topic, store, snapshots)
+      .mapMaterializedValue[CompactedTableControl[K, V]](CompactedTableControlAsJava.apply)
+      .asJava
+
   /**
    * The `committableSource` makes it possible to commit offset positions to Kafka.
    * This is useful when "at-least once delivery" is desired, as each message will likely be
@@ -160,6 +302,60 @@ object Consumer {
       .mapMaterializedValue(ConsumerControlAsJava.apply)
       .asJava
 
+  /**
+   * API MAY CHANGE
+   *
+   * Like [[#committableSource]], but the consumer actor only hands the records matching the selection to the source
+   * stage, see [[akka.kafka.RecordSelection]]. The offsets of filtered records are committed with the next emitted
+   * message of their partition, or by the consumer actor once all emitted messages before them were committed.
+   */
+  @ApiMayChange
+  def committableSource[K, V](settings: ConsumerSettings[K, V],
+                              subscription: Subscription,
+                              selection: RecordSelection[K, V]): Source[CommittableMessage[K, V], Control] =
+    scaladsl.Consumer
+      .committableSource(settings, subscription, selection)
+      .mapMaterializedValue(ConsumerControlAsJava.apply)
+      .asJava
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `plainBatchSource` emits the records received from the underlying `KafkaConsumer` in batches
+   * of at most `maxRecords` records and `maxBytes` serialized key and value bytes. A batch never spans more
+   * records than are buffered when it is emitted, and it always contains at least one record even if that record
+   * alone exceeds `maxBytes`.
+   *
+   * Like [[#plainSource]] it has no support for committing offsets to Kafka.
+   */
+  @ApiMayChange
+  def plainBatchSource[K, V](settings: ConsumerSettings[K, V],
+                             subscription: Subscription,
+                             maxRecords: Int,
+                             maxBytes: Long): Source[java.util.List[ConsumerRecord[K, V]], Control] =
+    scaladsl.Consumer
+      .plainBatchSource(settings, subscription, maxRecords, maxBytes)
+      .map(_.asJava)
+      .mapMaterializedValue(ConsumerControlAsJava.apply)
+      .asJava
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `committableBatchSource` emits the records received from the underlying `KafkaConsumer` in batches
+   * capped like in [[#plainBatchSource]], together with a single `CommittableOffsetBatch` covering the
+   * highest offset per partition of the batch. Committing it acknowledges the whole batch.
+   */
+  @ApiMayChange
+  def committableBatchSource[K, V](settings: ConsumerSettings[K, V],
+                                   subscription: Subscription,
+                                   maxRecords: Int,
+                                   maxBytes: Long): Source[CommittableMessages[K, V], Control] =
+    scaladsl.Consumer
+      .committableBatchSource(settings, subscription, maxRecords, maxBytes)
+      .mapMaterializedValue(ConsumerControlAsJava.apply)
+      .asJava
+
   /**
    * API MAY CHANGE
    *
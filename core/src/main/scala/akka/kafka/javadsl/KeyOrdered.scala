@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.javadsl
+
+import java.util.concurrent.CompletionStage
+
+import akka.NotUsed
+import akka.annotation.ApiMayChange
+import akka.kafka.ConsumerMessage.{CommittableMessage, CommittableOffsetBatch}
+import akka.kafka.scaladsl
+import akka.stream.javadsl.Flow
+
+import scala.compat.java8.FutureConverters.CompletionStageOps
+
+/**
+ * API MAY CHANGE
+ *
+ * Processing of committable messages with higher parallelism than the number of partitions.
+ */
+@ApiMayChange
+object KeyOrdered {
+
+  /**
+   * API MAY CHANGE
+   *
+   * Processes up to `parallelism` messages concurrently, messages with the same record key are processed in offset
+   * order one after the other. Keys are compared with `equals`, so keys like `byte[]` need to be deserialized
+   * to a type with value equality. Messages without a key (`null`) are not ordered, they are processed as soon as
+   * one of the `parallelism` slots is free.
+   *
+   * Emits a `CommittableOffsetBatch` holding the highest offset per partition below which all records completed,
+   * records completed after an earlier record which is still processed are not committed before it completes.
+   * Use [[Committer.sink]] to commit the emitted batches.
+   *
+   * The stage fails if processing a message fails.
+   */
+  @ApiMayChange
+  def flow[K, V, T](
+      parallelism: Int,
+      process: java.util.function.Function[CommittableMessage[K, V], CompletionStage[T]]
+  ): Flow[CommittableMessage[K, V], CommittableOffsetBatch, NotUsed] =
+    scaladsl.KeyOrdered.flow[K, V](parallelism)(message => process(message).toScala).asJava
+}
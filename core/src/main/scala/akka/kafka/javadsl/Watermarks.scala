@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.javadsl
+
+import akka.NotUsed
+import akka.annotation.ApiMayChange
+import akka.kafka.ConsumerMessage.CommittableMessage
+import akka.kafka.{scaladsl, WatermarkTracker, Watermarked}
+import akka.stream.javadsl.Flow
+import org.apache.kafka.clients.consumer.ConsumerRecord
+
+/**
+ * API MAY CHANGE
+ *
+ * Event time low watermarks across the partitions of a consumer, e.g. for windowed aggregations.
+ */
+@ApiMayChange
+object Watermarks {
+
+  /**
+   * API MAY CHANGE
+   *
+   * Passes the elements on and emits a [[Watermarked.Watermark]] after an element or idle check which advanced the
+   * lowest event time across the assigned partitions which are not idle. A partition is idle when it had no element
+   * for the tracker's idle timeout. The watermark never decreases, elements of a partition which was idle may have
+   * event times before it.
+   *
+   * Partitions are known from the `tracker`'s assignment handler and from the elements' records.
+   */
+  @ApiMayChange
+  def flow[T](tracker: WatermarkTracker,
+              record: java.util.function.Function[T, ConsumerRecord[_, _]],
+              eventTime: java.util.function.ToLongFunction[T]): Flow[T, Watermarked[T], NotUsed] =
+    scaladsl.Watermarks.flow[T](tracker)(record.apply, eventTime.applyAsLong).asJava
+
+  /**
+   * API MAY CHANGE
+   *
+   * The watermark [[#flow]] for records, using the record timestamps as event time.
+   */
+  @ApiMayChange
+  def plainFlow[K, V](
+      tracker: WatermarkTracker
+  ): Flow[ConsumerRecord[K, V], Watermarked[ConsumerRecord[K, V]], NotUsed] =
+    scaladsl.Watermarks.plainFlow[K, V](tracker).asJava
+
+  /**
+   * API MAY CHANGE
+   *
+   * The watermark [[#flow]] for committable messages, using the record timestamps as event time.
+   */
+  @ApiMayChange
+  def committableFlow[K, V](
+      tracker: WatermarkTracker
+  ): Flow[CommittableMessage[K, V], Watermarked[CommittableMessage[K, V]], NotUsed] =
+    scaladsl.Watermarks.committableFlow[K, V](tracker).asJava
+}
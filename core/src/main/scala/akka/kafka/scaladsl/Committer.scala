@@ -7,9 +7,9 @@ package akka.kafka.scaladsl
 
 import akka.annotation.ApiMayChange
 import akka.dispatch.ExecutionContexts
-import akka.kafka.CommitterSettings
+import akka.kafka.{CommitterMetrics, CommitterSettings}
 import akka.kafka.ConsumerMessage.{Committable, CommittableOffsetBatch}
-import akka.kafka.internal.CommitCollectorStage
+import akka.kafka.internal.{CommitBatching, CommitCollectorStage, ShardedCommitStage}
 import akka.stream.scaladsl.{Flow, FlowWithContext, Keep, Sink}
 import akka.{Done, NotUsed}
 
@@ -26,23 +26,89 @@ object Committer {
   /**
    * Batches offsets and commits them to Kafka, emits `CommittableOffsetBatch` for every committed batch.
    */
-  def batchFlow(settings: CommitterSettings): Flow[Committable, CommittableOffsetBatch, NotUsed] = {
-    val offsetBatches: Flow[Committable, CommittableOffsetBatch, NotUsed] =
-      Flow
-        .fromGraph(new CommitCollectorStage(settings))
-
-    // See https://github.com/akka/alpakka-kafka/issues/882
-    import akka.kafka.CommitDelivery._
-    settings.delivery match {
-      case WaitForAck =>
-        offsetBatches
-          .mapAsyncUnordered(settings.parallelism) { batch =>
-            batch.commitInternal().map(_ => batch)(ExecutionContexts.parasitic)
-          }
-      case SendAndForget =>
-        offsetBatches.map(_.tellCommit())
+  def batchFlow(settings: CommitterSettings): Flow[Committable, CommittableOffsetBatch, NotUsed] =
+    if (settings.adaptive.enable) batchFlowWithMetrics(settings).mapMaterializedValue(_ => NotUsed)
+    else {
+      val offsetBatches: Flow[Committable, CommittableOffsetBatch, NotUsed] =
+        Flow
+          .fromGraph(new CommitCollectorStage(settings))
+
+      // See https://github.com/akka/alpakka-kafka/issues/882
+      import akka.kafka.CommitDelivery._
+      settings.delivery match {
+        case WaitForAck if shardedCommits(settings) =>
+          offsetBatches.via(shardedCommitStage(settings, settings.parallelism, batching = None))
+        case WaitForAck =>
+          offsetBatches
+            .mapAsyncUnordered(settings.parallelism) { batch =>
+              batch.commitInternal().map(_ => batch)(ExecutionContexts.parasitic)
+            }
+        case SendAndForget =>
+          offsetBatches.map(_.tellCommit())
+      }
     }
-  }
+
+  /**
+   * API MAY CHANGE
+   *
+   * Batches offsets and commits them to Kafka, emits `CommittableOffsetBatch` for every committed batch. Materializes
+   * the committer's metrics, such as the batch size and interval adapted by
+   * [[akka.kafka.AdaptiveCommitSettings adaptive commits]] and the commit round trip time.
+   */
+  @ApiMayChange
+  def batchFlowWithMetrics(
+      settings: CommitterSettings
+  ): Flow[Committable, CommittableOffsetBatch, Future[CommitterMetrics]] =
+    Flow.fromMaterializer { (_, _) =>
+      val batching = new CommitBatching(settings)
+      val offsetBatches = Flow.fromGraph(new CommitCollectorStage(settings, Some(batching)))
+
+      import akka.kafka.CommitDelivery._
+      val committed = settings.delivery match {
+        case WaitForAck if shardedCommits(settings) =>
+          offsetBatches.via(shardedCommitStage(settings, batching.parallelism, Some(batching)))
+        case WaitForAck =>
+          offsetBatches
+            .mapAsyncUnordered(batching.parallelism) { batch =>
+              val start = batching.commitStarted()
+              batch
+                .commitInternal()
+                .map { _ =>
+                  batching.commitCompleted(start)
+                  batch
+                }(ExecutionContexts.parasitic)
+            }
+        case SendAndForget =>
+          offsetBatches.map(_.tellCommit())
+      }
+      committed.mapMaterializedValue(_ => batching: CommitterMetrics)
+    }
+
+  private def shardedCommits(settings: CommitterSettings): Boolean =
+    settings.coalesceCommits || settings.parallelismPerConsumer > 0
+
+  private def shardedCommitStage(settings: CommitterSettings,
+                                 parallelism: Int,
+                                 batching: Option[CommitBatching]): ShardedCommitStage =
+    new ShardedCommitStage(
+      parallelism,
+      inFlightPerConsumer = math.max(1, settings.parallelismPerConsumer),
+      // adaptive commits bound the commits in flight of all consumers, the batch interval is based on it
+      maxInFlight = if (batching.isDefined && settings.adaptive.enable) batching.get.parallelism else Int.MaxValue,
+      coalesce = settings.coalesceCommits,
+      batching
+    )
+
+  /**
+   * API MAY CHANGE
+   *
+   * Batches offsets and commits them to Kafka, emits `Done` for every committed batch. Materializes the committer's
+   * metrics, such as the batch size and interval adapted by [[akka.kafka.AdaptiveCommitSettings adaptive commits]]
+   * and the commit round trip time.
+   */
+  @ApiMayChange
+  def flowWithMetrics(settings: CommitterSettings): Flow[Committable, Done, Future[CommitterMetrics]] =
+    batchFlowWithMetrics(settings).map(_ => Done)
 
   /**
    * API MAY CHANGE
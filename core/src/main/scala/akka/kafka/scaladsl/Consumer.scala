@@ -8,7 +8,7 @@ package akka.kafka.scaladsl
 import akka.actor.ActorRef
 import akka.annotation.ApiMayChange
 import akka.dispatch.ExecutionContexts
-import akka.kafka.ConsumerMessage.{CommittableMessage, CommittableOffset}
+import akka.kafka.ConsumerMessage.{CommittableMessage, CommittableMessages, CommittableOffset}
 import akka.kafka._
 import akka.kafka.internal._
 import akka.stream.scaladsl.{Source, SourceWithContext}
@@ -16,6 +16,7 @@ import akka.{Done, NotUsed}
 import org.apache.kafka.clients.consumer.ConsumerRecord
 import org.apache.kafka.common.{Metric, MetricName, TopicPartition}
 
+import scala.collection.immutable
 import scala.concurrent.duration.FiniteDuration
 import scala.concurrent.{ExecutionContext, Future}
 
@@ -146,6 +147,36 @@ object Consumer {
     def apply[T]: (Control, Future[T]) => DrainingControl[T] = new DrainingControl[T](_, _)
   }
 
+  /**
+   * API MAY CHANGE
+   *
+   * Materialized value of the [[#backfillSource]], controlling all of its Kafka consumers.
+   */
+  @ApiMayChange
+  trait BackfillControl extends Control {
+
+    /** Progress of each of the consumers, completed once the consumers were started. */
+    def progress: Future[immutable.Seq[BackfillProgress]]
+  }
+
+  /**
+   * API MAY CHANGE
+   *
+   * Materialized value of the [[#compactedTableSource]], giving access to the table.
+   */
+  @ApiMayChange
+  trait CompactedTableControl[K, V] extends Control {
+
+    /** The table, which is updated while the source runs. */
+    def table: CompactedTable[K, V]
+
+    /** Completes once the records up to the end offsets at start were applied to the table. */
+    def caughtUp: Future[Done]
+
+    /** Bootstrap progress per partition, completed once the offsets to bootstrap from were looked up. */
+    def bootstrapProgress: Future[immutable.Seq[TablePartitionProgress]]
+  }
+
   /**
    * An implementation of Control to be used as an empty value, all methods return
    * a failed future.
@@ -174,6 +205,95 @@ object Consumer {
                         subscription: Subscription): Source[ConsumerRecord[K, V], Control] =
     Source.fromGraph(new PlainSource[K, V](settings, subscription))
 
+  /**
+   * API MAY CHANGE
+   *
+   * Like [[#plainSource]], but the consumer actor only hands the records matching the selection to the source
+   * stage, see [[akka.kafka.RecordSelection]].
+   */
+  @ApiMayChange
+  def plainSource[K, V](settings: ConsumerSettings[K, V],
+                        subscription: Subscription,
+                        selection: RecordSelection[K, V]): Source[ConsumerRecord[K, V], Control] =
+    Source.fromGraph(new PlainSource[K, V](settings, subscription, Some(selection)))
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `boundedSource` reads the assigned partitions from their start position up to the end offsets they have
+   * when the source starts, and completes once all records before those were emitted. Partitions which reached their
+   * end offset are paused while the others are read, the Kafka consumer is closed on completion.
+   *
+   * Offsets are not committed, use it for backfills and reconciliation.
+   */
+  @ApiMayChange
+  def boundedSource[K, V](settings: ConsumerSettings[K, V],
+                          subscription: ManualSubscription): Source[ConsumerRecord[K, V], Control] =
+    Source.fromGraph(new PlainBoundedSource[K, V](settings, subscription))
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `boundedPartitionedSource` emits a [[#boundedSource]] per assigned partition, each of them reading the
+   * partition up to its end offset with a Kafka consumer of its own.
+   */
+  @ApiMayChange
+  def boundedPartitionedSource[K, V](
+      settings: ConsumerSettings[K, V],
+      subscription: ManualSubscription
+  ): Source[(TopicPartition, Source[ConsumerRecord[K, V], Control]), NotUsed] =
+    Source(BoundedSources.perPartition(subscription)).map {
+      case (tp, partitionSubscription) => tp -> boundedSource(settings, partitionSubscription)
+    }
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `backfillSource` reads the assigned partitions up to their end offsets like the [[#boundedSource]], but
+   * spreads the partitions across up to `consumers` Kafka consumers which fetch in parallel, and merges the records
+   * they emit. The order of records is only kept per partition.
+   *
+   * The materialized [[BackfillControl]] controls all consumers and exposes their progress.
+   */
+  @ApiMayChange
+  def backfillSource[K, V](settings: ConsumerSettings[K, V],
+                           subscription: ManualSubscription,
+                           consumers: Int,
+                           sharding: BackfillSharding): Source[ConsumerRecord[K, V], BackfillControl] =
+    BackfillSource(settings, subscription, consumers, sharding)
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `compactedTableSource` materializes a compacted topic into a table. It reads all partitions of the topic
+   * from their beginning up to the end offsets they have at start, completes `caughtUp` and then keeps applying new
+   * records. Records with a `null` value (tombstones) delete their key. The source emits each record after it was
+   * applied to the table.
+   *
+   * The table is kept in the `store`, see [[TableStore]] for the available stores. Offsets are not committed, the
+   * table is bootstrapped again on each materialization.
+   */
+  @ApiMayChange
+  def compactedTableSource[K, V](settings: ConsumerSettings[K, V],
+                                 topic: String,
+                                 store: TableStore[K, V]): Source[ConsumerRecord[K, V], CompactedTableControl[K, V]] =
+    CompactedTableSource(settings, topic, store, None)
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `compactedTableSource` which restores the table from the latest local snapshot, if there is one, and reads
+   * the topic from the offsets the snapshot reached. Snapshots are taken periodically while the source runs.
+   *
+   * Snapshots require the [[TableStore#serialized]] store.
+   */
+  @ApiMayChange
+  def compactedTableSource[K, V](settings: ConsumerSettings[K, V],
+                                 topic: String,
+                                 store: TableStore[K, V],
+                                 snapshots: TableSnapshots): Source[ConsumerRecord[K, V], CompactedTableControl[K, V]] =
+    CompactedTableSource(settings, topic, store, Some(snapshots))
+
   /**
    * The `committableSource` makes it possible to commit offset positions to Kafka.
    * This is useful when "at-least once delivery" is desired, as each message will likely be
@@ -191,6 +311,50 @@ object Consumer {
                               subscription: Subscription): Source[CommittableMessage[K, V], Control] =
     Source.fromGraph(new CommittableSource[K, V](settings, subscription))
 
+  /**
+   * API MAY CHANGE
+   *
+   * Like [[#committableSource]], but the consumer actor only hands the records matching the selection to the source
+   * stage, see [[akka.kafka.RecordSelection]]. The offsets of filtered records are committed with the next emitted
+   * message of their partition, or by the consumer actor once all emitted messages before them were committed.
+   */
+  @ApiMayChange
+  def committableSource[K, V](settings: ConsumerSettings[K, V],
+                              subscription: Subscription,
+                              selection: RecordSelection[K, V]): Source[CommittableMessage[K, V], Control] =
+    Source.fromGraph(new CommittableSource[K, V](settings, subscription, selection = Some(selection)))
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `plainBatchSource` emits the records received from the underlying `KafkaConsumer` in immutable batches
+   * of at most `maxRecords` records and `maxBytes` serialized key and value bytes. A batch never spans more
+   * records than are buffered when it is emitted, and it always contains at least one record even if that record
+   * alone exceeds `maxBytes`.
+   *
+   * Like [[#plainSource]] it has no support for committing offsets to Kafka.
+   */
+  @ApiMayChange
+  def plainBatchSource[K, V](settings: ConsumerSettings[K, V],
+                             subscription: Subscription,
+                             maxRecords: Int,
+                             maxBytes: Long): Source[immutable.Seq[ConsumerRecord[K, V]], Control] =
+    Source.fromGraph(new PlainBatchSource[K, V](settings, subscription, maxRecords, maxBytes))
+
+  /**
+   * API MAY CHANGE
+   *
+   * The `committableBatchSource` emits the records received from the underlying `KafkaConsumer` in batches
+   * capped like in [[#plainBatchSource]], together with a single `CommittableOffsetBatch` covering the
+   * highest offset per partition of the batch. Committing it acknowledges the whole batch.
+   */
+  @ApiMayChange
+  def committableBatchSource[K, V](settings: ConsumerSettings[K, V],
+                                   subscription: Subscription,
+                                   maxRecords: Int,
+                                   maxBytes: Long): Source[CommittableMessages[K, V], Control] =
+    Source.fromGraph(new CommittableBatchSource[K, V](settings, subscription, maxRecords, maxBytes))
+
   /**
    * API MAY CHANGE
    *
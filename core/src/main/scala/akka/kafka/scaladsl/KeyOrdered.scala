@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.scaladsl
+
+import akka.NotUsed
+import akka.annotation.ApiMayChange
+import akka.kafka.ConsumerMessage.{CommittableMessage, CommittableOffsetBatch}
+import akka.kafka.internal.KeyOrderedStage
+import akka.stream.scaladsl.Flow
+
+import scala.concurrent.Future
+
+/**
+ * API MAY CHANGE
+ *
+ * Processing of committable messages with higher parallelism than the number of partitions.
+ */
+@ApiMayChange
+object KeyOrdered {
+
+  /**
+   * API MAY CHANGE
+   *
+   * Processes up to `parallelism` messages concurrently, messages with the same record key are processed in offset
+   * order one after the other. Keys are compared with `equals`, so keys like `Array[Byte]` need to be deserialized
+   * to a type with value equality. Messages without a key (`null`) are not ordered, they are processed as soon as
+   * one of the `parallelism` slots is free.
+   *
+   * Emits a `CommittableOffsetBatch` holding the highest offset per partition below which all records completed,
+   * records completed after an earlier record which is still processed are not committed before it completes.
+   * Use [[Committer.sink]] to commit the emitted batches.
+   *
+   * The stage fails if processing a message fails.
+   */
+  @ApiMayChange
+  def flow[K, V](parallelism: Int)(
+      process: CommittableMessage[K, V] => Future[_]
+  ): Flow[CommittableMessage[K, V], CommittableOffsetBatch, NotUsed] =
+    Flow.fromGraph(new KeyOrderedStage[K, V](parallelism, process))
+}
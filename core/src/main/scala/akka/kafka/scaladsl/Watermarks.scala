@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.scaladsl
+
+import akka.NotUsed
+import akka.annotation.ApiMayChange
+import akka.kafka.ConsumerMessage.CommittableMessage
+import akka.kafka.internal.WatermarkStage
+import akka.kafka.{WatermarkTracker, Watermarked}
+import akka.stream.scaladsl.Flow
+import org.apache.kafka.clients.consumer.ConsumerRecord
+
+/**
+ * API MAY CHANGE
+ *
+ * Event time low watermarks across the partitions of a consumer, e.g. for windowed aggregations.
+ */
+@ApiMayChange
+object Watermarks {
+
+  /**
+   * API MAY CHANGE
+   *
+   * Passes the elements on and emits a [[Watermarked.Watermark]] after an element or idle check which advanced the
+   * lowest event time across the assigned partitions which are not idle. A partition is idle when it had no element
+   * for the tracker's idle timeout. The watermark never decreases, elements of a partition which was idle may have
+   * event times before it.
+   *
+   * Partitions are known from the `tracker`'s assignment handler and from the elements' records.
+   */
+  @ApiMayChange
+  def flow[T](tracker: WatermarkTracker)(record: T => ConsumerRecord[_, _],
+                                         eventTime: T => Long): Flow[T, Watermarked[T], NotUsed] =
+    Flow.fromGraph(new WatermarkStage[T](tracker, record, eventTime))
+
+  /**
+   * API MAY CHANGE
+   *
+   * The watermark [[#flow]] for records, using the record timestamps as event time.
+   */
+  @ApiMayChange
+  def plainFlow[K, V](
+      tracker: WatermarkTracker
+  ): Flow[ConsumerRecord[K, V], Watermarked[ConsumerRecord[K, V]], NotUsed] =
+    flow[ConsumerRecord[K, V]](tracker)(identity, _.timestamp)
+
+  /**
+   * API MAY CHANGE
+   *
+   * The watermark [[#flow]] for committable messages, using the record timestamps as event time.
+   */
+  @ApiMayChange
+  def committableFlow[K, V](
+      tracker: WatermarkTracker
+  ): Flow[CommittableMessage[K, V], Watermarked[CommittableMessage[K, V]], NotUsed] =
+    flow[CommittableMessage[K, V]](tracker)(_.record, _.record.timestamp)
+}
@@ -17,6 +17,7 @@ import org.scalatest.matchers.should.Matchers
 import org.scalatest.wordspec.AnyWordSpec
 
 import scala.concurrent.ExecutionContext
+import scala.concurrent.duration._
 
 class ConsumerSettingsSpec
     extends AnyWordSpec
@@ -109,6 +110,28 @@ class ConsumerSettingsSpec
       s should not include ("geheim")
     }
 
+    "read adaptive poll settings from config" in {
+      val conf = ConfigFactory.parseString("""
+        akka.kafka.consumer.adaptive-poll.enable = true
+        akka.kafka.consumer.adaptive-poll.max-interval = 2s
+        """).withFallback(ConfigFactory.load()).getConfig("akka.kafka.consumer")
+      val settings = ConsumerSettings(conf, new ByteArrayDeserializer, new StringDeserializer)
+      settings.adaptivePollSettings.enable shouldBe true
+      settings.adaptivePollSettings.maxInterval shouldBe 2.seconds
+      settings.adaptivePollSettings.backoffFactor shouldBe 2.0d
+    }
+
+    "read commit polling settings from config" in {
+      val conf = ConfigFactory.parseString("""
+        akka.kafka.consumer.commit-polling.spin-polls = 0
+        akka.kafka.consumer.commit-polling.follow-up-interval = 2ms
+        """).withFallback(ConfigFactory.load()).getConfig("akka.kafka.consumer")
+      val settings = ConsumerSettings(conf, new ByteArrayDeserializer, new StringDeserializer)
+      settings.commitPollingSettings.spinPolls shouldBe 0
+      settings.commitPollingSettings.parkTime shouldBe 10.micros
+      settings.commitPollingSettings.followUpInterval shouldBe 2.millis
+    }
+
     "throw IllegalArgumentException if no value deserializer defined" in {
       val conf = ConfigFactory
         .parseString(
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka
+
+import akka.kafka.tests.scaladsl.LogCapturing
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.jdk.CollectionConverters._
+
+class RecordSelectionSpec extends AnyWordSpec with Matchers with LogCapturing {
+
+  def chunk(offsets: Long*): java.util.List[ConsumerRecord[String, String]] =
+    offsets.map(offset => new ConsumerRecord("topic", 0, offset, s"k$offset", s"v$offset")).asJava
+
+  "A record selection" should {
+    "pass the chunk itself when all records are selected" in {
+      val records = chunk(1, 2, 3)
+      RecordSelection.all[String, String].apply(records) should be theSameInstanceAs records
+      RecordSelection[String, String](_ => true).apply(records) should be theSameInstanceAs records
+    }
+
+    "drop the records not matching the predicate" in {
+      val selection = RecordSelection[String, String](_.offset % 2 == 0)
+      selection(chunk(1, 2, 3, 4)).asScala.map(_.offset) shouldBe Seq(2L, 4L)
+      selection(chunk(2, 4, 5)).asScala.map(_.offset) shouldBe Seq(2L, 4L)
+      selection(chunk(1, 3)) shouldBe empty
+    }
+
+    "project the selected records" in {
+      val selection = RecordSelection[String, String](_.offset > 1).withProjection { record =>
+        new ConsumerRecord(record.topic, record.partition, record.offset, record.key, record.value.toUpperCase)
+      }
+      selection(chunk(1, 2, 3)).asScala.map(_.value) shouldBe Seq("V2", "V3")
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.actor.ActorRef
+import akka.kafka.tests.scaladsl.LogCapturing
+import org.apache.kafka.common.TopicPartition
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.jdk.CollectionConverters._
+
+class AssignmentIndexSpec extends AnyWordSpec with Matchers with LogCapturing {
+
+  val tp0 = new TopicPartition("topic", 0)
+  val tp1 = new TopicPartition("topic", 1)
+  val tp2 = new TopicPartition("topic", 2)
+  val stage: ActorRef = ActorRef.noSender
+
+  class RecordingConsumer extends ConsumerDummy[String, String] {
+    override def name: String = "recording"
+    var pauses = Vector.empty[Set[TopicPartition]]
+    var resumes = Vector.empty[Set[TopicPartition]]
+    override def pause(partitions: java.util.Collection[TopicPartition]): Unit = {
+      super.pause(partitions)
+      pauses :+= partitions.asScala.toSet
+    }
+    override def resume(partitions: java.util.Collection[TopicPartition]): Unit =
+      resumes :+= partitions.asScala.toSet
+  }
+
+  "The assignment index" should {
+    "pause all partitions on the first sync" in {
+      val consumer = new RecordingConsumer
+      val index = new AssignmentIndex
+      index.sync(consumer, index.isDemanded)
+      consumer.pauses shouldBe Vector(Set.empty)
+      consumer.resumes shouldBe empty
+    }
+
+    "only pause and resume partitions whose demand changed" in {
+      val consumer = new RecordingConsumer
+      val index = new AssignmentIndex
+      index.assign(Set(tp0, tp1, tp2), paused = true)
+      index.sync(consumer, index.isDemanded)
+      consumer.pauses shouldBe Vector(Set(tp0, tp1, tp2))
+
+      index.addDemand(stage, Set(tp1))
+      index.sync(consumer, index.isDemanded)
+      consumer.resumes shouldBe Vector(Set(tp1))
+
+      // nothing changed
+      index.sync(consumer, index.isDemanded)
+      consumer.pauses should have size 1
+      consumer.resumes should have size 1
+
+      index.removeDemand(stage, Set(tp1))
+      index.sync(consumer, index.isDemanded)
+      consumer.pauses shouldBe Vector(Set(tp0, tp1, tp2), Set(tp1))
+    }
+
+    "resume re-assigned partitions with outstanding demand" in {
+      val consumer = new RecordingConsumer
+      val index = new AssignmentIndex
+      index.assign(Set(tp0), paused = true)
+      index.addDemand(stage, Set(tp0))
+      index.sync(consumer, index.isDemanded)
+      consumer.resumes shouldBe Vector(Set(tp0))
+
+      index.revoke(Set(tp0))
+      index.isAssigned(tp0) shouldBe false
+      index.assign(Set(tp0), paused = true)
+      index.sync(consumer, index.isDemanded)
+      consumer.resumes shouldBe Vector(Set(tp0), Set(tp0))
+    }
+
+    "ignore demand for partitions not assigned" in {
+      val consumer = new RecordingConsumer
+      val index = new AssignmentIndex
+      index.sync(consumer, index.isDemanded)
+      index.addDemand(stage, Set(tp0))
+      index.sync(consumer, index.isDemanded)
+      consumer.resumes shouldBe empty
+      index.isDemanded(tp0) shouldBe true
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import akka.actor.ActorSystem
+import akka.kafka.scaladsl.Consumer
+import akka.kafka.tests.scaladsl.LogCapturing
+import akka.kafka.{BackfillSharding, ConsumerSettings, Subscriptions}
+import akka.stream.scaladsl.Keep
+import akka.stream.testkit.scaladsl.StreamTestKit.assertAllStagesStopped
+import akka.stream.testkit.scaladsl.TestSink
+import akka.testkit.TestKit
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.mockito.Mockito
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpecLike
+
+import scala.collection.immutable.Seq
+import scala.concurrent.Await
+import scala.jdk.CollectionConverters._
+
+object BackfillSourceSpec {
+  type K = String
+  type V = String
+
+  def records(tp: TopicPartition, offsets: Range): Seq[ConsumerRecord[K, V]] =
+    offsets.map { offset =>
+      new ConsumerRecord[K, V](tp.topic, tp.partition, offset.toLong, offset.toString, offset.toString)
+    }
+
+  /** Creates a consumer mock for each consumer of a backfill source, all with the same end offsets. */
+  class ConsumerMocks(endOffsets: Map[TopicPartition, Long]) {
+    private val created = new ConcurrentLinkedQueue[ConsumerMock[K, V]]()
+
+    def create(): org.apache.kafka.clients.consumer.Consumer[K, V] = {
+      val mock = new ConsumerMock[K, V]()
+      mock.setEndOffsets(endOffsets)
+      created.add(mock)
+      mock.mock
+    }
+
+    def all: List[ConsumerMock[K, V]] = created.asScala.toList
+
+    /** The consumer the partition was assigned to, fails while no consumer was assigned the partition. */
+    def assigned(tp: TopicPartition): ConsumerMock[K, V] =
+      all.find(_.mock.assignment().contains(tp)).getOrElse(throw new AssertionError(s"$tp is not assigned"))
+  }
+}
+
+class BackfillSourceSpec(_system: ActorSystem)
+    extends TestKit(_system)
+    with AnyWordSpecLike
+    with Matchers
+    with BeforeAndAfterAll
+    with LogCapturing {
+
+  import BackfillSourceSpec._
+
+  def this() = this(ActorSystem("BackfillSourceSpec"))
+
+  override def afterAll(): Unit =
+    shutdown(system)
+
+  def tp(partition: Int) = new TopicPartition("topic", partition)
+
+  def settings(mocks: ConsumerMocks): ConsumerSettings[K, V] =
+    ConsumerSettings
+      .create(system, new StringDeserializer, new StringDeserializer)
+      .withGroupId("group1")
+      .withCloseTimeout(ConsumerMock.closeTimeout)
+      .withConsumerFactory(_ => mocks.create())
+
+  def backfillSource(mocks: ConsumerMocks, partitions: Int, consumers: Int) =
+    Consumer
+      .backfillSource(settings(mocks),
+                      Subscriptions.assignment((0 until partitions).map(tp).toSet),
+                      consumers,
+                      BackfillSharding.RoundRobin)
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+  "A backfill source" should {
+    "read the partitions with a consumer per shard up to the end offsets" in assertAllStagesStopped {
+      val mocks = new ConsumerMocks(Map(tp(0) -> 3L, tp(1) -> 2L, tp(2) -> 1L, tp(3) -> 0L))
+      val (control, probe) = backfillSource(mocks, partitions = 4, consumers = 2)
+
+      probe.request(100)
+      awaitAssert {
+        mocks.all should have size 2
+        mocks.assigned(tp(0)).mock.assignment().asScala shouldBe Set(tp(0), tp(2))
+        mocks.assigned(tp(1)).mock.assignment().asScala shouldBe Set(tp(1), tp(3))
+      }
+
+      val progress = Await.result(control.progress, remainingOrDefault)
+      progress.map(p => (p.shard, p.partitions, p.records, p.estimatedRecords, p.completed)) shouldBe Seq(
+        (0, Set(tp(0), tp(2)), 0L, None, false),
+        (1, Set(tp(1), tp(3)), 0L, None, false)
+      )
+
+      mocks.assigned(tp(0)).enqueue(records(tp(0), 0 to 2) ++ records(tp(2), 0 to 0))
+      mocks.assigned(tp(1)).enqueue(records(tp(1), 0 to 1))
+      probe.expectNextN(6).map(r => (r.partition, r.offset)) should contain theSameElementsAs Seq(
+        (0, 0L),
+        (0, 1L),
+        (0, 2L),
+        (1, 0L),
+        (1, 1L),
+        (2, 0L)
+      )
+      probe.expectComplete()
+
+      awaitAssert {
+        val progress = Await.result(control.progress, remainingOrDefault)
+        progress.map(p => (p.shard, p.records, p.completed)) shouldBe Seq((0, 4L, true), (1, 2L, true))
+      }
+      mocks.all.foreach(mock => awaitAssert(mock.verifyClosed()))
+    }
+
+    "stop and shut down all of its consumers" in assertAllStagesStopped {
+      val mocks = new ConsumerMocks(Map(tp(0) -> 10L, tp(1) -> 10L))
+      val (control, probe) = backfillSource(mocks, partitions = 2, consumers = 2)
+
+      probe.request(100)
+      awaitAssert(mocks.assigned(tp(1)) should not be theSameInstanceAs(mocks.assigned(tp(0))))
+      mocks.assigned(tp(0)).enqueue(records(tp(0), 0 to 2))
+      mocks.assigned(tp(1)).enqueue(records(tp(1), 0 to 2))
+      probe.expectNextN(6)
+
+      Await.result(control.stop(), remainingOrDefault)
+      probe.expectComplete()
+      mocks.all.foreach(_.verifyClosed(Mockito.never()))
+
+      Await.result(control.shutdown(), remainingOrDefault)
+      mocks.all should have size 2
+      mocks.all.foreach(_.verifyClosed())
+      val progress = Await.result(control.progress, remainingOrDefault)
+      progress.map(_.records) shouldBe Seq(3L, 3L)
+    }
+  }
+
+  "Round robin sharding" should {
+    "deal the partitions in partition order" in {
+      BackfillSource.roundRobin((0 until 5).map(tp).toSet, 2) shouldBe List(
+        Set(tp(0), tp(2), tp(4)),
+        Set(tp(1), tp(3))
+      )
+    }
+
+    "not create more shards than partitions" in {
+      BackfillSource.roundRobin(Set(tp(0), tp(1)), 4) shouldBe List(Set(tp(0)), Set(tp(1)))
+    }
+  }
+
+  "Lag balanced sharding" should {
+    "assign the largest partitions first to the least loaded shard" in {
+      val lags = Map(tp(0) -> 100L, tp(1) -> 60L, tp(2) -> 50L, tp(3) -> 10L, tp(4) -> 0L)
+      BackfillSource.lagBalanced(lags, 2) shouldBe List(
+        Set(tp(0), tp(3), tp(4)),
+        Set(tp(1), tp(2))
+      )
+    }
+
+    "not create more shards than partitions" in {
+      BackfillSource.lagBalanced(Map(tp(0) -> 1L), 3) shouldBe List(Set(tp(0)))
+    }
+
+    "estimate the records from the subscription's offsets" in {
+      val beginning = Map(tp(0) -> 10L, tp(1) -> 10L)
+      val end = Map(tp(0) -> 100L, tp(1) -> 100L)
+      BackfillSource.estimateRecords(Subscriptions.assignment(tp(0), tp(1)), beginning, end) shouldBe Map(
+        tp(0) -> 90L,
+        tp(1) -> 90L
+      )
+      val withOffsets = Subscriptions.assignmentWithOffset(tp(0) -> 40L, tp(1) -> 0L)
+      BackfillSource.estimateRecords(withOffsets, beginning, end) shouldBe Map(
+        tp(0) -> 60L,
+        tp(1) -> 90L
+      )
+    }
+  }
+}
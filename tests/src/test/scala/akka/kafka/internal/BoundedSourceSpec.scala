@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.actor.ActorSystem
+import akka.kafka.internal.KafkaConsumerActor.Internal.{Assign, DeliveredPositions, GetDeliveredPositions}
+import akka.kafka.scaladsl.Consumer
+import akka.kafka.tests.scaladsl.LogCapturing
+import akka.kafka.{ConsumerSettings, ManualSubscription, Subscriptions}
+import akka.stream.scaladsl.Keep
+import akka.stream.testkit.scaladsl.StreamTestKit.assertAllStagesStopped
+import akka.stream.testkit.scaladsl.TestSink
+import akka.testkit.TestKit
+import com.typesafe.config.ConfigFactory
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.flatspec.AnyFlatSpecLike
+import org.scalatest.matchers.should.Matchers
+
+import scala.collection.immutable.Seq
+import scala.concurrent.duration._
+import scala.util.Success
+
+object BoundedSourceSpec {
+  type K = String
+  type V = String
+
+  val tp1 = new TopicPartition("topic", 1)
+  val tp2 = new TopicPartition("topic", 2)
+  val tp3 = new TopicPartition("topic", 3)
+
+  def records(tp: TopicPartition, offsets: Range): Seq[ConsumerRecord[K, V]] =
+    offsets.map { offset =>
+      new ConsumerRecord[K, V](tp.topic, tp.partition, offset.toLong, offset.toString, offset.toString)
+    }
+
+  class SlowDeserializer extends StringDeserializer {
+    override def deserialize(topic: String, data: Array[Byte]): String = {
+      Thread.sleep(100)
+      super.deserialize(topic, data)
+    }
+  }
+
+  /** The records as polled by a consumer deserializing with `ByteArrayDeserializer`. */
+  def rawRecords(tp: TopicPartition, offsets: Range): Seq[ConsumerRecord[K, V]] =
+    offsets.map { offset =>
+      new ConsumerRecord(tp.topic, tp.partition, offset.toLong, offset.toString.getBytes, offset.toString.getBytes)
+        .asInstanceOf[ConsumerRecord[K, V]]
+    }
+}
+
+class BoundedSourceSpec(_system: ActorSystem)
+    extends TestKit(_system)
+    with AnyFlatSpecLike
+    with Matchers
+    with BeforeAndAfterAll
+    with LogCapturing {
+
+  import BoundedSourceSpec._
+
+  def this() = this(ActorSystem("BoundedSourceSpec"))
+
+  override def afterAll(): Unit =
+    shutdown(system)
+
+  def settings(mock: ConsumerMock[K, V]): ConsumerSettings[K, V] =
+    ConsumerSettings
+      .create(system, new StringDeserializer, new StringDeserializer)
+      .withGroupId("group1")
+      .withCloseTimeout(ConsumerMock.closeTimeout)
+      .withConsumerFactory(_ => mock.mock)
+
+  def boundedSource(settings: ConsumerSettings[K, V], subscription: ManualSubscription) =
+    Consumer
+      .boundedSource(settings, subscription)
+      .toMat(TestSink.probe)(Keep.right)
+      .run()
+
+  "A bounded source" should "complete once the records before the end offsets were emitted" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    mock.setEndOffsets(Map(tp1 -> 5L))
+    val probe = boundedSource(settings(mock), Subscriptions.assignment(tp1))
+
+    probe.request(100)
+    // records beyond the end offset are not emitted
+    mock.enqueue(records(tp1, 0 to 7))
+    probe.expectNextN(5).map(_.offset) shouldBe (0L to 4L)
+    probe.expectComplete()
+    mock.verifyClosed()
+  }
+
+  it should "complete once the consumer moved past records which are not returned" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    mock.setEndOffsets(Map(tp1 -> 6L))
+    val probe = boundedSource(settings(mock), Subscriptions.assignment(tp1))
+
+    probe.request(100)
+    mock.enqueue(records(tp1, 0 to 4))
+    probe.expectNextN(5).map(_.offset) shouldBe (0L to 4L)
+    probe.expectNoMessage(200.millis)
+
+    // e.g. a transaction marker at offset 5
+    mock.setPosition(tp1, 6L)
+    probe.expectComplete()
+  }
+
+  it should "not wait for empty and caught up partitions" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    mock.setEndOffsets(Map(tp1 -> 3L, tp2 -> 0L, tp3 -> 8L))
+    mock.setPosition(tp3, 8L)
+    val probe = boundedSource(settings(mock), Subscriptions.assignment(tp1, tp2, tp3))
+
+    probe.request(100)
+    mock.enqueue(records(tp1, 0 to 2))
+    probe.expectNextN(3).map(r => (r.partition, r.offset)) shouldBe Seq((1, 0L), (1, 1L), (1, 2L))
+    probe.expectComplete()
+  }
+
+  it should "complete right away if all partitions are empty" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    mock.setEndOffsets(Map(tp1 -> 0L, tp2 -> 0L))
+    val probe = boundedSource(settings(mock), Subscriptions.assignment(tp1, tp2))
+
+    probe.request(1)
+    probe.expectComplete()
+  }
+
+  it should "emit the records still being deserialized when the end offset was delivered" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    mock.setEndOffsets(Map(tp1 -> 5L))
+    // parallel deserialization requires the deserializers to be configured as class names
+    val config = ConfigFactory
+      .parseString(s"""kafka-clients {
+                      |  key.deserializer = "${classOf[StringDeserializer].getName}"
+                      |  value.deserializer = "${classOf[SlowDeserializer].getName}"
+                      |}""".stripMargin)
+      .withFallback(system.settings.config.getConfig(ConsumerSettings.configPath))
+    val probe = boundedSource(
+      ConsumerSettings[K, V](config, None, None)
+        .withGroupId("group1")
+        .withCloseTimeout(ConsumerMock.closeTimeout)
+        .withConsumerFactory(_ => mock.mock)
+        .withDeserializationParallelism(2),
+      Subscriptions.assignment(tp1)
+    )
+
+    probe.request(100)
+    mock.enqueue(rawRecords(tp1, 0 to 4))
+    probe.expectNextN(5).map(_.value) shouldBe (0 to 4).map(_.toString)
+    probe.expectComplete()
+  }
+
+  "The consumer actor" should "report the delivered positions" in {
+    val mock = new ConsumerMock[K, V]()
+    mock.setPosition(tp1, 10L)
+    val actor = system.actorOf(
+      akka.kafka.KafkaConsumerActor.props(settings(mock).withPrefetchPerPartition(records = 100, bytes = 1024 * 1024))
+    )
+    actor ! Assign(Set(tp1, tp2))
+
+    actor ! GetDeliveredPositions(Set(tp1, tp2))
+    expectMsg(DeliveredPositions(Success(Map(tp1 -> 10L, tp2 -> 0L))))
+
+    // prefetched records were not delivered yet
+    mock.enqueue(records(tp1, 10 to 14))
+    awaitCond(mock.position(tp1) == 15L)
+    actor ! GetDeliveredPositions(Set(tp1))
+    expectMsg(DeliveredPositions(Success(Map(tp1 -> 10L))))
+
+    watch(actor)
+    actor ! akka.kafka.KafkaConsumerActor.Stop
+    expectTerminated(actor)
+  }
+}
@@ -7,19 +7,19 @@ package akka.kafka.internal
 
 import java.util.concurrent.atomic.AtomicLong
 import akka.Done
-import akka.actor.ActorSystem
+import akka.actor.{ActorRef, ActorSystem}
 import akka.event.LoggingAdapter
 import akka.kafka.ConsumerMessage.{Committable, CommittableOffset, CommittableOffsetBatch}
 import akka.kafka.scaladsl.{Committer, Consumer}
 import akka.kafka.testkit.ConsumerResultFactory
 import akka.kafka.testkit.scaladsl.{ConsumerControlFactory, Slf4jToAkkaLoggingAdapter}
 import akka.kafka.tests.scaladsl.LogCapturing
-import akka.kafka.{CommitWhen, CommitterSettings, Repeated}
+import akka.kafka.{AdaptiveCommitSettings, CommitWhen, CommitterSettings, Repeated}
 import akka.stream.scaladsl.Keep
 import akka.stream.testkit.scaladsl.StreamTestKit.assertAllStagesStopped
 import akka.stream.testkit.scaladsl.{TestSink, TestSource}
 import akka.stream.testkit.{TestPublisher, TestSubscriber}
-import akka.testkit.TestKit
+import akka.testkit.{TestKit, TestProbe}
 import org.apache.kafka.clients.consumer.OffsetAndMetadata
 import org.apache.kafka.common.TopicPartition
 import org.scalatest.concurrent.{Eventually, IntegrationPatience, ScalaFutures}
@@ -365,6 +365,123 @@ class CommitCollectorStageSpec(_system: ActorSystem)
         control.shutdown().futureValue shouldBe Done
       }
     }
+
+    "committing adaptively" should {
+      val settings = DefaultCommitterSettings
+        .withMaxBatch(1000)
+        .withMaxInterval(10.hours)
+        .withAdaptive(
+          AdaptiveCommitSettings(minBatch = 5, minInterval = 10.millis, maxCommitsInFlight = 1, targetLag = 200.millis)
+        )
+
+      "commit within the target lag and adapt the batch size to the inflow" in assertAllStagesStopped {
+        val offsetFactory = TestOffsetFactory(new TestBatchCommitter(settings))
+        val ((sourceProbe, metrics), sinkProbe) = TestSource
+          .probe[Committable]
+          .viaMat(Committer.batchFlowWithMetrics(settings))(Keep.both)
+          .toMat(TestSink.probe)(Keep.both)
+          .run()
+
+        sinkProbe.request(100)
+        // the interval starts out from the target lag instead of `max-interval`
+        sourceProbe.sendNext(offsetFactory.makeOffset())
+        sinkProbe.expectNext(2.seconds).batchSize shouldBe 1L
+
+        // a single offset within the interval shrinks the batch to its minimum
+        def metricValues = metrics.futureValue.metrics.map { case (name, metric) => name.name -> metric.metricValue }
+        metricValues("commit-max-batch") shouldBe 5L
+        metricValues("commit-max-interval-ms").asInstanceOf[java.lang.Long].longValue should be <= 200L
+
+        (1 to 5).foreach(_ => sourceProbe.sendNext(offsetFactory.makeOffset()))
+        sinkProbe.expectNext().batchSize shouldBe 5L
+
+        sourceProbe.sendComplete()
+        sinkProbe.expectComplete()
+      }
+    }
+
+    "coalescing commits" should {
+      val settings = DefaultCommitterSettings.withMaxBatch(1).withCoalesceCommits(true)
+
+      "merge batches arriving while a commit is in flight into the next commit" in assertAllStagesStopped {
+        val (sourceProbe, control, sinkProbe) = streamProbes(settings)
+        val committer = new TestBatchCommitter(settings, () => 200.millis)
+        val factory = TestOffsetFactory(committer)
+
+        sinkProbe.request(100)
+        val msgs = (1 to 5).map(_ => factory.makeOffset())
+        msgs.foreach(sourceProbe.sendNext)
+
+        val first = sinkProbe.expectNext()
+        first.batchSize shouldBe 1
+        first.offsets.values.last shouldBe msgs.head.partitionOffset.offset
+
+        val merged = sinkProbe.expectNext()
+        merged.batchSize shouldBe 4 withClue "the merged batch acknowledges all batches merged into it"
+        merged.offsets.values.last shouldBe msgs.last.partitionOffset.offset
+        committer.commits.size shouldBe 2 withClue "expected the batches sent during the first commit to be merged"
+
+        sourceProbe.sendComplete()
+        sinkProbe.expectComplete()
+        control.shutdown().futureValue shouldBe Done
+      }
+    }
+
+    "committing per consumer" should {
+      val settings = DefaultCommitterSettings.withMaxBatch(2).withMaxInterval(10.hours).withParallelismPerConsumer(1)
+
+      "not hold back the commits of a consumer behind a slow consumer" in assertAllStagesStopped {
+        val (sourceProbe, control, sinkProbe) = streamProbes(settings)
+        val slow = TestOffsetFactory(new TestBatchCommitter(settings, () => 1.second, TestProbe().ref))
+        val fast = TestOffsetFactory(new TestBatchCommitter(settings, () => Duration.Zero, TestProbe().ref))
+
+        sinkProbe.request(100)
+        // the first batch spans both consumers, the second one only the fast consumer
+        sourceProbe.sendNext(slow.makeOffset(partitionNum = 1))
+        sourceProbe.sendNext(fast.makeOffset(partitionNum = 2))
+        sourceProbe.sendNext(fast.makeOffset(partitionNum = 2))
+        sourceProbe.sendNext(fast.makeOffset(partitionNum = 2))
+
+        val fastBatches = sinkProbe.expectNextN(2)
+        fastBatches.flatMap(_.offsets.keys.map(_.partition)).toSet shouldBe Set(2)
+
+        val slowBatch = sinkProbe.expectNext(3.seconds)
+        slowBatch.offsets.keys.map(_.partition) shouldBe Set(1)
+        (fastBatches :+ slowBatch).map(_.batchSize).sum shouldBe 4L
+
+        sourceProbe.sendComplete()
+        sinkProbe.expectComplete()
+        control.shutdown().futureValue shouldBe Done
+      }
+
+      "bound the commits in flight of all consumers with adaptive commits" in assertAllStagesStopped {
+        val adaptiveSettings = settings
+          .withMaxBatch(1)
+          .withAdaptive(
+            AdaptiveCommitSettings(minBatch = 1, minInterval = 1.milli, maxCommitsInFlight = 1, targetLag = 1.second)
+          )
+        val committers =
+          (1 to 3).map(_ => new TestBatchCommitter(adaptiveSettings, () => 300.millis, TestProbe().ref))
+        val ((sourceProbe, _), sinkProbe) = TestSource
+          .probe[Committable]
+          .viaMat(Committer.batchFlowWithMetrics(adaptiveSettings))(Keep.both)
+          .toMat(TestSink.probe)(Keep.both)
+          .run()
+
+        sinkProbe.request(100)
+        committers.zipWithIndex.foreach {
+          case (committer, i) => sourceProbe.sendNext(TestOffsetFactory(committer).makeOffset(partitionNum = i))
+        }
+        sinkProbe.expectNoMessage(150.millis)
+        committers.map(_.commits.size).sum shouldBe 1 withClue "expected a single commit in flight"
+
+        sinkProbe.expectNextN(3).map(_.batchSize).sum shouldBe 3L
+        committers.map(_.commits.size) shouldBe Seq(1, 1, 1)
+
+        sourceProbe.sendComplete()
+        sinkProbe.expectComplete()
+      }
+    }
   }
 
   @scala.annotation.tailrec
@@ -450,7 +567,8 @@ class CommitCollectorStageSpec(_system: ActorSystem)
 
   class TestBatchCommitter(
       commitSettings: CommitterSettings,
-      commitDelay: () => FiniteDuration = () => Duration.Zero
+      commitDelay: () => FiniteDuration = () => Duration.Zero,
+      consumerActor: ActorRef = null
   )(
       implicit system: ActorSystem
   ) {
@@ -466,7 +584,7 @@ class CommitCollectorStageSpec(_system: ActorSystem)
     }
 
     private[akka] val underlying =
-      new KafkaAsyncConsumerCommitterRef(consumerActor = null, commitSettings.maxInterval)(system.dispatcher) {
+      new KafkaAsyncConsumerCommitterRef(consumerActor, commitSettings.maxInterval)(system.dispatcher) {
 
         override def commitSingle(topicPartition: TopicPartition, offset: OffsetAndMetadata): Future[Done] = {
           val commit = (topicPartition, offset.offset())
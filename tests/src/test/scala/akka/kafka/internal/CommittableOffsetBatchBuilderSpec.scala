@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.kafka.ConsumerMessage.{Committable, CommittableOffsetBatch, GroupTopicPartition, PartitionOffset}
+import akka.kafka.tests.scaladsl.LogCapturing
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+class CommittableOffsetBatchBuilderSpec extends AnyWordSpec with Matchers with LogCapturing {
+
+  val gtp0 = GroupTopicPartition("group", "topic", 0)
+  val gtp1 = GroupTopicPartition("group", "topic", 1)
+
+  def offset(gtp: GroupTopicPartition, offset: Long, metadata: String = ""): CommittableOffsetImpl =
+    CommittableOffsetImpl(PartitionOffset(gtp, offset), metadata)(null)
+
+  def taken(committables: Committable*): CommittableOffsetBatchImpl = {
+    val builder = new CommittableOffsetBatchBuilder
+    committables.foreach(builder.add)
+    builder.take().asInstanceOf[CommittableOffsetBatchImpl]
+  }
+
+  def updated(committables: Committable*): CommittableOffsetBatchImpl =
+    committables
+      .foldLeft(CommittableOffsetBatch.empty)(_.updated(_))
+      .asInstanceOf[CommittableOffsetBatchImpl]
+
+  "The offset batch builder" should {
+    "create the same batch as updating an immutable batch" in {
+      val committables = List(
+        offset(gtp0, 1),
+        offset(gtp1, 5, "meta"),
+        offset(gtp0, 2),
+        CommittableOffsetBatch(List(offset(gtp1, 7), offset(gtp0, 3, "other"))),
+        offset(gtp1, 8)
+      )
+      val batch = taken(committables: _*)
+      val expected = updated(committables: _*)
+      batch.offsetsAndMetadata shouldBe expected.offsetsAndMetadata
+      batch.batchSize shouldBe expected.batchSize
+      batch.offsets shouldBe Map(gtp0 -> 3L, gtp1 -> 8L)
+    }
+
+    "start a new batch once taken" in {
+      val builder = new CommittableOffsetBatchBuilder
+      builder.add(offset(gtp0, 1))
+      builder.add(offset(gtp1, 2))
+      builder.batchSize shouldBe 2
+      builder.take().offsets shouldBe Map(gtp0 -> 1L, gtp1 -> 2L)
+
+      builder.isEmpty shouldBe true
+      builder.take().isEmpty shouldBe true
+      builder.add(offset(gtp1, 3))
+      builder.take().offsets shouldBe Map(gtp1 -> 3L)
+    }
+  }
+}
@@ -24,6 +24,7 @@ import org.apache.kafka.clients.consumer._
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors.RebalanceInProgressException
 import org.apache.kafka.common.serialization.StringDeserializer
+import org.mockito.{ArgumentMatchers, Mockito}
 import org.scalatest.concurrent.{Eventually, IntegrationPatience, ScalaFutures}
 import org.scalatest.BeforeAndAfterAll
 import org.scalatest.flatspec.AnyFlatSpecLike
@@ -31,6 +32,7 @@ import org.scalatest.matchers.should.Matchers
 
 import scala.concurrent.duration._
 import scala.concurrent.{Await, Future}
+import scala.jdk.CollectionConverters._
 
 object CommittingWithMockSpec {
   type K = String
@@ -234,6 +236,53 @@ class CommittingWithMockSpec(_system: ActorSystem)
     }
   }
 
+  it should "commit offsets synchronously when their partitions are revoked" in assertAllStagesStopped {
+    val callNo = new AtomicInteger()
+    val onCompleteFailure: ConsumerMock.OnCompleteHandler = { offsets =>
+      if (callNo.getAndIncrement() == 0) (null, new RebalanceInProgressException())
+      else (offsets, null)
+    }
+    val commitLog = new ConsumerMock.LogHandler(onCompleteFailure)
+    val mock = new ConsumerMock[K, V](commitLog)
+    val (control, probe) = Consumer
+      .committableSource(
+        ConsumerSettings
+          .create(system, new StringDeserializer, new StringDeserializer)
+          .withGroupId("group1")
+          .withConsumerFactory(_ => mock.mock)
+          .withStopTimeout(0.seconds)
+          .withCommitOnRevoke(true),
+        Subscriptions.topics("topic")
+      )
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+    val msg = createMessage(1)
+    mock.enqueue(List(toRecord(msg)))
+
+    probe.request(100)
+    val done = probe.expectNext().committableOffset.commitInternal()
+
+    awaitAssert {
+      commitLog.calls should have size (1)
+    }
+
+    // the failed commit is retried within the poll revoking the partition, before the revocation drops it
+    mock.synchronized {
+      mock.revokeAllOnNextPoll()
+      mock.releaseCommitCallbacks.set(true)
+    }
+
+    done.futureValue shouldBe Done
+    val expected = Map(new TopicPartition("topic", 1) -> new OffsetAndMetadata(2L, "")).asJava
+    Mockito
+      .verify(mock.mock)
+      .commitSync(ArgumentMatchers.eq(expected), ArgumentMatchers.any[java.time.Duration])
+    commitLog.calls should have size (1)
+
+    control.shutdown().futureValue shouldBe Done
+  }
+
   it should "collect commits to be sent to commitAsync" in assertAllStagesStopped {
     val commitLog = new ConsumerMock.LogHandler()
     val mock = new ConsumerMock[K, V](commitLog)
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import java.io.EOFException
+import java.nio.file.Files
+
+import akka.kafka.TableStore
+import akka.kafka.tests.scaladsl.LogCapturing
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.serialization.{StringDeserializer, StringSerializer}
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.concurrent.duration._
+
+class CompactedTableSpec extends AnyWordSpec with Matchers with LogCapturing {
+
+  val topic = "table"
+  val tp0 = new TopicPartition(topic, 0)
+  val tp1 = new TopicPartition(topic, 1)
+
+  def record(tp: TopicPartition, offset: Long, key: String, value: String) =
+    new ConsumerRecord[String, String](tp.topic, tp.partition, offset, key, value)
+
+  def stores: Map[String, () => TableStore[String, String]] = Map(
+    "on heap" -> (() => TableStore.onHeap[String, String]()),
+    "serialized" -> (
+        () => TableStore.serialized(topic, new StringSerializer, new StringSerializer, new StringDeserializer)
+    )
+  )
+
+  stores.foreach {
+    case (name, create) =>
+      s"The $name table store" should {
+        "apply updates and tombstones" in {
+          val store = create()
+          store.put("a", "1")
+          store.put("b", "2")
+          store.put("a", "3")
+          store.remove("b")
+          store.get("a") shouldBe Some("3")
+          store.get("b") shouldBe None
+          store.size shouldBe 1
+        }
+      }
+  }
+
+  "The table state" should {
+    "apply records and track the bootstrap progress" in {
+      val store = TableStore.onHeap[String, String]()
+      val state = new TableState(store, Map(tp0 -> 0L, tp1 -> 5L), Map(tp0 -> 3L, tp1 -> 10L))
+      state(record(tp0, 0, "a", "1"))
+      state(record(tp1, 5, "b", "2"))
+      state(record(tp0, 1, "a", null))
+      state(record(tp0, 2, null, "ignored"))
+
+      store.get("a") shouldBe None
+      store.get("b") shouldBe Some("2")
+      state.progress.map(p => p.partition -> p.position) shouldBe List(tp0 -> 3L, tp1 -> 6L)
+      state.progress.map(_.caughtUp) shouldBe List(true, false)
+      state.caughtUp.isCompleted shouldBe false
+    }
+
+    "be caught up once bootstrapped" in {
+      val state = new TableState(TableStore.onHeap[String, String](), Map(tp0 -> 0L), Map(tp0 -> 3L))
+      state(record(tp0, 0, "a", "1"))
+      // the last offsets held no records, e.g. transaction markers
+      state.bootstrapped()
+      state.progress.map(_.remaining) shouldBe List(0L)
+      state.caughtUp.isCompleted shouldBe true
+      state.terminated()
+      state.caughtUp.value.get.isSuccess shouldBe true
+    }
+
+    "fail caught up when terminated before" in {
+      val state = new TableState(TableStore.onHeap[String, String](), Map(tp0 -> 0L), Map(tp0 -> 3L))
+      state.terminated()
+      state.caughtUp.value.get.isFailure shouldBe true
+    }
+  }
+
+  "Table snapshots" should {
+    def serializedStore() =
+      new SerializedTableStore(topic, new StringSerializer, new StringSerializer, new StringDeserializer)
+
+    "restore the entries and offsets" in {
+      val file = TableSnapshot.file(Files.createTempDirectory("snapshots"), topic)
+      val store = serializedStore()
+      store.put("a", "1")
+      store.put("b", "2")
+      TableSnapshot.write(file, topic, Map(tp0 -> 7L, tp1 -> 3L), store)
+
+      val restored = serializedStore()
+      TableSnapshot.read(file, topic, 1.hour, restored) shouldBe Some(Map(tp0 -> 7L, tp1 -> 3L))
+      restored.get("a") shouldBe Some("1")
+      restored.get("b") shouldBe Some("2")
+      restored.size shouldBe 2
+    }
+
+    "restore the table state's offsets" in {
+      val file = TableSnapshot.file(Files.createTempDirectory("snapshots"), topic)
+      val store = serializedStore()
+      val state = new TableState(store, Map(tp0 -> 0L, tp1 -> 5L), Map(tp0 -> 3L, tp1 -> 10L))
+      state(record(tp0, 0, "a", "1"))
+      state(record(tp1, 5, "b", "2"))
+      state(record(tp1, 6, "a", "3"))
+      TableSnapshot.write(file, topic, state.snapshotOffsets, store)
+
+      val restored = serializedStore()
+      TableSnapshot.read(file, topic, 1.hour, restored) shouldBe Some(Map(tp0 -> 1L, tp1 -> 7L))
+      restored.get("a") shouldBe Some("3")
+      restored.get("b") shouldBe Some("2")
+      restored.size shouldBe 2
+    }
+
+    "ignore missing, expired or other topics' snapshots" in {
+      val directory = Files.createTempDirectory("snapshots")
+      val file = TableSnapshot.file(directory, topic)
+      TableSnapshot.read(file, topic, 1.hour, serializedStore()) shouldBe None
+
+      TableSnapshot.write(file, topic, Map(tp0 -> 7L), serializedStore())
+      TableSnapshot.read(file, "other", 1.hour, serializedStore()) shouldBe None
+      Thread.sleep(5)
+      TableSnapshot.read(file, topic, 1.milli, serializedStore()) shouldBe None
+    }
+
+    "fail on broken snapshots and leave the store empty" in {
+      val file = TableSnapshot.file(Files.createTempDirectory("snapshots"), topic)
+      val store = serializedStore()
+      store.put("a", "1")
+      TableSnapshot.write(file, topic, Map(tp0 -> 7L), store)
+      val bytes = Files.readAllBytes(file)
+      Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - 6))
+
+      val restored = serializedStore()
+      an[EOFException] should be thrownBy TableSnapshot.read(file, topic, 1.hour, restored)
+      restored.size shouldBe 0
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.kafka.internal.ConsumerActorMetrics.{LatencyHistogram, StageStats}
+import akka.kafka.tests.scaladsl.LogCapturing
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.concurrent.duration._
+
+class ConsumerActorMetricsSpec extends AnyWordSpec with Matchers with LogCapturing {
+
+  "The latency histogram" should {
+    "report zero without records" in {
+      val histogram = new LatencyHistogram
+      histogram.quantileMillis(0.99d) shouldBe 0.0d
+    }
+
+    "report the upper bound of the bucket holding the quantile" in {
+      val histogram = new LatencyHistogram
+      (1 to 98).foreach(_ => histogram.record(3.millis.toNanos))
+      histogram.record(100.millis.toNanos)
+      histogram.record(1.second.toNanos)
+      histogram.count shouldBe 100
+      histogram.maxNanos shouldBe 1.second.toNanos
+      // 3ms falls into [2048µs, 4096µs)
+      histogram.quantileMillis(0.5d) shouldBe 4.096d
+      histogram.quantileMillis(0.99d) shouldBe 131.072d
+      histogram.quantileMillis(1.0d) shouldBe 1048.576d
+    }
+  }
+
+  "Stage stats" should {
+    "measure the wait from the first request to the delivery" in {
+      val stats = new StageStats
+      stats.requested(now = 100L)
+      stats.requested(now = 200L)
+      stats.delivered(records = 5, now = 1100L)
+      stats.delivered(records = 2, now = 5000L)
+      stats.deliveredRecords shouldBe 7
+      stats.deliveries shouldBe 2
+      stats.totalWaitNanos shouldBe 1000L
+      stats.maxWaitNanos shouldBe 1000L
+    }
+  }
+}
@@ -68,7 +68,11 @@ object ConsumerMock {
 class ConsumerMock[K, V](handler: ConsumerMock.CommitHandler = new ConsumerMock.NotImplementedHandler) {
   private var responses = collection.immutable.Queue.empty[Seq[ConsumerRecord[K, V]]]
   private var pendingSubscriptions = List.empty[(List[String], ConsumerRebalanceListener)]
+  private var listeners = List.empty[ConsumerRebalanceListener]
+  private var revokeOnPoll = false
   private var assignment = Set.empty[TopicPartition]
+  private var positions = Map.empty[TopicPartition, Long]
+  private var endOffsets = Map.empty[TopicPartition, Long]
   private var messagesRequested = false
   val releaseCommitCallbacks = new AtomicBoolean()
   val mock = {
@@ -83,6 +87,7 @@ class ConsumerMock[K, V](handler: ConsumerMock.CommitHandler = new ConsumerMock.
                 new TopicPartition(t, 1)
               }
               assignment ++= tps
+              listeners :+= callback
               callback.onPartitionsAssigned(tps.asJavaCollection)
           }
           pendingSubscriptions = List.empty
@@ -94,7 +99,10 @@ class ConsumerMock[K, V](handler: ConsumerMock.CommitHandler = new ConsumerMock.
                   element
                     .groupBy(x => new TopicPartition(x.topic(), x.partition()))
                     .map {
-                      case (topicPart, messages) => (topicPart, messages.asJava)
+                      case (topicPart, messages) =>
+                        val next = messages.last.offset() + 1
+                        if (positions.getOrElse(topicPart, 0L) < next) positions += topicPart -> next
+                        (topicPart, messages.asJava)
                     }
               }
               .getOrElse(Map.empty)
@@ -103,6 +111,11 @@ class ConsumerMock[K, V](handler: ConsumerMock.CommitHandler = new ConsumerMock.
           if (releaseCommitCallbacks.get()) {
             handler.onComplete()
           }
+          // emulate a rebalance revoking all partitions within poll, after the commit callbacks
+          if (revokeOnPoll) {
+            revokeOnPoll = false
+            listeners.foreach(_.onPartitionsRevoked(assignment.asJavaCollection))
+          }
           new ConsumerRecords[K, V](records.asJava)
         }
       })
@@ -131,6 +144,36 @@ class ConsumerMock[K, V](handler: ConsumerMock.CommitHandler = new ConsumerMock.
           ()
         }
       })
+    Mockito
+      .when(result.assign(ArgumentMatchers.any[java.util.Collection[TopicPartition]]))
+      .thenAnswer(new Answer[Unit] {
+        override def answer(invocation: InvocationOnMock) = ConsumerMock.this.synchronized {
+          assignment = invocation.getArgument[java.util.Collection[TopicPartition]](0).asScala.toSet
+          ()
+        }
+      })
+    Mockito
+      .when(result.position(ArgumentMatchers.any[TopicPartition], ArgumentMatchers.any[java.time.Duration]))
+      .thenAnswer(new Answer[Long] {
+        override def answer(invocation: InvocationOnMock) = ConsumerMock.this.synchronized {
+          positions.getOrElse(invocation.getArgument[TopicPartition](0), 0L)
+        }
+      })
+    Mockito
+      .when(
+        result.endOffsets(ArgumentMatchers.any[java.util.Collection[TopicPartition]],
+                          ArgumentMatchers.any[java.time.Duration])
+      )
+      .thenAnswer(new Answer[java.util.Map[TopicPartition, java.lang.Long]] {
+        override def answer(invocation: InvocationOnMock) = ConsumerMock.this.synchronized {
+          invocation
+            .getArgument[java.util.Collection[TopicPartition]](0)
+            .asScala
+            .map(tp => tp -> java.lang.Long.valueOf(endOffsets.getOrElse(tp, 0L)))
+            .toMap
+            .asJava
+        }
+      })
     Mockito
       .when(result.resume(ArgumentMatchers.any[java.util.Collection[TopicPartition]]))
       .thenAnswer(new Answer[Unit] {
@@ -147,6 +190,12 @@ class ConsumerMock[K, V](handler: ConsumerMock.CommitHandler = new ConsumerMock.
           ()
         }
       })
+    Mockito
+      .when(result.paused())
+      .thenAnswer(new Answer[java.util.Set[TopicPartition]] {
+        override def answer(invocation: InvocationOnMock) =
+          if (messagesRequested) java.util.Collections.emptySet[TopicPartition]() else assignment.asJava
+      })
     Mockito
       .when(result.assignment())
       .thenAnswer(new Answer[java.util.Set[TopicPartition]] {
@@ -160,6 +209,18 @@ class ConsumerMock[K, V](handler: ConsumerMock.CommitHandler = new ConsumerMock.
       responses :+= records
     }
 
+  /** The position of a partition, advanced past the records polled for it. */
+  def position(tp: TopicPartition): Long = synchronized(positions.getOrElse(tp, 0L))
+
+  /** Move the position of a partition, e.g. past records not returned by poll like transaction markers. */
+  def setPosition(tp: TopicPartition, offset: Long): Unit = synchronized {
+    positions += tp -> offset
+  }
+
+  def setEndOffsets(offsets: Map[TopicPartition, Long]): Unit = synchronized {
+    endOffsets ++= offsets
+  }
+
   def verifyClosed(mode: VerificationMode = Mockito.times(1)) =
     verify(mock, mode).close(ConsumerMock.closeTimeout.asJava)
 
@@ -178,6 +239,11 @@ class ConsumerMock[K, V](handler: ConsumerMock.CommitHandler = new ConsumerMock.
         pendingSubscriptions.find(_._1 == topic).get._2.onPartitionsRevoked(localTps.asJavaCollection)
     }
 
+  /** Revoke all assigned partitions within the next poll. */
+  def revokeAllOnNextPoll(): Unit = synchronized {
+    revokeOnPoll = true
+  }
+
   def releaseAndAwaitCommitCallbacks(testkit: TestKit, minOffset: Long): Unit = {
     releaseCommitCallbacks.set(true)
     testkit.awaitCond(handler.allComplete(minOffset))
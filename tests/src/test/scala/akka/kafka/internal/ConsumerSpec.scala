@@ -5,20 +5,25 @@
 
 package akka.kafka.internal
 
+import java.util.concurrent.atomic.AtomicInteger
+
 import akka.Done
 import akka.actor.ActorSystem
 import akka.kafka.ConsumerMessage._
 import akka.kafka.scaladsl.Consumer
 import akka.kafka.scaladsl.Consumer.Control
 import akka.kafka.tests.scaladsl.LogCapturing
-import akka.kafka.{CommitTimeoutException, ConsumerSettings, Repeated, Subscriptions}
+import akka.kafka.{CommitTimeoutException, ConsumerSettings, RecordSelection, Repeated, Subscriptions}
 import akka.stream.scaladsl._
 import akka.stream.testkit.scaladsl.StreamTestKit.assertAllStagesStopped
 import akka.stream.testkit.scaladsl.TestSink
 import akka.testkit.TestKit
 import com.typesafe.config.ConfigFactory
 import org.apache.kafka.clients.consumer._
-import org.apache.kafka.common.serialization.StringDeserializer
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.errors.RecordDeserializationException
+import org.apache.kafka.common.record.TimestampType
+import org.apache.kafka.common.serialization.{Deserializer, StringDeserializer}
 import org.mockito.Mockito._
 import org.scalatest.BeforeAndAfterAll
 import org.scalatest.concurrent.Eventually
@@ -47,6 +52,38 @@ object ConsumerSpec {
   }
 
   def toRecord(msg: CommittableMessage[K, V]): ConsumerRecord[K, V] = msg.record
+
+  /** Fails to deserialize the value "3". */
+  class FailingDeserializer extends StringDeserializer {
+    override def deserialize(topic: String, data: Array[Byte]): String =
+      if (new String(data) == "3") throw new IllegalArgumentException("not a value")
+      else super.deserialize(topic, data)
+  }
+
+  /** Tracks the instances and the calls deserializing at the same time. */
+  class ConcurrencyTrackingDeserializer extends StringDeserializer {
+    ConcurrencyTrackingDeserializer.instances.incrementAndGet()
+
+    override def deserialize(topic: String, data: Array[Byte]): String = {
+      val running = ConcurrencyTrackingDeserializer.running.incrementAndGet()
+      ConcurrencyTrackingDeserializer.maxRunning.accumulateAndGet(running, (a, b) => math.max(a, b))
+      try {
+        Thread.sleep(2)
+        super.deserialize(topic, data)
+      } finally ConcurrencyTrackingDeserializer.running.decrementAndGet()
+    }
+  }
+
+  object ConcurrencyTrackingDeserializer {
+    val instances = new AtomicInteger()
+    val running = new AtomicInteger()
+    val maxRunning = new AtomicInteger()
+
+    def reset(): Unit = {
+      instances.set(0)
+      maxRunning.set(0)
+    }
+  }
 }
 
 class ConsumerSpec(_system: ActorSystem)
@@ -74,9 +111,12 @@ class ConsumerSpec(_system: ActorSystem)
   implicit val ec = _system.dispatcher
   val messages = (1 to 1000).map(createMessage)
 
-  def checkMessagesReceiving(msgss: Seq[Seq[CommittableMessage[K, V]]]): Unit = {
+  def checkMessagesReceiving(
+      msgss: Seq[Seq[CommittableMessage[K, V]]],
+      configure: ConsumerSettings[K, V] => ConsumerSettings[K, V] = identity
+  ): Unit = {
     val mock = new ConsumerMock[K, V]()
-    val (control, probe) = createCommittableSource(mock.mock)
+    val (control, probe) = createCommittableSource(mock.mock, configure = configure)
       .toMat(TestSink.probe)(Keep.both)
       .run()
 
@@ -87,19 +127,41 @@ class ConsumerSpec(_system: ActorSystem)
     Await.result(control.shutdown(), remainingOrDefault)
   }
 
-  def createCommittableSource(mock: Consumer[K, V],
-                              groupId: String = "group1",
-                              topics: Set[String] = Set("topic")): Source[CommittableMessage[K, V], Control] =
+  def createCommittableSource(
+      mock: Consumer[K, V],
+      groupId: String = "group1",
+      topics: Set[String] = Set("topic"),
+      configure: ConsumerSettings[K, V] => ConsumerSettings[K, V] = identity
+  ): Source[CommittableMessage[K, V], Control] =
     Consumer.committableSource(
-      ConsumerSettings
-        .create(system, new StringDeserializer, new StringDeserializer)
-        .withGroupId(groupId)
-        .withCloseTimeout(ConsumerMock.closeTimeout)
-        .withCommitTimeout(500.millis)
-        .withConsumerFactory(_ => mock),
+      configure(
+        ConsumerSettings
+          .create(system, new StringDeserializer, new StringDeserializer)
+          .withGroupId(groupId)
+          .withCloseTimeout(ConsumerMock.closeTimeout)
+          .withCommitTimeout(500.millis)
+          .withConsumerFactory(_ => mock)
+      ),
       Subscriptions.topics(topics)
     )
 
+  /** Settings with the deserializers configured as class names, as required by parallel deserialization. */
+  def configuredSettings(mock: Consumer[K, V],
+                         valueDeserializer: Class[_ <: Deserializer[V]] = classOf[StringDeserializer]) =
+    ConsumerSettings[K, V](
+      ConfigFactory
+        .parseString(s"""kafka-clients {
+                        |  key.deserializer = "${classOf[StringDeserializer].getName}"
+                        |  value.deserializer = "${valueDeserializer.getName}"
+                        |}""".stripMargin)
+        .withFallback(system.settings.config.getConfig(ConsumerSettings.configPath)),
+      None,
+      None
+    ).withGroupId("group1")
+      .withCloseTimeout(ConsumerMock.closeTimeout)
+      .withCommitTimeout(500.millis)
+      .withConsumerFactory(_ => mock)
+
   def createSourceWithMetadata(mock: Consumer[K, V],
                                metadataFromRecord: ConsumerRecord[K, V] => String,
                                groupId: String = "group1",
@@ -174,6 +236,249 @@ class ConsumerSpec(_system: ActorSystem)
     )
   }
 
+  it should "emit messages when the consumer actor runs on the pinned consumer dispatcher" in assertAllStagesStopped {
+    checkMessagesReceiving(messages.grouped(97).toList, _.withDispatcher("akka.kafka.pinned-consumer-dispatcher"))
+  }
+
+  it should "emit messages when prefetching ahead of demand" in assertAllStagesStopped {
+    checkMessagesReceiving(messages.grouped(97).toList, _.withPrefetchPerPartition(records = 100, bytes = 1024 * 1024))
+  }
+
+  it should "emit messages when requests are limited by the dispatch quantum" in assertAllStagesStopped {
+    checkMessagesReceiving(messages.grouped(97).toList, _.withDispatchQuantum(10))
+  }
+
+  it should "pause a partition until its next record is due" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    val (control, probe) = createCommittableSource(mock.mock, configure = _.withProcessingDelay("topic", 500.millis))
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+    probe.request(10)
+    val now = System.currentTimeMillis()
+    val notDue = new ConsumerRecord("topic", 1, 3L, now, TimestampType.CREATE_TIME, -1L, 1, 1, "3", "3")
+    // records without timestamp are due right away
+    mock.enqueue((1 to 2).map(createMessage).map(toRecord) :+ notDue)
+    probe.expectNextN(2).map(_.record.offset) shouldBe Seq(1L, 2L)
+    awaitAssert {
+      verify(mock.mock).seek(new TopicPartition("topic", 1), 3L)
+    }
+
+    // the consumer fetches the record again once the partition is resumed
+    mock.enqueue(List(notDue))
+    probe.expectNoMessage(200.millis)
+    probe.expectNext(2.seconds).record.offset shouldBe 3L
+
+    Await.result(control.shutdown(), remainingOrDefault)
+  }
+
+  /** The record as polled by a consumer deserializing with `ByteArrayDeserializer`. */
+  def rawRecord(record: Record): Record =
+    new ConsumerRecord(record.topic, record.partition, record.offset, record.key.getBytes, record.value.getBytes)
+      .asInstanceOf[Record]
+
+  it should "emit messages deserialized in the source" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    val (control, probe) = Consumer
+      .committableSource(configuredSettings(mock.mock).withDeserializationParallelism(4), Subscriptions.topics("topic"))
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+    probe.request(messages.size.toLong)
+    messages.grouped(97).foreach(chunk => mock.enqueue(chunk.map(m => rawRecord(toRecord(m)))))
+    probe.expectNextN(messages.size.toLong).map(m => (m.record.offset, m.record.key, m.record.value)) shouldBe
+    messages.map(m => (m.record.offset, m.record.key, m.record.value))
+
+    Await.result(control.shutdown(), remainingOrDefault)
+  }
+
+  it should "deserialize at most as many slices at a time as the parallelism" in assertAllStagesStopped {
+    ConcurrencyTrackingDeserializer.reset()
+    val mock = new ConsumerMock[K, V]()
+    val tps = (1 to 10).map(new TopicPartition("topic", _))
+    val (control, probe) = Consumer
+      .plainSource(
+        configuredSettings(mock.mock, classOf[ConcurrencyTrackingDeserializer]).withDeserializationParallelism(2),
+        Subscriptions.assignment(tps.toSet)
+      )
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+    probe.request(1000)
+    // a single delivery of all partitions splits into 20 slices
+    mock.enqueue(for {
+      tp <- tps
+      offset <- 0 until 10
+    } yield rawRecord(new ConsumerRecord(tp.topic, tp.partition, offset.toLong, offset.toString, offset.toString)))
+    probe.expectNextN(100).map(r => (r.partition, r.offset)).toSet shouldBe
+    tps.flatMap(tp => (0L until 10L).map(offset => (tp.partition, offset))).toSet
+
+    ConcurrencyTrackingDeserializer.maxRunning.get should be <= 2
+    ConcurrencyTrackingDeserializer.instances.get should be <= 2
+
+    Await.result(control.shutdown(), remainingOrDefault)
+  }
+
+  it should "fail the stage at a record failing to deserialize" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    val (_, probe) = Consumer
+      .plainSource(
+        configuredSettings(mock.mock, classOf[FailingDeserializer]).withDeserializationParallelism(2),
+        Subscriptions.topics("topic")
+      )
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+    probe.request(10)
+    mock.enqueue((1 to 5).map(createMessage).map(m => rawRecord(toRecord(m))))
+    probe.expectNextN(2).map(_.value) shouldBe Seq("1", "2")
+    val error = probe.expectError()
+    error shouldBe a[RecordDeserializationException]
+    error.asInstanceOf[RecordDeserializationException].offset shouldBe 3L
+  }
+
+  it should "only emit the records selected by the consumer actor" in assertAllStagesStopped {
+    val commitLog = new ConsumerMock.LogHandler()
+    val mock = new ConsumerMock[K, V](commitLog)
+    val (control, probe) = Consumer
+      .committableSource(
+        ConsumerSettings
+          .create(system, new StringDeserializer, new StringDeserializer)
+          .withGroupId("group1")
+          .withCloseTimeout(ConsumerMock.closeTimeout)
+          .withCommitTimeout(500.millis)
+          .withConsumerFactory(_ => mock.mock),
+        Subscriptions.topics("topic"),
+        RecordSelection[K, V](_.value.toInt % 10 == 0)
+      )
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+    probe.request(100)
+    // a whole chunk filtered leaves the request pending
+    mock.enqueue((1 to 9).map(createMessage).map(toRecord))
+    mock.enqueue((10 to 35).map(createMessage).map(toRecord))
+    val received = probe.expectNextN(3)
+    received.map(_.record.offset) shouldBe Seq(10L, 20L, 30L)
+
+    // committing a selected record covers the filtered records before it, the consumer actor commits the
+    // records filtered after it and the whole filtered chunk, as no selected record covers them
+    val done = received.last.committableOffset.commitInternal()
+    awaitAssert {
+      commitLog.calls.map(_._1.values.map(_.offset()).toList) shouldBe Seq(List(10L), List(36L))
+    }
+    mock.releaseAndAwaitCommitCallbacks(this)
+    Await.result(done, remainingOrDefault)
+
+    // filtered records after the committed ones are committed without a commit by the stage
+    mock.enqueue((36 to 39).map(createMessage).map(toRecord))
+    awaitAssert {
+      commitLog.calls.map(_._1.values.map(_.offset()).toList).last shouldBe List(40L)
+    }
+    mock.releaseAndAwaitCommitCallbacks(this)
+    probe.expectNoMessage(200.millis)
+
+    Await.result(control.shutdown(), remainingOrDefault)
+  }
+
+  it should "only emit the selected records when prefetching" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    val (control, probe) = Consumer
+      .plainSource(
+        ConsumerSettings
+          .create(system, new StringDeserializer, new StringDeserializer)
+          .withGroupId("group1")
+          .withCloseTimeout(ConsumerMock.closeTimeout)
+          .withConsumerFactory(_ => mock.mock)
+          .withPrefetchPerPartition(records = 100, bytes = 1024 * 1024),
+        Subscriptions.topics("topic"),
+        RecordSelection[K, V](_.value.toInt % 10 == 0)
+      )
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+    // records are prefetched before they are requested
+    mock.enqueue((1 to 9).map(createMessage).map(toRecord))
+    mock.enqueue((10 to 35).map(createMessage).map(toRecord))
+    probe.request(100)
+    probe.expectNextN(3).map(_.offset) shouldBe Seq(10L, 20L, 30L)
+    probe.expectNoMessage(200.millis)
+
+    Await.result(control.shutdown(), remainingOrDefault)
+  }
+
+  it should "reject a record selection with parallel deserialization" in {
+    val settings = configuredSettings(new ConsumerMock[K, V]().mock).withDeserializationParallelism(2)
+    an[IllegalArgumentException] should be thrownBy
+    Consumer.plainSource(settings, Subscriptions.topics("topic"), RecordSelection[K, V](_.value.nonEmpty))
+  }
+
+  it should "reject deserializer instances with parallel deserialization" in {
+    val settings = ConsumerSettings.create(system, new StringDeserializer, new StringDeserializer)
+    an[IllegalArgumentException] should be thrownBy settings.withDeserializationParallelism(2)
+  }
+
+  def batchSettings(mock: Consumer[K, V]): ConsumerSettings[K, V] =
+    ConsumerSettings
+      .create(system, new StringDeserializer, new StringDeserializer)
+      .withGroupId("group1")
+      .withCloseTimeout(ConsumerMock.closeTimeout)
+      .withCommitTimeout(500.millis)
+      .withConsumerFactory(_ => mock)
+
+  it should "emit batches of at most the maximum number of records" in assertAllStagesStopped {
+    val mock = new ConsumerMock[K, V]()
+    val (control, probe) = Consumer
+      .plainBatchSource(batchSettings(mock.mock),
+                        Subscriptions.topics("topic"),
+                        maxRecords = 4,
+                        maxBytes = Long.MaxValue)
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+    val records = (1 to 10).map(createMessage).map(toRecord)
+    probe.request(100)
+    mock.enqueue(records)
+
+    var received = Vector.empty[Seq[Record]]
+    while (received.map(_.size).sum < records.size) received :+= probe.expectNext()
+    all(received.map(_.size)) should be <= 4
+    received.flatten shouldBe records
+
+    Await.result(control.shutdown(), remainingOrDefault)
+  }
+
+  it should "commit the offsets of a whole batch at once" in assertAllStagesStopped {
+    val commitLog = new ConsumerMock.LogHandler()
+    val mock = new ConsumerMock[K, V](commitLog)
+    val (control, probe) = Consumer
+      .committableBatchSource(batchSettings(mock.mock),
+                              Subscriptions.topics("topic"),
+                              maxRecords = 100,
+                              maxBytes = Long.MaxValue)
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+    mock.enqueue((1 to 10).map(createMessage).map(toRecord))
+    probe.request(1)
+    val batch = probe.expectNext()
+    val last = batch.records.last
+    batch.committableOffsetBatch.batchSize shouldBe batch.records.size.toLong
+    batch.committableOffsetBatch.offsets shouldBe Map(
+      GroupTopicPartition("group1", last.topic(), last.partition()) -> last.offset()
+    )
+
+    val done = batch.committableOffsetBatch.commitInternal()
+    awaitAssert {
+      commitLog.calls should have size 1
+    }
+    commitLog.calls.head._1.values.map(_.offset()) shouldBe Iterable(last.offset() + 1)
+    mock.releaseAndAwaitCommitCallbacks(this)
+    Await.result(done, remainingOrDefault)
+
+    Await.result(control.shutdown(), remainingOrDefault)
+  }
+
   it should "complete out and keep underlying client open when control.stop called" in assertAllStagesStopped {
     val commitLog = new ConsumerMock.LogHandler()
     val mock = new ConsumerMock[K, V](commitLog)
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import java.util.concurrent.ConcurrentHashMap
+
+import akka.Done
+import akka.actor.ActorSystem
+import akka.kafka.ConsumerMessage._
+import akka.kafka.scaladsl.KeyOrdered
+import akka.kafka.tests.scaladsl.LogCapturing
+import akka.stream.scaladsl.Keep
+import akka.stream.testkit.scaladsl.StreamTestKit.assertAllStagesStopped
+import akka.stream.testkit.scaladsl.{TestSink, TestSource}
+import akka.testkit.TestKit
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpecLike
+
+import scala.concurrent.{Future, Promise}
+
+class KeyOrderedSpec(_system: ActorSystem)
+    extends TestKit(_system)
+    with AnyWordSpecLike
+    with Matchers
+    with BeforeAndAfterAll
+    with LogCapturing {
+
+  def this() = this(ActorSystem("KeyOrderedSpec"))
+
+  override def afterAll(): Unit = shutdown(system)
+
+  def message(partition: Int, offset: Long, key: String): CommittableMessage[String, String] = {
+    val partitionOffset = PartitionOffset(GroupTopicPartition("group", "topic", partition), offset)
+    val record = new ConsumerRecord("topic", partition, offset, key, offset.toString)
+    CommittableMessage(record, CommittableOffsetImpl(partitionOffset, "")(null))
+  }
+
+  "The offset watermark" should {
+    "release offsets only up to the first outstanding record" in {
+      val watermark = new OffsetWatermark(initialCapacity = 4)
+      val seqs = Seq(10L, 11L, 15L, 16L).map(offset => watermark.register(message(0, offset, "k").committableOffset))
+
+      watermark.complete(seqs(1)) shouldBe false
+      watermark.complete(seqs(2)) shouldBe false
+      watermark.hasReleased shouldBe false
+
+      watermark.complete(seqs(0)) shouldBe true
+      watermark.releasedOffset.partitionOffset.offset shouldBe 15L
+      watermark.releasedRecords shouldBe 3L
+      watermark.outstanding shouldBe 1
+
+      watermark.clearReleased()
+      watermark.complete(seqs(3)) shouldBe true
+      watermark.releasedOffset.partitionOffset.offset shouldBe 16L
+      watermark.isEmpty shouldBe true
+    }
+
+    "keep the completions when growing" in {
+      val watermark = new OffsetWatermark(initialCapacity = 2)
+      val first = watermark.register(message(0, 0L, "k").committableOffset)
+      val second = watermark.register(message(0, 1L, "k").committableOffset)
+      watermark.complete(first) shouldBe true
+      watermark.complete(second) shouldBe true
+      watermark.clearReleased()
+
+      val seqs = (2L to 6L).map(offset => watermark.register(message(0, offset, "k").committableOffset))
+      seqs.drop(1).foreach(seq => watermark.complete(seq) shouldBe false)
+      watermark.complete(seqs.head) shouldBe true
+      watermark.releasedOffset.partitionOffset.offset shouldBe 6L
+      watermark.releasedRecords shouldBe 5L
+    }
+  }
+
+  "The key ordered flow" should {
+    "process records with the same key one after the other and commit contiguous offsets" in assertAllStagesStopped {
+      val processing = new ConcurrentHashMap[(Int, Long), Promise[Done]]()
+      def process(msg: CommittableMessage[String, String]): Future[Done] = {
+        val promise = Promise[Done]()
+        processing.put((msg.record.partition(), msg.record.offset()), promise)
+        promise.future
+      }
+
+      val (source, sink) = TestSource
+        .probe[CommittableMessage[String, String]]
+        .via(KeyOrdered.flow[String, String](parallelism = 10)(process))
+        .toMat(TestSink.probe)(Keep.both)
+        .run()
+
+      sink.request(10)
+      source.sendNext(message(0, 0L, "a"))
+      source.sendNext(message(0, 1L, "b"))
+      source.sendNext(message(0, 2L, "a"))
+      source.sendNext(message(1, 0L, "c"))
+
+      awaitAssert(processing.keySet() should contain theSameElementsAs Set((0, 0L), (0, 1L), (1, 0L)))
+      processing.remove((0, 1L)).success(Done)
+      sink.expectNoMessage()
+
+      processing.remove((0, 0L)).success(Done)
+      val batch = sink.expectNext()
+      batch.offsets shouldBe Map(GroupTopicPartition("group", "topic", 0) -> 1L)
+      batch.batchSize shouldBe 2L
+
+      // the second record for key "a" starts only after the first one completed
+      awaitAssert(processing.keySet() should contain theSameElementsAs Set((0, 2L), (1, 0L)))
+      processing.remove((0, 2L)).success(Done)
+      sink.expectNext().offsets shouldBe Map(GroupTopicPartition("group", "topic", 0) -> 2L)
+
+      source.sendComplete()
+      processing.remove((1, 0L)).success(Done)
+      sink.expectNext().offsets shouldBe Map(GroupTopicPartition("group", "topic", 1) -> 0L)
+      sink.expectComplete()
+    }
+
+    "not order records without a key" in assertAllStagesStopped {
+      val processing = new ConcurrentHashMap[(Int, Long), Promise[Done]]()
+      def process(msg: CommittableMessage[String, String]): Future[Done] = {
+        val promise = Promise[Done]()
+        processing.put((msg.record.partition(), msg.record.offset()), promise)
+        promise.future
+      }
+
+      val (source, sink) = TestSource
+        .probe[CommittableMessage[String, String]]
+        .via(KeyOrdered.flow[String, String](parallelism = 10)(process))
+        .toMat(TestSink.probe)(Keep.both)
+        .run()
+
+      sink.request(10)
+      (0L to 2L).foreach(offset => source.sendNext(message(0, offset, null)))
+
+      awaitAssert(processing.keySet() should contain theSameElementsAs Set((0, 0L), (0, 1L), (0, 2L)))
+      processing.remove((0, 2L)).success(Done)
+      processing.remove((0, 1L)).success(Done)
+      processing.remove((0, 0L)).success(Done)
+      val batch = sink.expectNext()
+      batch.offsets shouldBe Map(GroupTopicPartition("group", "topic", 0) -> 2L)
+      batch.batchSize shouldBe 3L
+
+      source.sendComplete()
+      sink.expectComplete()
+    }
+
+    "fail when processing fails" in assertAllStagesStopped {
+      val error = new RuntimeException("processing failed")
+      val (source, sink) = TestSource
+        .probe[CommittableMessage[String, String]]
+        .via(KeyOrdered.flow[String, String](parallelism = 2)(_ => Future.failed(error)))
+        .toMat(TestSink.probe)(Keep.both)
+        .run()
+
+      sink.request(1)
+      source.sendNext(message(0, 0L, "a"))
+      sink.expectError(error)
+      source.expectCancellation()
+    }
+  }
+}
@@ -12,27 +12,35 @@ import org.apache.kafka.common.requests.OffsetFetchResponse
 import org.scalatest.matchers.should.Matchers
 import org.scalatest.wordspec.AnyWordSpec
 
+import scala.jdk.CollectionConverters._
+
 class OffsetAggregationSpec extends AnyWordSpec with Matchers with LogCapturing {
 
   val topicA = "topicA"
   val topicB = "topicB"
 
-  "aggregateOffsets" should {
+  def aggregateOffsets(in: List[(TopicPartition, OffsetAndMetadata)]): Map[TopicPartition, OffsetAndMetadata] = {
+    val pending = new PendingCommitOffsets
+    in.foreach { case (tp, offset) => pending.add(tp, offset) }
+    pending.drain().asScala.toMap
+  }
+
+  "PendingCommitOffsets" should {
     "give all offsets for one element" in {
       val in = new TopicPartition(topicA, 1) -> new OffsetAndMetadata(12, OffsetFetchResponse.NO_METADATA)
-      KafkaConsumerActor.aggregateOffsets(List(in)) shouldBe Map(in)
+      aggregateOffsets(List(in)) shouldBe Map(in)
     }
 
     "give the highest offsets" in {
       val in1 = new TopicPartition(topicA, 1) -> new OffsetAndMetadata(42, OffsetFetchResponse.NO_METADATA)
       val in2 = new TopicPartition(topicA, 1) -> new OffsetAndMetadata(12, OffsetFetchResponse.NO_METADATA)
-      KafkaConsumerActor.aggregateOffsets(List(in1, in2)) shouldBe Map(in1)
+      aggregateOffsets(List(in1, in2)) shouldBe Map(in1)
     }
 
     "give the highest offsets (other order)" in {
       val in1 = new TopicPartition(topicA, 1) -> new OffsetAndMetadata(42, OffsetFetchResponse.NO_METADATA)
       val in2 = new TopicPartition(topicA, 1) -> new OffsetAndMetadata(12, OffsetFetchResponse.NO_METADATA)
-      KafkaConsumerActor.aggregateOffsets(List(in2, in1)) shouldBe Map(in1)
+      aggregateOffsets(List(in2, in1)) shouldBe Map(in1)
     }
 
     "give the highest offsets (when mixed)" in {
@@ -44,11 +52,21 @@ class OffsetAggregationSpec extends AnyWordSpec with Matchers with LogCapturing
         new TopicPartition(topicA, 1) -> new OffsetAndMetadata(12, OffsetFetchResponse.NO_METADATA),
         new TopicPartition(topicB, 1) -> new OffsetAndMetadata(43, OffsetFetchResponse.NO_METADATA)
       )
-      KafkaConsumerActor.aggregateOffsets(in1 ++ in2) shouldBe Map(
+      aggregateOffsets(in1 ++ in2) shouldBe Map(
         new TopicPartition(topicA, 1) -> new OffsetAndMetadata(42, OffsetFetchResponse.NO_METADATA),
         new TopicPartition(topicB, 1) -> new OffsetAndMetadata(43, OffsetFetchResponse.NO_METADATA)
       )
     }
+
+    "start empty after draining" in {
+      val pending = new PendingCommitOffsets
+      pending.add(new TopicPartition(topicA, 1), new OffsetAndMetadata(42, OffsetFetchResponse.NO_METADATA))
+      pending.nonEmpty shouldBe true
+      val drained = pending.drain()
+      pending.isEmpty shouldBe true
+      pending.add(new TopicPartition(topicA, 1), new OffsetAndMetadata(43, OffsetFetchResponse.NO_METADATA))
+      drained.get(new TopicPartition(topicA, 1)).offset() shouldBe 42
+    }
   }
 
 }
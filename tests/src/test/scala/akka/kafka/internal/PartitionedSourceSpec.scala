@@ -6,7 +6,7 @@
 package akka.kafka.internal
 
 import java.util.concurrent.atomic.AtomicReference
-import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, TimeUnit}
 import java.util.function.UnaryOperator
 
 import akka.Done
@@ -763,7 +763,20 @@ object PartitionedSourceSpec {
       new AtomicReference(emptyPollData)
     var seeks = Map[TopicPartition, Long]()
 
+    private val pendingRebalances = new ConcurrentLinkedQueue[(Seq[TopicPartition], CountDownLatch)]()
+
+    /**
+     * Re-assign partitions with the next `poll` (on the actor's thread, like the Kafka consumer invokes its
+     * rebalance listener) and wait for it to happen.
+     */
     def assignWithCallback(partitions: TopicPartition*): Unit = {
+      val done = new CountDownLatch(1)
+      pendingRebalances.add(partitions -> done)
+      if (!done.await(10, TimeUnit.SECONDS))
+        throw new IllegalStateException(s"Assignment of ${partitions.mkString(", ")} was not picked up by a poll")
+    }
+
+    private def rebalance(partitions: Seq[TopicPartition]): Unit = {
       // revoke all
 
       // tps can be changed from other threads (that run KafkaConsumerActor), therefore update atomically and keep
@@ -794,6 +807,13 @@ object PartitionedSourceSpec {
       tps.set(partitions.asScala.map(_ -> Assigned).toMap)
 
     override def poll(timeout: java.time.Duration): ConsumerRecords[K, V] = {
+      var pending = pendingRebalances.poll()
+      while (pending != null) {
+        val (partitions, done) = pending
+        rebalance(partitions)
+        done.countDown()
+        pending = pendingRebalances.poll()
+      }
       val data = nextPollData.get()
       val (data2, dataPaused) = data.partition {
         case (tp, _) => tpsResumed.contains(tp)
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.kafka.AdaptivePollSettings
+import akka.kafka.internal.KafkaConsumerActor.PollScheduling
+import akka.kafka.tests.scaladsl.LogCapturing
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.concurrent.duration._
+
+class PollSchedulingSpec extends AnyWordSpec with Matchers with LogCapturing {
+
+  val maxPollRecords = 500
+
+  "Fixed poll scheduling" should {
+    "always use the poll interval" in {
+      val scheduling = PollScheduling(50.millis, maxPollRecords, AdaptivePollSettings.Disabled)
+      scheduling.polled(recordCount = 0, demand = true, commitsPending = false) shouldBe false
+      scheduling.polled(recordCount = maxPollRecords, demand = true, commitsPending = false) shouldBe false
+      scheduling.currentInterval shouldBe 50.millis
+    }
+  }
+
+  "Adaptive poll scheduling" should {
+    val adaptive = AdaptivePollSettings(maxInterval = 400.millis, backoffFactor = 2.0)
+
+    "back off while polls return no records" in {
+      val scheduling = PollScheduling(50.millis, maxPollRecords, adaptive)
+      scheduling.polled(recordCount = 0, demand = true, commitsPending = false) shouldBe false
+      scheduling.currentInterval shouldBe 100.millis
+      scheduling.polled(recordCount = 0, demand = true, commitsPending = false)
+      scheduling.polled(recordCount = 0, demand = true, commitsPending = false)
+      scheduling.currentInterval shouldBe 400.millis
+      scheduling.polled(recordCount = 0, demand = true, commitsPending = false)
+      scheduling.currentInterval shouldBe 400.millis
+    }
+
+    "return to the poll interval when records arrive" in {
+      val scheduling = PollScheduling(50.millis, maxPollRecords, adaptive)
+      scheduling.polled(recordCount = 0, demand = true, commitsPending = false)
+      scheduling.polled(recordCount = 1, demand = true, commitsPending = false) shouldBe false
+      scheduling.currentInterval shouldBe 50.millis
+    }
+
+    "not back off while commits are pending" in {
+      val scheduling = PollScheduling(50.millis, maxPollRecords, adaptive)
+      scheduling.polled(recordCount = 0, demand = true, commitsPending = true) shouldBe false
+      scheduling.currentInterval shouldBe 50.millis
+    }
+
+    "poll right away after full batches with outstanding demand" in {
+      val scheduling = PollScheduling(50.millis, maxPollRecords, adaptive)
+      scheduling.polled(recordCount = maxPollRecords, demand = true, commitsPending = false) shouldBe true
+      scheduling.polled(recordCount = maxPollRecords, demand = false, commitsPending = false) shouldBe false
+    }
+
+    "reset to the poll interval" in {
+      val scheduling = PollScheduling(50.millis, maxPollRecords, adaptive)
+      scheduling.reset() shouldBe false
+      scheduling.polled(recordCount = 0, demand = true, commitsPending = false)
+      scheduling.reset() shouldBe true
+      scheduling.currentInterval shouldBe 50.millis
+    }
+  }
+}
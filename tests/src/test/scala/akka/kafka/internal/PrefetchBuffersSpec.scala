@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.kafka.internal.PrefetchBuffers.Credit
+import akka.kafka.tests.scaladsl.LogCapturing
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.TimestampType
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.jdk.CollectionConverters._
+
+class PrefetchBuffersSpec extends AnyWordSpec with Matchers with LogCapturing {
+
+  val tp = new TopicPartition("topic", 0)
+
+  /** A record with 10 bytes of serialized key and value. */
+  def record(offset: Long): ConsumerRecord[String, String] =
+    new ConsumerRecord(tp.topic(), tp.partition(), offset, 0L, TimestampType.CREATE_TIME, -1, 2, 8, "k", "v")
+
+  def chunk(offsets: Long*): java.util.List[ConsumerRecord[String, String]] = offsets.map(record).asJava
+
+  def drain(buffers: PrefetchBuffers[String, String], credit: Credit): Seq[Long] = {
+    val b = Vector.newBuilder[java.util.List[ConsumerRecord[String, String]]]
+    buffers.drainTo(tp, b, credit)
+    b.result().flatMap(_.asScala.map(_.offset()))
+  }
+
+  "Taking records for a credit" should {
+    "take all records of an unlimited credit" in {
+      val credit = new Credit(Int.MaxValue, Long.MaxValue)
+      PrefetchBuffers.take(chunk(1, 2, 3), 1, credit) shouldBe 3
+    }
+
+    "stop when the records are exhausted" in {
+      val credit = new Credit(2, Long.MaxValue)
+      PrefetchBuffers.take(chunk(1, 2, 3), 0, credit) shouldBe 2
+      credit.exhausted shouldBe true
+    }
+
+    "stop after the record exceeding the bytes" in {
+      val credit = new Credit(Int.MaxValue, 15L)
+      PrefetchBuffers.take(chunk(1, 2, 3), 0, credit) shouldBe 2
+      credit.exhausted shouldBe true
+    }
+
+    "take a record larger than the bytes" in {
+      val credit = new Credit(Int.MaxValue, 1L)
+      PrefetchBuffers.take(chunk(1, 2, 3), 0, credit) shouldBe 1
+    }
+  }
+
+  "Prefetch buffers" should {
+    "drain records across chunks within the credit" in {
+      val buffers = new PrefetchBuffers[String, String](maxRecords = 10, maxBytes = 1000L)
+      buffers.add(tp, chunk(1, 2, 3))
+      buffers.add(tp, chunk(4, 5))
+      buffers.bufferedRecords(tp) shouldBe 5
+
+      drain(buffers, new Credit(2, Long.MaxValue)) shouldBe Seq(1L, 2L)
+      buffers.bufferedRecords(tp) shouldBe 3
+      drain(buffers, new Credit(Int.MaxValue, 20L)) shouldBe Seq(3L, 4L)
+      drain(buffers, new Credit(Int.MaxValue, Long.MaxValue)) shouldBe Seq(5L)
+      buffers.nonEmpty(tp) shouldBe false
+      buffers.isEmpty shouldBe true
+    }
+
+    "be full when reaching the records or bytes" in {
+      val byRecords = new PrefetchBuffers[String, String](maxRecords = 2, maxBytes = 1000L)
+      byRecords.add(tp, chunk(1, 2))
+      byRecords.isFull(tp) shouldBe true
+
+      val byBytes = new PrefetchBuffers[String, String](maxRecords = 100, maxBytes = 25L)
+      byBytes.add(tp, chunk(1, 2))
+      byBytes.isFull(tp) shouldBe false
+      byBytes.add(tp, chunk(3))
+      byBytes.isFull(tp) shouldBe true
+    }
+  }
+}
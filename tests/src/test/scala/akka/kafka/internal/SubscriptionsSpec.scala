@@ -58,6 +58,29 @@ class SubscriptionsSpec extends AnyWordSpec with Matchers with LogCapturing {
     }
   }
 
+  "Manual subscriptions" should {
+    val tp0 = new TopicPartition("topic1", 0)
+    val tp1 = new TopicPartition("topic1", 1)
+
+    "be split per partition for assignments" in {
+      BoundedSources.perPartition(Subscriptions.assignment(tp0, tp1)).toSet should be(
+        Set(tp0 -> Subscriptions.assignment(tp0), tp1 -> Subscriptions.assignment(tp1))
+      )
+    }
+
+    "be split per partition keeping the offsets" in {
+      BoundedSources.perPartition(Subscriptions.assignmentWithOffset(Map(tp0 -> 1L, tp1 -> 2L))).toSet should be(
+        Set(tp0 -> Subscriptions.assignmentWithOffset(tp0, 1L), tp1 -> Subscriptions.assignmentWithOffset(tp1, 2L))
+      )
+    }
+
+    "be split per partition keeping the timestamps" in {
+      BoundedSources.perPartition(Subscriptions.assignmentOffsetsForTimes(Map(tp0 -> 10L))) should be(
+        List(tp0 -> Subscriptions.assignmentOffsetsForTimes(tp0, 10L))
+      )
+    }
+  }
+
   private def encode(subscription: Subscription) =
     URLEncoder.encode(subscription.renderStageAttribute, ByteString.UTF_8)
 
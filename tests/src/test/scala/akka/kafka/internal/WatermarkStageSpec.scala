@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 - 2016 Softwaremill <https://softwaremill.com>
+ * Copyright (C) 2016 - 2020 Lightbend Inc. <https://www.lightbend.com>
+ */
+
+package akka.kafka.internal
+
+import akka.actor.ActorSystem
+import akka.kafka.Watermarked.{Element, Watermark}
+import akka.kafka.WatermarkTracker
+import akka.kafka.scaladsl.Watermarks
+import akka.kafka.tests.scaladsl.LogCapturing
+import akka.stream.scaladsl.Keep
+import akka.stream.testkit.scaladsl.StreamTestKit.assertAllStagesStopped
+import akka.stream.testkit.scaladsl.{TestSink, TestSource}
+import akka.testkit.TestKit
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.TimestampType
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpecLike
+
+import scala.concurrent.duration._
+
+class WatermarkStageSpec(_system: ActorSystem)
+    extends TestKit(_system)
+    with AnyWordSpecLike
+    with Matchers
+    with BeforeAndAfterAll
+    with LogCapturing {
+
+  def this() = this(ActorSystem("WatermarkStageSpec"))
+
+  override def afterAll(): Unit = shutdown(system)
+
+  val tp0 = new TopicPartition("topic", 0)
+  val tp1 = new TopicPartition("topic", 1)
+
+  def record(tp: TopicPartition, timestamp: Long): ConsumerRecord[String, String] =
+    new ConsumerRecord(tp.topic, tp.partition, 0L, timestamp, TimestampType.CREATE_TIME, -1L, 1, 1, "k", "v")
+
+  def run(tracker: WatermarkTracker) =
+    TestSource
+      .probe[ConsumerRecord[String, String]]
+      .via(Watermarks.plainFlow(tracker))
+      .toMat(TestSink.probe)(Keep.both)
+      .run()
+
+  "The watermark flow" should {
+    "emit the lowest event time of the assigned partitions when it advances" in assertAllStagesStopped {
+      val tracker = WatermarkTracker(1.hour)
+      tracker.partitionAssignmentHandler.onAssign(Set(tp0, tp1), null)
+      val (source, sink) = run(tracker)
+      sink.request(10)
+
+      val r1 = record(tp0, 10)
+      source.sendNext(r1)
+      sink.expectNext(Element(r1))
+      val r2 = record(tp1, 5)
+      source.sendNext(r2)
+      sink.expectNext(Element(r2), Watermark(5))
+      val r3 = record(tp1, 20)
+      source.sendNext(r3)
+      sink.expectNext(Element(r3), Watermark(10))
+      val r4 = record(tp1, 30)
+      source.sendNext(r4)
+      sink.expectNext(Element(r4))
+      sink.expectNoMessage(50.millis)
+
+      source.sendComplete()
+      sink.expectComplete()
+    }
+
+    "not hold back the watermark for revoked partitions" in assertAllStagesStopped {
+      val tracker = WatermarkTracker(1.hour)
+      tracker.partitionAssignmentHandler.onAssign(Set(tp0, tp1), null)
+      val (source, sink) = run(tracker)
+      sink.request(10)
+
+      val r1 = record(tp1, 50)
+      source.sendNext(r1)
+      sink.expectNext(Element(r1))
+      tracker.partitionAssignmentHandler.onRevoke(Set(tp0), null)
+      val r2 = record(tp1, 60)
+      source.sendNext(r2)
+      sink.expectNext(Element(r2), Watermark(60))
+
+      source.sendComplete()
+      sink.expectComplete()
+    }
+
+    "not hold back the watermark for idle partitions" in assertAllStagesStopped {
+      val tracker = WatermarkTracker(200.millis)
+      val (source, sink) = run(tracker)
+      sink.request(10)
+
+      val r1 = record(tp0, 10)
+      source.sendNext(r1)
+      sink.expectNext(Element(r1), Watermark(10))
+      Thread.sleep(150)
+      val r2 = record(tp1, 50)
+      source.sendNext(r2)
+      sink.expectNext(Element(r2))
+      // partition 0 gets idle before partition 1
+      sink.expectNext(1.second, Watermark(50))
+      // partition 0 is active again, the watermark doesn't decrease
+      val r3 = record(tp0, 20)
+      source.sendNext(r3)
+      sink.expectNext(Element(r3))
+
+      source.sendComplete()
+      sink.expectComplete()
+    }
+  }
+}